@@ -2,6 +2,7 @@ import org.sourcegrade.jagr.gradle.task.grader.GraderRunTask
 
 plugins {
     alias(libs.plugins.algomate)
+    alias(libs.plugins.jmh)
 }
 
 exercise {
@@ -12,6 +13,18 @@ application {
     applicationDefaultJvmArgs += "-ea"
 }
 
+// benchmarks live in src/jmh/java, run them with ./gradlew jmh (-PjmhIncludes=<regex> to select some,
+// -PjmhProfilers=gc to report the bytes allocated per operation)
+jmh {
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+    (findProperty("jmhIncludes") as String?)?.let { includes.set(listOf(it)) }
+    (findProperty("jmhProfilers") as String?)?.let { profilers.set(it.split(",")) }
+}
+
 submission {
     // ACHTUNG!
     // Setzen Sie im folgenden Bereich Ihre TU-ID (NICHT Ihre Matrikelnummer!), Ihren Nachnamen und Ihren Vornamen
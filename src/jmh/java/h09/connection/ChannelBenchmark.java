@@ -0,0 +1,104 @@
+package h09.connection;
+
+import h09.packet.Packet;
+import h09.packet.PacketType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures delivery through {@link InternetPool#sendPacket} over the different {@link Channel Channels}.
+ * <p>
+ * {@link #throughput()} pushes a batch of packets and waits until the delivery engine has routed all
+ * of them through the channel, i.e. delivered, dropped or scheduled for a delay.
+ * {@link #throughputBatch()} does the same with one {@link InternetPool#sendBatch} call per batch.
+ * {@link #latency()} sends one packet and waits until it reaches the receiver; a lost packet is sent
+ * again after {@link #RESEND_AFTER_MILLIS} like the TCP layer would.
+ * The delays of the {@link TimeoutChannel} are scaled down to at most {@link #MAX_DELAY_MILLIS}.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChannelBenchmark {
+
+    static final long SEED = 42;
+    static final int BATCH = 1000;
+    static final long MAX_DELAY_MILLIS = 2;
+    static final long RESEND_AFTER_MILLIS = 5;
+
+    @Param({"plain", "lossy", "timeout"})
+    public String channel;
+
+    private final Semaphore received = new Semaphore(0);
+    private int port;
+    private Packet packet;
+    private List<Packet> batch;
+
+    @Setup
+    public void setup() throws Exception {
+        InternetPool.setChannel(switch (channel) {
+            case "plain" -> new Channel();
+            case "lossy" -> new LossyChannel(new Random(SEED), 0.1);
+            case "timeout" -> new TimeoutChannel(new Random(SEED), MAX_DELAY_MILLIS);
+            default -> throw new IllegalArgumentException(channel);
+        });
+        port = InternetPool.registerDevice(p -> received.release());
+        packet = new Packet(port, port, 1, PacketType.DATA, "payload!");
+        batch = Collections.nCopies(BATCH, packet);
+    }
+
+    @TearDown
+    public void tearDown() {
+        InternetPool.unregisterDevice(port);
+        InternetPool.setChannel(new Channel());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OperationsPerInvocation(BATCH)
+    public void throughput() throws Exception {
+        DeliveryMetrics metrics = InternetPool.getDeliveryEngine().getMetrics();
+        long target = metrics.getDeliveryLatency().getCount() + BATCH;
+        for (int i = 0; i < BATCH; i++) {
+            InternetPool.sendPacket(port, packet);
+        }
+        while (metrics.getDeliveryLatency().getCount() < target) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OperationsPerInvocation(BATCH)
+    public void throughputBatch() throws Exception {
+        DeliveryMetrics metrics = InternetPool.getDeliveryEngine().getMetrics();
+        // the whole batch is one delivery
+        long target = metrics.getDeliveryLatency().getCount() + 1;
+        InternetPool.sendBatch(port, batch);
+        while (metrics.getDeliveryLatency().getCount() < target) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public void latency() throws Exception {
+        do {
+            InternetPool.sendPacket(port, packet);
+        } while (!received.tryAcquire(RESEND_AFTER_MILLIS, TimeUnit.MILLISECONDS));
+        // a resent packet may still arrive late, it must not count for the next invocation
+        received.drainPermits();
+    }
+}
@@ -0,0 +1,81 @@
+package h09.device;
+
+import h09.connection.Channel;
+import h09.connection.InternetPool;
+import h09.connection.LossyChannel;
+import h09.packet.Packet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures complete {@link TCPClient} exchanges against a {@link TCPServer}.
+ * <p>
+ * {@link #connectSendReceive()} connects a new client for every request like
+ * {@code Requests.fetch}, {@link #keepAliveSendReceive()} reuses one kept-alive connection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TCPRoundTripBenchmark {
+
+    static final long SEED = 42;
+    static final int SERVER_PORT = 443;
+
+    @Param({"plain", "lossy"})
+    public String channel;
+
+    @Param({"1", "8"})
+    public int window;
+
+    @Param({"12", "512"})
+    public int requestLength;
+
+    private TCPServer server;
+    private TCPClient keepAliveClient;
+    private String request;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        InternetPool.setChannel(channel.equals("lossy") ? new LossyChannel(new Random(SEED), 0.01) : new Channel());
+        server = new TCPServer(SERVER_PORT);
+        request = "x".repeat(requestLength);
+        keepAliveClient = new TCPClient(SERVER_PORT, window, Packet.DEFAULT_SEGMENT_SIZE, true);
+        keepAliveClient.connect();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        keepAliveClient.close();
+        server.close();
+        InternetPool.setChannel(new Channel());
+    }
+
+    @Benchmark
+    public String connectSendReceive() throws Exception {
+        TCPClient client = new TCPClient(SERVER_PORT, window);
+        try {
+            client.connect();
+            client.send(request);
+            return client.receive();
+        } finally {
+            client.close();
+        }
+    }
+
+    @Benchmark
+    public String keepAliveSendReceive() throws Exception {
+        keepAliveClient.send(request);
+        return keepAliveClient.receive();
+    }
+}
@@ -0,0 +1,79 @@
+package h09.packet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of the {@link PacketChecksum} strategies per packet for different payload sizes.
+ * Constructing a packet calculates the checksum once, validating it calculates it again.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ChecksumBenchmark {
+
+    @Param({"NONE", "LEGACY", "CRC32C", "ADLER32"})
+    public String checksum;
+
+    @Param({"8", "64", "1024", "65535"})
+    public int size;
+
+    private String text;
+    private ByteBuffer bytes;
+    private Packet textPacket;
+    private Packet binaryPacket;
+
+    @Setup
+    public void setup() {
+        Packet.setChecksum(switch (checksum) {
+            case "NONE" -> PacketChecksum.NONE;
+            case "LEGACY" -> PacketChecksum.LEGACY;
+            case "CRC32C" -> PacketChecksum.CRC32C;
+            case "ADLER32" -> PacketChecksum.ADLER32;
+            default -> throw new IllegalArgumentException(checksum);
+        });
+        Random random = new Random(42);
+        StringBuilder builder = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            builder.append((char) ('a' + random.nextInt(26)));
+        }
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        text = builder.toString();
+        bytes = ByteBuffer.wrap(data).asReadOnlyBuffer();
+        textPacket = new Packet(1, 2, 3, PacketType.DATA, text);
+        binaryPacket = new Packet(1, 2, 3, bytes, null);
+    }
+
+    @Benchmark
+    public Packet constructText() {
+        return new Packet(1, 2, 3, PacketType.DATA, text);
+    }
+
+    @Benchmark
+    public Packet constructBinary() {
+        return new Packet(1, 2, 3, bytes, null);
+    }
+
+    @Benchmark
+    public Packet validateText() throws Exception {
+        textPacket.validateChecksum();
+        return textPacket;
+    }
+
+    @Benchmark
+    public Packet validateBinary() throws Exception {
+        binaryPacket.validateChecksum();
+        return binaryPacket;
+    }
+}
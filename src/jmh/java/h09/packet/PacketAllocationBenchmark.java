@@ -0,0 +1,82 @@
+package h09.packet;
+
+import h09.connection.Connection;
+import h09.connection.InlineDeliveryEngine;
+import h09.connection.InternetPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what a single packet costs on its way through a {@link Connection}, mainly in allocated bytes.
+ * Run it with the GC profiler, {@code ./gradlew jmh -PjmhIncludes=PacketAllocation -PjmhProfilers=gc},
+ * and compare {@code gc.alloc.rate.norm}, the bytes allocated per packet.
+ * <p>
+ * Packets are delivered on the sending thread by an {@link InlineDeliveryEngine}, so the numbers contain
+ * nothing but constructing, routing, queueing and checking the packet. The receiver reads the header fields
+ * like the TCP layer does. For the allocation of complete exchanges, run {@code TCPRoundTripBenchmark}
+ * with the GC profiler.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PacketAllocationBenchmark {
+
+    @Param({"ACK", "DATA"})
+    public String type;
+
+    private int port;
+    private Connection connection;
+    private int sequence;
+    private long headerSum;
+
+    @Setup
+    public void setup() throws Exception {
+        // every benchmark runs in its own fork, so the engine is not restored afterwards
+        InternetPool.setDeliveryEngine(new InlineDeliveryEngine());
+        Connection[] receiver = new Connection[1];
+        port = InternetPool.registerDevice(packet -> {
+            headerSum += packet.getSourcePort() + packet.getSequenceNumber() + packet.getType().ordinal();
+            receiver[0].addPacket(packet);
+        });
+        connection = new Connection(port, port);
+        receiver[0] = connection;
+    }
+
+    @TearDown
+    public void tearDown() {
+        InternetPool.unregisterDevice(port);
+    }
+
+    @Benchmark
+    public long sendAndReceive() throws Exception {
+        int seq = sequence = sequence == Integer.MAX_VALUE ? 1 : sequence + 1;
+        if (type.equals("ACK")) {
+            connection.sendPacket(seq, PacketType.ACK, null);
+        } else {
+            connection.sendPacket(seq, PacketType.DATA, "payload!");
+        }
+        Packet packet = connection.waitForPacket();
+        packet.expectSequenceNumber(seq);
+        packet.validateChecksum();
+        return headerSum;
+    }
+
+    @Benchmark
+    public long constructAndRead() {
+        int seq = sequence = sequence == Integer.MAX_VALUE ? 1 : sequence + 1;
+        Packet packet = type.equals("ACK")
+            ? new Packet(port, port, seq, PacketType.ACK, null)
+            : new Packet(port, port, seq, PacketType.DATA, "payload!");
+        return packet.getSourcePort() + packet.getDestinationPort() + packet.getSequenceNumber()
+            + packet.getHeaderChecksum() + packet.getType().ordinal();
+    }
+}
@@ -0,0 +1,83 @@
+package h09.packet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@link PacketCodec} in packets per microsecond, encoding and decoding
+ * batches of {@link #BATCH} DATA packets with text or bytes through a direct buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PacketCodecBenchmark {
+
+    static final int BATCH = 64;
+
+    @Param({"text", "binary"})
+    public String payload;
+
+    @Param({"8", "1024"})
+    public int size;
+
+    private final List<Packet> packets = new ArrayList<>(BATCH);
+    private final List<Packet> decoded = new ArrayList<>(BATCH);
+    private ByteBuffer encodeBuffer;
+    private ByteBuffer decodeBuffer;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        int capacity = 0;
+        for (int i = 0; i < BATCH; i++) {
+            Packet packet;
+            if (payload.equals("text")) {
+                StringBuilder builder = new StringBuilder(size);
+                for (int j = 0; j < size; j++) {
+                    builder.append((char) ('a' + random.nextInt(26)));
+                }
+                packet = new Packet(1, 2, i + 1, PacketType.DATA, builder.toString());
+            } else {
+                byte[] bytes = new byte[size];
+                random.nextBytes(bytes);
+                packet = new Packet(1, 2, i + 1, ByteBuffer.wrap(bytes), null);
+            }
+            packets.add(packet);
+            capacity += PacketCodec.encodedSize(packet);
+        }
+        encodeBuffer = ByteBuffer.allocateDirect(capacity);
+        decodeBuffer = ByteBuffer.allocateDirect(capacity);
+        PacketCodec.encodeAll(packets, decodeBuffer);
+        decodeBuffer.flip();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public ByteBuffer encodeBatch() {
+        encodeBuffer.clear();
+        PacketCodec.encodeAll(packets, encodeBuffer);
+        return encodeBuffer;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<Packet> decodeBatch() throws Exception {
+        decodeBuffer.rewind();
+        decoded.clear();
+        PacketCodec.decodeAll(decodeBuffer, decoded);
+        return decoded;
+    }
+}
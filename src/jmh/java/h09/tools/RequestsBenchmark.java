@@ -0,0 +1,77 @@
+package h09.tools;
+
+import h09.connection.Channel;
+import h09.connection.InternetPool;
+import h09.device.TCPServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Requests#fetch} under {@code callers} concurrent callers, each sending one request
+ * per invocation, with and without a {@link TCPClientPool}. The score is the time until all callers got
+ * their reply.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RequestsBenchmark {
+
+    static final int SERVER_PORT = 443;
+
+    @Param({"1", "16", "256"})
+    public int callers;
+
+    @Param({"true", "false"})
+    public boolean pooled;
+
+    private TCPServer server;
+    private TCPClientPool pool;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        InternetPool.setChannel(new Channel());
+        server = new TCPServer(SERVER_PORT);
+        pool = new TCPClientPool();
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.close();
+        pool.close();
+        server.close();
+    }
+
+    @Benchmark
+    public int fetch() throws Exception {
+        List<Future<String>> replies = new ArrayList<>(callers);
+        for (int i = 0; i < callers; i++) {
+            replies.add(executor.submit(() -> pooled
+                ? Requests.fetch(pool, SERVER_PORT, "Hello Server")
+                : Requests.fetch(SERVER_PORT, "Hello Server")));
+        }
+        int ok = 0;
+        for (Future<String> reply : replies) {
+            if (reply.get() != null) {
+                ok++;
+            }
+        }
+        return ok;
+    }
+}
@@ -0,0 +1,144 @@
+package h09.utils;
+
+import h09.connection.Connection;
+import h09.connection.InternetPool;
+import h09.packet.Packet;
+import h09.packet.PacketType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the round-trip latency of the receive queues: the {@link LinkedBlockingQueue} of the system clock
+ * and a {@link MpscArrayBlockingQueue} with every {@link WaitStrategy}. JMH prints the percentiles and a
+ * histogram of the sampled times.
+ * <p>
+ * {@link #queuePingPong} hands a packet to an echo thread and waits for it to come back, i.e. two hops
+ * through the queues alone. {@link #connectionPingPong} does the same with two {@link Connection Connections},
+ * so the packets also pass the channel and the delivery engine.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ReceiveQueueBenchmark {
+
+    /**
+     * Creates a queue of the given kind.
+     *
+     * @param kind {@code linked} or the name of a {@link WaitStrategy}
+     * @return the new queue
+     */
+    static BlockingQueue<Packet> newQueue(String kind) {
+        return kind.equals("linked") ? new LinkedBlockingQueue<>() : new MpscArrayBlockingQueue<>(WaitStrategy.valueOf(kind));
+    }
+
+    /**
+     * Starts the echo thread, a platform thread so that spinning does not block a carrier thread.
+     */
+    static Thread startEcho(Runnable echo) {
+        return Thread.ofPlatform().daemon().name("echo").start(() -> {
+            try {
+                echo.run();
+            } catch (RuntimeException e) {
+                // interrupted by the tear down
+            }
+        });
+    }
+
+    @State(Scope.Benchmark)
+    public static class QueuePair {
+
+        @Param({"linked", "BUSY_SPIN", "YIELDING", "PARKING"})
+        public String queue;
+
+        BlockingQueue<Packet> request;
+        BlockingQueue<Packet> response;
+        Packet packet;
+        private Thread echo;
+
+        @Setup
+        public void setup() {
+            request = newQueue(queue);
+            response = newQueue(queue);
+            packet = new Packet(1, 2, 1, PacketType.ACK, null);
+            echo = startEcho(() -> {
+                try {
+                    while (true) {
+                        response.add(request.take());
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            echo.interrupt();
+            echo.join();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ConnectionPair {
+
+        @Param({"linked", "BUSY_SPIN", "YIELDING", "PARKING"})
+        public String queue;
+
+        Connection client;
+        private Connection server;
+        private int clientPort;
+        private int serverPort;
+        private Thread echo;
+
+        @Setup
+        public void setup() throws Exception {
+            InternetPool.setReceiveQueueFactory(() -> newQueue(queue));
+            Connection[] connections = new Connection[2];
+            clientPort = InternetPool.registerDevice(p -> connections[0].addPacket(p));
+            serverPort = InternetPool.registerDevice(p -> connections[1].addPacket(p));
+            client = connections[0] = new Connection(clientPort, serverPort);
+            server = connections[1] = new Connection(serverPort, clientPort);
+            InternetPool.setReceiveQueueFactory(null);
+            echo = startEcho(() -> {
+                try {
+                    while (true) {
+                        Packet packet = server.waitForPacket();
+                        server.sendPacket(packet.getSequenceNumber(), PacketType.ACK, null);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            echo.interrupt();
+            echo.join();
+            InternetPool.unregisterDevice(clientPort);
+            InternetPool.unregisterDevice(serverPort);
+        }
+    }
+
+    @Benchmark
+    public Packet queuePingPong(QueuePair pair) throws InterruptedException {
+        pair.request.add(pair.packet);
+        return pair.response.take();
+    }
+
+    @Benchmark
+    public Packet connectionPingPong(ConnectionPair pair) throws Exception {
+        pair.client.sendPacket(1, PacketType.DATA, "ping");
+        return pair.client.waitForPacket();
+    }
+}
@@ -1,7 +1,9 @@
 package h09;
 
+import h09.connection.DatagramTransport;
 import h09.connection.InternetPool;
 import h09.connection.LossyChannel;
+import h09.connection.PooledDeliveryEngine;
 import h09.connection.TimeoutChannel;
 import h09.device.TCPClient;
 import h09.device.TCPServer;
@@ -24,6 +26,9 @@ public class Main {
         Verbose.turnVerbose();
         //InternetPool.setChannel(new LossyChannel());
         //InternetPool.setChannel(new TimeoutChannel());
+        //InternetPool.setDeliveryEngine(new PooledDeliveryEngine());
+        // reaches devices of other processes on this machine that installed a transport as well
+        //InternetPool.setTransport(new DatagramTransport());
         try {
             TCPServer server = new TCPServer(443);
 
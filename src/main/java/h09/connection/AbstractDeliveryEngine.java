@@ -0,0 +1,56 @@
+package h09.connection;
+
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+/**
+ * Base class for {@link DeliveryEngine DeliveryEngines}.
+ * Takes care of recording the {@link DeliveryMetrics} and reporting exceptions
+ * thrown by deliveries, so subclasses only have to decide where a delivery runs.
+ */
+@DoNotTouch
+public abstract class AbstractDeliveryEngine implements DeliveryEngine {
+
+    /**
+     * The metrics of this engine.
+     */
+    @DoNotTouch
+    private final DeliveryMetrics metrics = new DeliveryMetrics();
+
+    @Override
+    @DoNotTouch
+    public final void deliver(int port, Runnable delivery) {
+        long submitted = metrics.onSubmit();
+        dispatch(port, () -> {
+            metrics.onStart(submitted);
+            try {
+                delivery.run();
+            } catch (RuntimeException e) {
+                Thread current = Thread.currentThread();
+                current.getUncaughtExceptionHandler().uncaughtException(current, e);
+            } finally {
+                metrics.onFinish(submitted);
+            }
+        });
+    }
+
+    /**
+     * Executes the given task for the given destination port.
+     *
+     * @param port the destination port of the delivery
+     * @param task the task to execute, never throws
+     */
+    @DoNotTouch
+    protected abstract void dispatch(int port, Runnable task);
+
+    @Override
+    @DoNotTouch
+    public DeliveryMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    @DoNotTouch
+    public void shutdown() {
+    }
+
+}
@@ -5,6 +5,8 @@ import h09.packet.PacketType;
 import h09.utils.PacketConsumer;
 import org.tudalgo.algoutils.student.annotation.DoNotTouch;
 
+import java.util.List;
+
 /**
  * Represents a communication channel for routing packets to consumers.
  * Provides basic packet routing functionality that can be extended by subclasses.
@@ -24,6 +26,22 @@ public class Channel {
         consumer.accept(packet);
     }
 
+    /**
+     * Internal method for routing a batch of {@link Packet Packets} to one consumer,
+     * see {@link #routeBatch(PacketConsumer, List)}.
+     * Routes every packet with {@link #routeInner} by default; subclasses can override it
+     * to handle the whole batch at once.
+     *
+     * @param consumer the packet consumer that will receive the packets
+     * @param packets  the packets to be routed, none of them is a {@link PacketType#CLOSE CLOSE} packet
+     */
+    @DoNotTouch
+    protected void routeBatchInner(PacketConsumer consumer, List<Packet> packets) {
+        for (Packet packet : packets) {
+            routeInner(consumer, packet);
+        }
+    }
+
     /**
      * Routes a {@link Packet} to a consumer.
      * {@link PacketType#CLOSE CLOSE} packets are always routed directly to
@@ -34,7 +52,7 @@ public class Channel {
      */
     @DoNotTouch
     public void route(PacketConsumer consumer, Packet packet) {
-        if (packet.getHeader().type() == PacketType.CLOSE) {
+        if (packet.getType() == PacketType.CLOSE) {
             // no playing around with close
             consumer.accept(packet);
         } else {
@@ -42,4 +60,31 @@ public class Channel {
         }
     }
 
+    /**
+     * Routes a batch of {@link Packet Packets} to one consumer, like {@link #route} for every packet in order.
+     * The packets between two {@link PacketType#CLOSE CLOSE} packets are passed to
+     * {@link #routeBatchInner} together, close packets are routed directly to the consumer.
+     *
+     * @param consumer the packet consumer that will receive the packets
+     * @param packets  the packets to be routed
+     */
+    @DoNotTouch
+    public void routeBatch(PacketConsumer consumer, List<Packet> packets) {
+        int start = 0;
+        for (int i = 0; i < packets.size(); i++) {
+            Packet packet = packets.get(i);
+            if (packet.getType() == PacketType.CLOSE) {
+                if (start < i) {
+                    routeBatchInner(consumer, packets.subList(start, i));
+                }
+                // no playing around with close
+                consumer.accept(packet);
+                start = i + 1;
+            }
+        }
+        if (start < packets.size()) {
+            routeBatchInner(consumer, start == 0 ? packets : packets.subList(start, packets.size()));
+        }
+    }
+
 }
@@ -0,0 +1,79 @@
+package h09.connection;
+
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.random.RandomGenerator;
+
+/**
+ * Source of time for the simulated network.
+ * <p>
+ * Everything that waits, measures time or runs concurrently in the network asks the clock of the
+ * {@link InternetPool} instead of the system: connections wait on queues created by {@link #newQueue()},
+ * servers run their handlers on threads of {@link #newThreadFactory(String)}, channels delay packets with
+ * {@link #schedule(Runnable, long, TimeUnit)} and round-trip times are measured with {@link #nanoTime()}.
+ * So devices run unchanged on the real {@link #SYSTEM} clock and on a {@link VirtualClock}.
+ */
+@DoNotTouch
+public interface Clock {
+
+    /**
+     * The clock following the real time of the system.
+     */
+    @DoNotTouch
+    Clock SYSTEM = new SystemClock();
+
+    /**
+     * Returns the current time of this clock, only meaningful relative to other times of this clock.
+     *
+     * @return the current time in nanoseconds
+     */
+    @DoNotTouch
+    long nanoTime();
+
+    /**
+     * Returns a random number generator for protocol decisions like initial sequence numbers.
+     *
+     * @return the random number generator for the calling thread
+     */
+    @DoNotTouch
+    RandomGenerator random();
+
+    /**
+     * Creates a queue whose blocking operations wait according to this clock.
+     *
+     * @param <E> the type of the elements
+     * @return a new unbounded queue
+     */
+    @DoNotTouch
+    <E> BlockingQueue<E> newQueue();
+
+    /**
+     * Returns a factory for threads that may block on queues of this clock.
+     *
+     * @param prefix the prefix of the thread names, followed by a counter
+     * @return the thread factory
+     */
+    @DoNotTouch
+    ThreadFactory newThreadFactory(String prefix);
+
+    /**
+     * Runs a short task, e.g. delivering a packet, once the given delay has passed on this clock.
+     *
+     * @param task  the task to run, must not block
+     * @param delay the delay
+     * @param unit  the unit of the delay
+     */
+    @DoNotTouch
+    void schedule(Runnable task, long delay, TimeUnit unit);
+
+    /**
+     * Interrupts a thread blocked on a queue of this clock.
+     *
+     * @param thread the thread to interrupt
+     */
+    @DoNotTouch
+    void interrupt(Thread thread);
+}
@@ -0,0 +1,203 @@
+package h09.connection;
+
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+/**
+ * Limits how many DATA packets a {@link Connection} keeps unacknowledged, so that senders sharing a lossy
+ * channel back off together instead of retransmitting into it.
+ * <p>
+ * Follows slow start and additive increase, multiplicative decrease (AIMD), counted in packets:
+ * below the slow start threshold every acknowledged packet grows the congestion window by one packet,
+ * above it by {@code 1 / cwnd}, i.e. one packet per window. A loss detected by duplicate or selective
+ * acknowledgements halves the window, a timeout halves the threshold and restarts slow start.
+ * The window never drops below {@link #MIN_WINDOW}: with fewer packets in flight a further loss cannot
+ * cause three duplicate acknowledgements and is only detected by a timeout, which costs far more than
+ * the few extra packets. The sender uses the smaller of the congestion window, the agreed window and
+ * the receive window.
+ */
+@DoNotTouch
+public class CongestionControl {
+
+    /**
+     * Default congestion window of a new connection, in packets.
+     */
+    @DoNotTouch
+    public static final int DEFAULT_INITIAL_WINDOW = 4;
+
+    /**
+     * The smallest congestion window, in packets, also the window slow start restarts from after a timeout.
+     */
+    @DoNotTouch
+    public static final int MIN_WINDOW = 4;
+
+    @DoNotTouch
+    private static volatile int defaultInitialWindow = DEFAULT_INITIAL_WINDOW;
+
+    @DoNotTouch
+    private static volatile boolean defaultEnabled = true;
+
+    /**
+     * Whether the congestion window limits the sender.
+     */
+    @DoNotTouch
+    private final boolean enabled;
+
+    /**
+     * The congestion window in packets, fractional during congestion avoidance.
+     */
+    @DoNotTouch
+    private double cwnd;
+
+    /**
+     * The slow start threshold in packets.
+     */
+    @DoNotTouch
+    private double ssthresh = Integer.MAX_VALUE;
+
+    @DoNotTouch
+    private long losses;
+
+    @DoNotTouch
+    private long timeouts;
+
+    /**
+     * Constructs a new congestion control.
+     *
+     * @param initialWindow the congestion window before the first acknowledgement in packets, at least {@link #MIN_WINDOW}
+     * @param enabled       whether the congestion window limits the sender
+     */
+    @DoNotTouch
+    public CongestionControl(int initialWindow, boolean enabled) {
+        assert initialWindow > 0;
+        this.cwnd = Math.max(MIN_WINDOW, initialWindow);
+        this.enabled = enabled;
+    }
+
+    /**
+     * Constructs a new congestion control using the current defaults.
+     *
+     * @see #setDefaults(int, boolean)
+     */
+    @DoNotTouch
+    public CongestionControl() {
+        this(defaultInitialWindow, defaultEnabled);
+    }
+
+    /**
+     * Sets the defaults used by congestion controls created afterwards with {@link #CongestionControl()}.
+     *
+     * @param initialWindow the congestion window before the first acknowledgement in packets
+     * @param enabled       whether the congestion window limits the sender
+     */
+    @DoNotTouch
+    public static void setDefaults(int initialWindow, boolean enabled) {
+        assert initialWindow > 0;
+        defaultInitialWindow = initialWindow;
+        defaultEnabled = enabled;
+    }
+
+    /**
+     * Reports that the peer acknowledged new packets. Grows the window.
+     *
+     * @param packets the number of newly acknowledged packets
+     */
+    @DoNotTouch
+    public synchronized void onAck(int packets) {
+        for (int i = 0; i < packets; i++) {
+            cwnd += cwnd < ssthresh ? 1 : 1 / cwnd;
+        }
+    }
+
+    /**
+     * Reports a lost packet that was detected by duplicate or selective acknowledgements.
+     * Halves the window; should be reported at most once per window of packets.
+     */
+    @DoNotTouch
+    public synchronized void onLoss() {
+        losses++;
+        ssthresh = Math.max(MIN_WINDOW, cwnd / 2);
+        cwnd = ssthresh;
+    }
+
+    /**
+     * Reports that waiting for an acknowledgement timed out. Restarts slow start from {@link #MIN_WINDOW}.
+     */
+    @DoNotTouch
+    public synchronized void onTimeout() {
+        timeouts++;
+        ssthresh = Math.max(MIN_WINDOW, cwnd / 2);
+        cwnd = MIN_WINDOW;
+    }
+
+    /**
+     * Returns the number of packets the sender may keep unacknowledged.
+     *
+     * @return the congestion window in whole packets or {@link Integer#MAX_VALUE} if disabled
+     */
+    @DoNotTouch
+    public synchronized int getWindow() {
+        return enabled ? (int) cwnd : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the current congestion window, even if it does not limit the sender.
+     *
+     * @return the congestion window in packets
+     */
+    @DoNotTouch
+    public synchronized double getCwnd() {
+        return cwnd;
+    }
+
+    /**
+     * Returns the slow start threshold.
+     *
+     * @return the threshold in packets, {@link Integer#MAX_VALUE} until the first loss or timeout
+     */
+    @DoNotTouch
+    public synchronized double getSlowStartThreshold() {
+        return ssthresh;
+    }
+
+    /**
+     * Checks whether the congestion window limits the sender.
+     *
+     * @return true if enabled
+     */
+    @DoNotTouch
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the number of losses detected by acknowledgements.
+     *
+     * @return the number of losses
+     */
+    @DoNotTouch
+    public synchronized long getLosses() {
+        return losses;
+    }
+
+    /**
+     * Returns the number of timeouts.
+     *
+     * @return the number of timeouts
+     */
+    @DoNotTouch
+    public synchronized long getTimeouts() {
+        return timeouts;
+    }
+
+    @Override
+    @DoNotTouch
+    public synchronized String toString() {
+        return "CongestionControl{" +
+            "cwnd=" + cwnd +
+            ", ssthresh=" + ssthresh +
+            ", losses=" + losses +
+            ", timeouts=" + timeouts +
+            ", enabled=" + enabled +
+            '}';
+    }
+}
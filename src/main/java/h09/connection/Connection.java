@@ -4,19 +4,42 @@ import h09.exceptions.InternetException;
 import h09.exceptions.TimeoutException;
 import h09.packet.Packet;
 import h09.packet.PacketType;
+import h09.packet.TCPOptions;
 import org.tudalgo.algoutils.student.annotation.DoNotTouch;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Represents a network connection between two ports.
  * This class handles the sending and receiving of packets between a source port and a destination port.
+ * <p>
+ * At most {@link #getReceiveCapacity() the receive capacity} of packets wait in the queue of a connection.
+ * Packets arriving at a full queue are dropped and counted, except {@link PacketType#CLOSE CLOSE} packets;
+ * the sender resends them like lost packets. Once the queue is half full, receivers advertise the remaining
+ * space in their acknowledgements with {@link #withReceiveWindow(TCPOptions)} so that senders slow down.
+ * Devices agree on windows no larger than their receive capacity, so an acknowledgement without a receive
+ * window leaves the sender the agreed window.
+ * <p>
+ * Packets older than the {@link #expectSequenceNumber(int) expected sequence number} are stale, e.g.
+ * retransmits of packets the receiver already has. Only one of them at a time waits in the queue,
+ * the others are dropped before they wake the receiver.
  */
 @DoNotTouch
 public class Connection {
 
+    /**
+     * The number of packets a connection queues by default before it drops arriving packets.
+     */
+    @DoNotTouch
+    public static final int DEFAULT_RECEIVE_CAPACITY = 256;
+
     /**
      * The source port of this connection.
      */
@@ -36,39 +59,148 @@ public class Connection {
     private final BlockingQueue<Packet> packetQueue;
 
     /**
-     * Constructs a Connection with specified source port, destination port, and packet queue.
+     * The maximum number of packets in {@link #packetQueue}.
+     */
+    @DoNotTouch
+    private final int receiveCapacity;
+
+    /**
+     * The number of packets in {@link #packetQueue}.
+     */
+    @DoNotTouch
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * The largest number of packets that were in {@link #packetQueue} at once.
+     */
+    @DoNotTouch
+    private final AtomicInteger peakQueued = new AtomicInteger();
+
+    /**
+     * The number of packets dropped because {@link #packetQueue} was full.
+     */
+    @DoNotTouch
+    private final LongAdder droppedPackets = new LongAdder();
+
+    /**
+     * Packets with a lower sequence number are stale, {@link Integer#MIN_VALUE} if no packet is stale.
+     */
+    @DoNotTouch
+    private volatile int expectedSequence = Integer.MIN_VALUE;
+
+    /**
+     * The stale packet waiting in {@link #packetQueue} or null if there is none.
+     */
+    @DoNotTouch
+    private final AtomicReference<Packet> queuedStale = new AtomicReference<>();
+
+    /**
+     * The number of stale packets dropped because another stale packet was waiting.
+     */
+    @DoNotTouch
+    private final LongAdder coalescedPackets = new LongAdder();
+
+    /**
+     * Round-trip estimation and retransmission timeout of this connection.
+     */
+    @DoNotTouch
+    private final RetransmissionTimer retransmissionTimer = new RetransmissionTimer();
+
+    /**
+     * Congestion window of the packets this connection sends.
+     */
+    @DoNotTouch
+    private final CongestionControl congestionControl = new CongestionControl();
+
+    /**
+     * The clock this connection measures and waits with.
+     */
+    @DoNotTouch
+    private final Clock clock = InternetPool.getClock();
+
+    /**
+     * The packets collected since {@link #beginBatch()} and the thread collecting them, or null if packets
+     * are sent right away. Only the owning thread changes the list, other threads merely compare the owner.
+     */
+    @DoNotTouch
+    private volatile Batch batch;
+
+    /**
+     * Constructs a Connection with specified source port, destination port, packet queue and receive capacity.
+     * Packets are only removed from the queue by the thread waiting for them, so a single-consumer queue
+     * like {@link h09.utils.MpscArrayBlockingQueue} is sufficient.
      *
      * @param sourcePort      The source port for this connection
      * @param destinationPort The destination port for this connection
      * @param packetQueue     The queue to store received packets
+     * @param receiveCapacity The maximum number of packets in the queue
      */
     @DoNotTouch
-    public Connection(int sourcePort, int destinationPort, BlockingQueue<Packet> packetQueue) {
+    public Connection(int sourcePort, int destinationPort, BlockingQueue<Packet> packetQueue, int receiveCapacity) {
+        if (receiveCapacity <= 0) {
+            throw new IllegalArgumentException("invalid receive capacity: " + receiveCapacity);
+        }
         this.sourcePort = sourcePort;
         this.destinationPort = destinationPort;
         this.packetQueue = packetQueue;
+        this.receiveCapacity = receiveCapacity;
+    }
+
+    /**
+     * Constructs a Connection with specified source port, destination port, and packet queue,
+     * holding at most {@link #DEFAULT_RECEIVE_CAPACITY} packets.
+     *
+     * @param sourcePort      The source port for this connection
+     * @param destinationPort The destination port for this connection
+     * @param packetQueue     The queue to store received packets
+     */
+    @DoNotTouch
+    public Connection(int sourcePort, int destinationPort, BlockingQueue<Packet> packetQueue) {
+        this(sourcePort, destinationPort, packetQueue, DEFAULT_RECEIVE_CAPACITY);
     }
 
     /**
      * Constructs a Connection with specified source port and destination port.
-     * Creates a new LinkedBlockingQueue for packet storage.
+     * Creates a new receive queue with {@link InternetPool#newReceiveQueue()} for packet storage,
+     * by default a queue of the current {@link Clock}, holding at most {@link InternetPool#getReceiveCapacity()} packets.
      *
      * @param sourcePort      The source port for this connection
      * @param destinationPort The destination port for this connection
      */
     @DoNotTouch
     public Connection(int sourcePort, int destinationPort) {
-        this(sourcePort, destinationPort, new LinkedBlockingQueue<>());
+        this(sourcePort, destinationPort, InternetPool.newReceiveQueue(), InternetPool.getReceiveCapacity());
     }
 
     /**
      * Adds a packet to this connection's packet queue.
+     * If the queue already holds {@link #getReceiveCapacity() the receive capacity} of packets or refuses
+     * the packet, the packet is dropped and counted, unless it is a {@link PacketType#CLOSE CLOSE} packet.
+     * A stale packet is dropped and counted while another stale packet waits in the queue,
+     * see {@link #expectSequenceNumber(int)}.
      *
      * @param packet The packet to add to the queue
      */
     @DoNotTouch
     public void addPacket(Packet packet) {
-        packetQueue.add(packet);
+        boolean stale = packet.getSequenceNumber() < expectedSequence && packet.getType() != PacketType.CLOSE;
+        if (stale && !queuedStale.compareAndSet(null, packet)) {
+            coalescedPackets.increment();
+            return;
+        }
+        int count = queued.incrementAndGet();
+        if (count > receiveCapacity && packet.getType() != PacketType.CLOSE || !packetQueue.offer(packet)) {
+            queued.decrementAndGet();
+            droppedPackets.increment();
+            if (stale) {
+                // the packet never reaches the queue, so the consumer will not clear it
+                queuedStale.set(null);
+            }
+            return;
+        }
+        if (count > peakQueued.get()) {
+            peakQueued.accumulateAndGet(count, Math::max);
+        }
     }
 
     /**
@@ -80,7 +212,7 @@ public class Connection {
     @DoNotTouch
     public Packet waitForPacket() {
         try {
-            return packetQueue.take();
+            return taken(packetQueue.take());
         } catch (InterruptedException e) {
             throw new RuntimeException(e); // mitigate to handler
         }
@@ -100,12 +232,154 @@ public class Connection {
             if (result == null) {
                 throw new TimeoutException("Timeout while waiting for packet!");
             }
-            return result;
+            return taken(result);
         } catch (InterruptedException e) {
             throw new RuntimeException(e); // mitigate to handler
         }
     }
 
+    /**
+     * Accounts for a packet taken from the queue.
+     *
+     * @param packet The packet taken from the queue
+     * @return The packet
+     */
+    @DoNotTouch
+    private Packet taken(Packet packet) {
+        queued.decrementAndGet();
+        // cleared for a packet only by its owner: this thread once it took the packet, or the producer in addPacket
+        // if the queue refused it, then the packet never reaches this thread. Producers only set it while it is null,
+        // so no other packet can be set between the check and the plain set
+        if (queuedStale.get() == packet) {
+            queuedStale.set(null);
+        }
+        return packet;
+    }
+
+    /**
+     * Waits for a packet to arrive in the queue for at most the current retransmission timeout.
+     *
+     * @return The received packet
+     * @throws TimeoutException If no packet is received within the retransmission timeout
+     * @see #getRetransmissionTimer()
+     */
+    @DoNotTouch
+    public Packet waitForPacketTimeout() throws TimeoutException {
+        return waitForPacketTimeout(retransmissionTimer.getRto());
+    }
+
+    /**
+     * Returns the maximum number of packets waiting in the queue of this connection.
+     *
+     * @return The receive capacity
+     */
+    @DoNotTouch
+    public int getReceiveCapacity() {
+        return receiveCapacity;
+    }
+
+    /**
+     * Returns the number of further packets the queue of this connection accepts.
+     *
+     * @return The free space of the queue in packets
+     */
+    @DoNotTouch
+    public int getReceiveWindow() {
+        return Math.max(0, receiveCapacity - queued.get());
+    }
+
+    /**
+     * Returns the largest number of packets that waited in the queue of this connection at once.
+     *
+     * @return The peak queue length
+     */
+    @DoNotTouch
+    public int getPeakQueued() {
+        return peakQueued.get();
+    }
+
+    /**
+     * Returns the number of received packets dropped because the queue of this connection was full.
+     *
+     * @return The number of dropped packets
+     */
+    @DoNotTouch
+    public long getDroppedPackets() {
+        return droppedPackets.sum();
+    }
+
+    /**
+     * Sets the sequence number the receiver of this connection expects next. Arriving packets with a lower
+     * sequence number are stale: only one of them at a time waits in the queue, further ones are dropped
+     * and counted until the receiver took it. The one stale packet still reaches the receiver, so it can
+     * repeat its last packet for a peer that missed it, like {@link h09.utils.TCPUtils#try3Times} does.
+     * {@link PacketType#CLOSE CLOSE} packets are never stale.
+     *
+     * @param sequenceNumber The expected sequence number or {@link Integer#MIN_VALUE} if no packet is stale
+     */
+    @DoNotTouch
+    public void expectSequenceNumber(int sequenceNumber) {
+        expectedSequence = sequenceNumber;
+    }
+
+    /**
+     * Returns the number of stale packets dropped because another stale packet was waiting in the queue.
+     *
+     * @return The number of coalesced packets
+     */
+    @DoNotTouch
+    public long getCoalescedPackets() {
+        return coalescedPackets.sum();
+    }
+
+    /**
+     * Adds the {@link TCPOptions#RECEIVE_WINDOW receive window} to the options of an acknowledgement
+     * once the queue of this connection is half full. Below that the window is not advertised,
+     * so that acknowledgements carry no options in the common case.
+     *
+     * @param options The options of the acknowledgement, may be null
+     * @return The options, unchanged or null if the window is not advertised
+     */
+    @DoNotTouch
+    public TCPOptions withReceiveWindow(TCPOptions options) {
+        int window = getReceiveWindow();
+        if (window > receiveCapacity / 2) {
+            return options;
+        }
+        return (options == null ? TCPOptions.EMPTY : options).with(TCPOptions.RECEIVE_WINDOW, window);
+    }
+
+    /**
+     * Returns the round-trip estimation and retransmission timeout of this connection.
+     *
+     * @return The retransmission timer
+     */
+    @DoNotTouch
+    public RetransmissionTimer getRetransmissionTimer() {
+        return retransmissionTimer;
+    }
+
+    /**
+     * Returns the congestion window of the packets this connection sends.
+     *
+     * @return The congestion control
+     */
+    @DoNotTouch
+    public CongestionControl getCongestionControl() {
+        return congestionControl;
+    }
+
+    /**
+     * Returns the clock this connection was created with.
+     * Round-trip times and deadlines of the connection are measured with it.
+     *
+     * @return The clock of the connection
+     */
+    @DoNotTouch
+    public Clock getClock() {
+        return clock;
+    }
+
     /**
      * Sends a packet to the destination port with the specified parameters.
      *
@@ -116,7 +390,99 @@ public class Connection {
      */
     @DoNotTouch
     public void sendPacket(int sequenceNumber, PacketType type, String data) throws InternetException {
-        InternetPool.sendPacket(destinationPort, new Packet(sourcePort, destinationPort, sequenceNumber, type, data));
+        send(new Packet(sourcePort, destinationPort, sequenceNumber, type, data));
+    }
+
+    /**
+     * Sends a packet with attached options to the destination port.
+     *
+     * @param sequenceNumber The sequence number for the packet
+     * @param type           The type of the packet
+     * @param data           The data to include in the packet or null if it has no data
+     * @param options        The options to attach to the packet or null if it has no options
+     * @throws InternetException If there is an error sending the packet
+     */
+    @DoNotTouch
+    public void sendPacket(int sequenceNumber, PacketType type, String data, TCPOptions options) throws InternetException {
+        send(new Packet(sourcePort, destinationPort, sequenceNumber, type, data, options));
+    }
+
+    /**
+     * Sends a DATA packet carrying raw bytes to the destination port.
+     *
+     * @param sequenceNumber The sequence number for the packet
+     * @param bytes          The bytes to include in the packet, not copied
+     * @throws InternetException If there is an error sending the packet
+     */
+    @DoNotTouch
+    public void sendPacket(int sequenceNumber, ByteBuffer bytes) throws InternetException {
+        send(new Packet(sourcePort, destinationPort, sequenceNumber, bytes, null));
+    }
+
+    /**
+     * Sends a batch of packets to the destination port at once, see {@link InternetPool#sendBatch}.
+     *
+     * @param packets The packets to send, the list must not be changed afterwards
+     * @throws InternetException If there is an error sending the packets
+     */
+    @DoNotTouch
+    public void sendBatch(List<Packet> packets) throws InternetException {
+        InternetPool.sendBatch(destinationPort, packets);
+    }
+
+    /**
+     * Collects the packets of all following {@code sendPacket} calls of the calling thread instead of sending them,
+     * until {@link #flushBatch()} sends them as one batch. Packets other threads send in the meantime, e.g. the
+     * CLOSE packet of a closing server, are sent right away. Only one thread at a time may batch.
+     */
+    @DoNotTouch
+    public void beginBatch() {
+        if (batch == null) {
+            batch = new Batch(Thread.currentThread(), new ArrayList<>());
+        }
+    }
+
+    /**
+     * Sends the packets collected since {@link #beginBatch()} as one batch and sends the following packets right away.
+     *
+     * @throws InternetException If there is an error sending the packets
+     */
+    @DoNotTouch
+    public void flushBatch() throws InternetException {
+        Batch current = batch;
+        if (current == null || current.owner() != Thread.currentThread()) {
+            return;
+        }
+        batch = null;
+        if (!current.packets().isEmpty()) {
+            sendBatch(current.packets());
+        }
+    }
+
+    /**
+     * Sends a packet or adds it to the current batch.
+     *
+     * @param packet The packet to send
+     * @throws InternetException If there is an error sending the packet
+     */
+    @DoNotTouch
+    private void send(Packet packet) throws InternetException {
+        Batch current = batch;
+        if (current != null && current.owner() == Thread.currentThread()) {
+            current.packets().add(packet);
+        } else {
+            InternetPool.sendPacket(destinationPort, packet);
+        }
+    }
+
+    /**
+     * The packets collected by a thread between {@link #beginBatch()} and {@link #flushBatch()}.
+     *
+     * @param owner   the thread collecting the packets
+     * @param packets the collected packets, only accessed by the owner
+     */
+    @DoNotTouch
+    private record Batch(Thread owner, List<Packet> packets) {
     }
 
 }
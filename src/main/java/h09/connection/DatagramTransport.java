@@ -0,0 +1,600 @@
+package h09.connection;
+
+import h09.exceptions.packet.PacketFormatException;
+import h09.packet.Packet;
+import h09.packet.PacketCodec;
+import h09.utils.MpscQueue;
+import h09.utils.Verbose;
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Carries packets between {@link InternetPool InternetPools} of different processes over UDP on the loopback interface.
+ * <p>
+ * Every port registered in this process is bound to its own {@link DatagramChannel} at
+ * {@code basePort + port}, so a port is taken in all processes sharing the same base port at once:
+ * registering a port another process already bound fails like registering a taken port.
+ * Only ports below {@code 65536 - basePort} can be mapped, registering a greater port explicitly is an
+ * {@link IllegalArgumentException} and registering any port skips them. A packet for a port that is not registered
+ * in this process is sent to the UDP port of its destination port, encoded with {@link PacketCodec}.
+ * <p>
+ * A single selector thread does all the I/O. Sending only appends the packet to a lock-free queue and wakes
+ * the thread if it sleeps. The thread writes the queued packets in batches, consecutive packets for the same
+ * port share a datagram, and reads up to {@value #READ_BATCH} datagrams of a ready port before looking at the
+ * next one. Received packets are handed to the {@link DeliveryEngine} and the {@link Channel} of the receiving
+ * process like packets sent within it. Datagrams are received into a reused buffer and copied into an array of
+ * their own size before decoding, so the bytes of binary packets can stay views of it without keeping more than
+ * their datagram alive.
+ * <p>
+ * The transport cannot be combined with a {@link VirtualClock}, as packets from other processes arrive in real time.
+ *
+ * @see InternetPool#setTransport(DatagramTransport)
+ */
+@DoNotTouch
+public class DatagramTransport implements AutoCloseable {
+
+    /**
+     * The default UDP port of port 0.
+     */
+    @DoNotTouch
+    public static final int DEFAULT_BASE_PORT = 20000;
+
+    /**
+     * The largest payload of a UDP datagram.
+     */
+    @DoNotTouch
+    public static final int MAX_DATAGRAM_SIZE = 65507;
+
+    /**
+     * The number of datagrams read from one port before the next ready port is served.
+     */
+    @DoNotTouch
+    static final int READ_BATCH = 64;
+
+    /**
+     * The requested size of the socket buffers, the operating system may limit it.
+     */
+    @DoNotTouch
+    private static final int SOCKET_BUFFER_SIZE = 1 << 18;
+
+    @DoNotTouch
+    private final InetAddress address = InetAddress.getLoopbackAddress();
+
+    @DoNotTouch
+    private final int basePort;
+
+    /**
+     * The channel of every registered port or null.
+     */
+    @DoNotTouch
+    private final DatagramChannel[] channels;
+
+    /**
+     * The UDP address of every port, created on first use by the selector thread.
+     */
+    @DoNotTouch
+    private final InetSocketAddress[] addresses;
+
+    @DoNotTouch
+    private final Selector selector;
+
+    /**
+     * The channel all datagrams are sent from.
+     */
+    @DoNotTouch
+    private final DatagramChannel sender;
+
+    @DoNotTouch
+    private final SelectionKey senderKey;
+
+    /**
+     * Packets to send, in order.
+     */
+    @DoNotTouch
+    private final MpscQueue<Packet> outgoing = new MpscQueue<>();
+
+    /**
+     * Registrations and closes of channels, run by the selector thread.
+     */
+    @DoNotTouch
+    private final MpscQueue<Runnable> commands = new MpscQueue<>();
+
+    @DoNotTouch
+    private final Thread loop;
+
+    @DoNotTouch
+    private final AtomicLong sentPackets = new AtomicLong();
+
+    @DoNotTouch
+    private final AtomicLong sentDatagrams = new AtomicLong();
+
+    @DoNotTouch
+    private final AtomicLong receivedPackets = new AtomicLong();
+
+    @DoNotTouch
+    private final AtomicLong receivedDatagrams = new AtomicLong();
+
+    @DoNotTouch
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Whether the selector thread blocks in {@link Selector#select()}.
+     */
+    @DoNotTouch
+    private volatile boolean sleeping;
+
+    @DoNotTouch
+    private volatile boolean shutdown;
+
+    /**
+     * The datagram being written, only accessed by the selector thread.
+     */
+    @DoNotTouch
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+
+    /**
+     * The destination port of {@link #sendBuffer} while it holds a datagram the socket did not take yet, otherwise -1.
+     */
+    @DoNotTouch
+    private int unsentPort = -1;
+
+    /**
+     * A packet taken from {@link #outgoing} that did not fit into the previous datagram.
+     */
+    @DoNotTouch
+    private Packet carry;
+
+    /**
+     * The buffer datagrams are received into before they are copied, only accessed by the selector thread.
+     */
+    @DoNotTouch
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+
+    /**
+     * Constructs a transport mapping port 0 to UDP port {@value #DEFAULT_BASE_PORT}.
+     *
+     * @throws IOException if the selector or the sending channel cannot be opened
+     */
+    @DoNotTouch
+    public DatagramTransport() throws IOException {
+        this(DEFAULT_BASE_PORT);
+    }
+
+    /**
+     * Constructs a transport and starts its selector thread.
+     * All processes that should reach each other have to use the same base port.
+     *
+     * @param basePort the UDP port of port 0
+     * @throws IOException if the selector or the sending channel cannot be opened
+     */
+    @DoNotTouch
+    public DatagramTransport(int basePort) throws IOException {
+        assert 0 < basePort && basePort < InternetPool.MAX_PORT;
+        this.basePort = basePort;
+        this.channels = new DatagramChannel[InternetPool.MAX_PORT - basePort];
+        this.addresses = new InetSocketAddress[channels.length];
+        this.selector = Selector.open();
+        this.sender = DatagramChannel.open();
+        sender.configureBlocking(false);
+        sender.setOption(StandardSocketOptions.SO_SNDBUF, SOCKET_BUFFER_SIZE);
+        senderKey = sender.register(selector, 0);
+        loop = Thread.ofPlatform().name("datagram-transport-" + basePort).daemon().unstarted(this::run);
+        loop.start();
+    }
+
+    /**
+     * Checks whether the given port is mapped to a UDP port, i.e. is below {@code 65536 - basePort}.
+     *
+     * @param port the port
+     * @return true if the port can be opened
+     */
+    @DoNotTouch
+    boolean canMap(int port) {
+        return port < channels.length;
+    }
+
+    /**
+     * Binds the channel of the given port. Called by the {@link InternetPool} when a device registers.
+     *
+     * @param port the port
+     * @return false if the port cannot be mapped or another process has bound it
+     */
+    @DoNotTouch
+    boolean open(int port) {
+        if (!canMap(port) || shutdown) {
+            return false;
+        }
+        DatagramChannel channel;
+        try {
+            channel = DatagramChannel.open();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            channel.bind(new InetSocketAddress(address, basePort + port));
+            channel.configureBlocking(false);
+            // datagrams that arrive while the socket buffer is full are lost
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFFER_SIZE);
+        } catch (BindException e) {
+            closeQuietly(channel);
+            return false;
+        } catch (IOException e) {
+            closeQuietly(channel);
+            throw new UncheckedIOException(e);
+        }
+        execute(() -> {
+            if (shutdown) {
+                closeQuietly(channel);
+                return;
+            }
+            try {
+                channels[port] = channel;
+                channel.register(selector, SelectionKey.OP_READ, port);
+            } catch (IOException e) {
+                Verbose.out.printf("datagram-transport: cannot register port %d: %s%n", port, e);
+                closeQuietly(channel);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Closes the channel of the given port. Called by the {@link InternetPool} when a device unregisters.
+     * Returns once the UDP port can be bound again.
+     *
+     * @param port the port
+     */
+    @DoNotTouch
+    void close(int port) {
+        if (port >= channels.length) {
+            return;
+        }
+        if (Thread.currentThread() == loop || shutdown) {
+            closeChannel(port);
+            return;
+        }
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        execute(() -> {
+            closeChannel(port);
+            closed.complete(null);
+        });
+        try {
+            while (!closed.isDone()) {
+                if (!loop.isAlive()) {
+                    // the selector thread stopped before it ran the command
+                    closeChannel(port);
+                    return;
+                }
+                try {
+                    closed.get(10, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException ignored) {
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e); // mitigate to handler
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Queues the given packet for its destination port.
+     *
+     * @param packet the packet to send
+     */
+    @DoNotTouch
+    void send(Packet packet) {
+        outgoing.offer(packet);
+        wakeUp();
+    }
+
+    /**
+     * Returns the UDP port the given port is mapped to.
+     *
+     * @param port the port
+     * @return the UDP port on the loopback interface
+     */
+    @DoNotTouch
+    public int getUdpPort(int port) {
+        return basePort + port;
+    }
+
+    /**
+     * Returns the number of packets sent to other processes.
+     *
+     * @return the number of sent packets
+     */
+    @DoNotTouch
+    public long getSentPackets() {
+        return sentPackets.get();
+    }
+
+    /**
+     * Returns the number of datagrams sent, each carrying one or more packets.
+     *
+     * @return the number of sent datagrams
+     */
+    @DoNotTouch
+    public long getSentDatagrams() {
+        return sentDatagrams.get();
+    }
+
+    /**
+     * Returns the number of packets received from other processes.
+     *
+     * @return the number of received packets
+     */
+    @DoNotTouch
+    public long getReceivedPackets() {
+        return receivedPackets.get();
+    }
+
+    /**
+     * Returns the number of datagrams received.
+     *
+     * @return the number of received datagrams
+     */
+    @DoNotTouch
+    public long getReceivedDatagrams() {
+        return receivedDatagrams.get();
+    }
+
+    /**
+     * Returns the number of packets dropped by this transport, because they could not be sent,
+     * were malformed or arrived for a port no device is registered to anymore.
+     *
+     * @return the number of dropped packets
+     */
+    @DoNotTouch
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Stops the selector thread and closes all channels. Queued packets are discarded.
+     */
+    @Override
+    @DoNotTouch
+    public void close() {
+        shutdown = true;
+        selector.wakeup();
+        if (Thread.currentThread() != loop) {
+            try {
+                loop.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e); // mitigate to handler
+            }
+        }
+    }
+
+    @Override
+    @DoNotTouch
+    public String toString() {
+        return "DatagramTransport{" +
+            "basePort=" + basePort +
+            ", sentPackets=" + sentPackets +
+            ", sentDatagrams=" + sentDatagrams +
+            ", receivedPackets=" + receivedPackets +
+            ", receivedDatagrams=" + receivedDatagrams +
+            ", dropped=" + dropped +
+            '}';
+    }
+
+    /**
+     * Runs the given command on the selector thread.
+     */
+    @DoNotTouch
+    private void execute(Runnable command) {
+        commands.offer(command);
+        wakeUp();
+    }
+
+    @DoNotTouch
+    private void wakeUp() {
+        if (sleeping) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * The loop of the selector thread.
+     */
+    @DoNotTouch
+    private void run() {
+        try {
+            while (!shutdown) {
+                runCommands();
+                flush();
+                sleeping = true;
+                // re-check, work queued before sleeping was set did not wake the selector
+                if (commands.isEmpty() && (outgoing.isEmpty() && carry == null || unsentPort >= 0)) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                sleeping = false;
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isReadable()) {
+                        read((DatagramChannel) key.channel(), (Integer) key.attachment());
+                    }
+                    // a writable sender is handled by the next flush
+                }
+            }
+        } catch (IOException e) {
+            Verbose.out.printf("datagram-transport: selector failed: %s%n", e);
+        } finally {
+            shutdown = true;
+            // pending registrations close their channels, pending closes complete
+            runCommands();
+            for (int port = 0; port < channels.length; port++) {
+                if (channels[port] != null) {
+                    closeQuietly(channels[port]);
+                    channels[port] = null;
+                }
+            }
+            closeQuietly(sender);
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    @DoNotTouch
+    private void runCommands() {
+        Runnable command;
+        while ((command = commands.poll()) != null) {
+            command.run();
+        }
+    }
+
+    /**
+     * Closes the channel of the given port on the selector thread, so that its UDP port is free afterwards.
+     */
+    @DoNotTouch
+    private void closeChannel(int port) {
+        DatagramChannel channel = channels[port];
+        if (channel == null) {
+            return;
+        }
+        channels[port] = null;
+        SelectionKey key = channel.keyFor(selector);
+        if (key != null) {
+            key.cancel();
+        }
+        closeQuietly(channel);
+        try {
+            // the socket of a channel registered with a selector is only released once the selector deregisters it
+            selector.selectNow();
+        } catch (IOException e) {
+            Verbose.out.printf("datagram-transport: cannot release port %d: %s%n", port, e);
+        }
+    }
+
+    /**
+     * Writes the queued packets until the queue is empty or the socket takes no more datagrams.
+     */
+    @DoNotTouch
+    private void flush() throws IOException {
+        while (true) {
+            if (unsentPort >= 0) {
+                if (sender.send(sendBuffer, address(unsentPort)) == 0) {
+                    senderKey.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                sentDatagrams.incrementAndGet();
+                unsentPort = -1;
+                senderKey.interestOps(0);
+            }
+            Packet packet = carry != null ? carry : outgoing.poll();
+            carry = null;
+            if (packet == null) {
+                return;
+            }
+            int port = packet.getDestinationPort();
+            sendBuffer.clear();
+            if (port >= channels.length || !append(packet)) {
+                dropped.incrementAndGet();
+                continue;
+            }
+            // the following packets for the same port share the datagram while they fit
+            Packet next;
+            while ((next = outgoing.poll()) != null) {
+                if (next.getDestinationPort() != port || !append(next)) {
+                    carry = next;
+                    break;
+                }
+            }
+            sendBuffer.flip();
+            unsentPort = port;
+        }
+    }
+
+    /**
+     * Encodes the given packet into {@link #sendBuffer} if it fits.
+     */
+    @DoNotTouch
+    private boolean append(Packet packet) {
+        if (PacketCodec.encodedSize(packet) > sendBuffer.remaining()) {
+            return false;
+        }
+        PacketCodec.encode(packet, sendBuffer);
+        sentPackets.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Reads up to {@value #READ_BATCH} datagrams from the channel of the given port and delivers their packets.
+     */
+    @DoNotTouch
+    private void read(DatagramChannel channel, int port) {
+        List<Packet> packets = new ArrayList<>();
+        for (int i = 0; i < READ_BATCH; i++) {
+            receiveBuffer.clear();
+            try {
+                if (channel.receive(receiveBuffer) == null) {
+                    break;
+                }
+            } catch (IOException e) {
+                Verbose.out.printf("datagram-transport: cannot receive on port %d: %s%n", port, e);
+                break;
+            }
+            receivedDatagrams.incrementAndGet();
+            // binary packets are views of the copy, which is only as large as the datagram
+            ByteBuffer datagram = ByteBuffer.wrap(Arrays.copyOf(receiveBuffer.array(), receiveBuffer.position()));
+            try {
+                PacketCodec.decodeAll(datagram, packets);
+            } catch (PacketFormatException e) {
+                Verbose.out.printf("datagram-transport: dropping the rest of a datagram for port %d: %s%n", port, e.getMessage());
+                dropped.incrementAndGet();
+            }
+        }
+        for (Packet packet : packets) {
+            receivedPackets.incrementAndGet();
+            if (!InternetPool.deliverReceived(port, packet)) {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    @DoNotTouch
+    private InetSocketAddress address(int port) {
+        InetSocketAddress result = addresses[port];
+        if (result == null) {
+            result = new InetSocketAddress(address, basePort + port);
+            addresses[port] = result;
+        }
+        return result;
+    }
+
+    @DoNotTouch
+    private static void closeQuietly(DatagramChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
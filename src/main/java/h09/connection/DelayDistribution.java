@@ -0,0 +1,62 @@
+package h09.connection;
+
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.util.Random;
+
+/**
+ * Distribution of the delays a {@link TimeoutChannel} adds to packets.
+ */
+@FunctionalInterface
+@DoNotTouch
+public interface DelayDistribution {
+
+    /**
+     * Draws the next delay.
+     *
+     * @param random the random number generator of the channel
+     * @return the delay in milliseconds, not negative
+     */
+    @DoNotTouch
+    long nextDelay(Random random);
+
+    /**
+     * Returns a distribution drawing delays uniformly from {@code [0, max)}.
+     *
+     * @param max the exclusive upper bound in milliseconds
+     * @return the distribution
+     */
+    @DoNotTouch
+    static DelayDistribution uniform(long max) {
+        assert max > 0;
+        return random -> random.nextLong(max);
+    }
+
+    /**
+     * Returns a distribution drawing exponentially distributed delays, as seen for queueing delays.
+     * Delays are capped so a single packet cannot stall a connection forever.
+     *
+     * @param mean the mean delay in milliseconds
+     * @param max  the largest delay in milliseconds
+     * @return the distribution
+     */
+    @DoNotTouch
+    static DelayDistribution exponential(double mean, long max) {
+        assert mean > 0 && max >= 0;
+        return random -> Math.min(max, (long) (-mean * Math.log(1 - random.nextDouble())));
+    }
+
+    /**
+     * Returns a distribution adding a uniformly drawn jitter from {@code [0, jitter)} to a fixed delay,
+     * like the propagation delay of a link plus some variance.
+     *
+     * @param fixed  the fixed delay in milliseconds
+     * @param jitter the exclusive upper bound of the jitter in milliseconds, 0 for none
+     * @return the distribution
+     */
+    @DoNotTouch
+    static DelayDistribution fixedWithJitter(long fixed, long jitter) {
+        assert fixed >= 0 && jitter >= 0;
+        return random -> fixed + (jitter == 0 ? 0 : random.nextLong(jitter));
+    }
+}
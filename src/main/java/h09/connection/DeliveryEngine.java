@@ -0,0 +1,39 @@
+package h09.connection;
+
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+/**
+ * Executes the deliveries of packets that were sent through the {@link InternetPool}.
+ * An engine decides on which thread a packet is routed through the {@link Channel}
+ * and whether deliveries to the same port keep their order.
+ *
+ * @see InternetPool#setDeliveryEngine(DeliveryEngine)
+ */
+@DoNotTouch
+public interface DeliveryEngine {
+
+    /**
+     * Schedules a delivery to the given destination port.
+     *
+     * @param port     the destination port of the delivery
+     * @param delivery the action routing the packet to its consumer
+     */
+    @DoNotTouch
+    void deliver(int port, Runnable delivery);
+
+    /**
+     * Returns the metrics of this engine.
+     *
+     * @return the delivery metrics
+     */
+    @DoNotTouch
+    DeliveryMetrics getMetrics();
+
+    /**
+     * Stops accepting new deliveries and releases the threads of this engine.
+     * Deliveries that were already submitted are still executed.
+     */
+    @DoNotTouch
+    void shutdown();
+
+}
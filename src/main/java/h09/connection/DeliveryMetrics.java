@@ -0,0 +1,133 @@
+package h09.connection;
+
+import h09.utils.LatencyStats;
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of a {@link DeliveryEngine}.
+ * Tracks how many deliveries are waiting to be executed, how long they waited
+ * and how long it took until the packet was handed to its consumer.
+ */
+@DoNotTouch
+public class DeliveryMetrics {
+
+    /**
+     * Number of deliveries that were submitted but not yet started.
+     */
+    @DoNotTouch
+    private final AtomicLong queueDepth = new AtomicLong();
+
+    /**
+     * Largest queue depth observed since the last reset.
+     */
+    @DoNotTouch
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+
+    /**
+     * Time between submitting a delivery and starting it.
+     */
+    @DoNotTouch
+    private final LatencyStats queueLatency = new LatencyStats();
+
+    /**
+     * Time between submitting a delivery and finishing it, including channel delays.
+     */
+    @DoNotTouch
+    private final LatencyStats deliveryLatency = new LatencyStats();
+
+    /**
+     * Records that a delivery was submitted.
+     *
+     * @return the submission timestamp to pass to {@link #onStart(long)} and {@link #onFinish(long)}
+     */
+    @DoNotTouch
+    long onSubmit() {
+        maxQueueDepth.accumulateAndGet(queueDepth.incrementAndGet(), Math::max);
+        return System.nanoTime();
+    }
+
+    /**
+     * Records that a delivery left the queue and is about to run.
+     *
+     * @param submitted the timestamp returned by {@link #onSubmit()}
+     */
+    @DoNotTouch
+    void onStart(long submitted) {
+        queueDepth.decrementAndGet();
+        queueLatency.record(System.nanoTime() - submitted);
+    }
+
+    /**
+     * Records that a delivery finished.
+     *
+     * @param submitted the timestamp returned by {@link #onSubmit()}
+     */
+    @DoNotTouch
+    void onFinish(long submitted) {
+        deliveryLatency.record(System.nanoTime() - submitted);
+    }
+
+    /**
+     * Returns the number of deliveries that are currently waiting to be executed.
+     *
+     * @return the current queue depth
+     */
+    @DoNotTouch
+    public long getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Returns the largest queue depth observed since the last reset.
+     *
+     * @return the maximum queue depth
+     */
+    @DoNotTouch
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * Returns the time deliveries spent waiting before being executed.
+     *
+     * @return the queue latency statistics
+     */
+    @DoNotTouch
+    public LatencyStats getQueueLatency() {
+        return queueLatency;
+    }
+
+    /**
+     * Returns the time from submitting a delivery until the packet was handed to its consumer.
+     *
+     * @return the delivery latency statistics
+     */
+    @DoNotTouch
+    public LatencyStats getDeliveryLatency() {
+        return deliveryLatency;
+    }
+
+    /**
+     * Resets the latency statistics and the maximum queue depth.
+     * The current queue depth is left untouched.
+     */
+    @DoNotTouch
+    public void reset() {
+        maxQueueDepth.set(queueDepth.get());
+        queueLatency.reset();
+        deliveryLatency.reset();
+    }
+
+    @Override
+    @DoNotTouch
+    public String toString() {
+        return "DeliveryMetrics{" +
+            "queueDepth=" + getQueueDepth() +
+            ", maxQueueDepth=" + getMaxQueueDepth() +
+            ", queueLatency=" + queueLatency +
+            ", deliveryLatency=" + deliveryLatency +
+            '}';
+    }
+}
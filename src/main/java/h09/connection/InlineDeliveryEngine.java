@@ -0,0 +1,19 @@
+package h09.connection;
+
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+/**
+ * A {@link DeliveryEngine} that delivers every packet on the sending thread.
+ * Keeps the order of all packets but makes the sender wait for the {@link Channel},
+ * e.g. for the delays of a {@link TimeoutChannel}.
+ */
+@DoNotTouch
+public class InlineDeliveryEngine extends AbstractDeliveryEngine {
+
+    @Override
+    @DoNotTouch
+    protected void dispatch(int port, Runnable task) {
+        task.run();
+    }
+
+}
@@ -7,7 +7,9 @@ import h09.packet.Packet;
 import h09.utils.PacketConsumer;
 import org.tudalgo.algoutils.student.annotation.DoNotTouch;
 
-import java.util.concurrent.*;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
 
 /**
  * A central manager for network connections and packet routing.
@@ -24,10 +26,17 @@ public class InternetPool {
     public static final int MAX_PORT = 65536;
 
     /**
-     * Map of port numbers to packet consumers (devices) registered to those ports.
+     * The number of random ports tried by {@link #registerDevice(PacketConsumer)} before giving up
+     * while a {@link DatagramTransport} is installed.
      */
     @DoNotTouch
-    private static final ConcurrentMap<Integer, PacketConsumer> ports = new ConcurrentHashMap<>();
+    private static final int MAX_TRANSPORT_ATTEMPTS = 64;
+
+    /**
+     * Table of port numbers to packet consumers (devices) registered to those ports.
+     */
+    @DoNotTouch
+    private static final PortTable ports = new PortTable(MAX_PORT);
 
     /**
      * The channel used for routing packets between devices.
@@ -35,21 +44,63 @@ public class InternetPool {
     @DoNotTouch
     private static Channel channel = new Channel();
 
+    /**
+     * The engine executing the deliveries of sent packets.
+     */
+    @DoNotTouch
+    private static volatile DeliveryEngine deliveryEngine = new LaneDeliveryEngine();
+
+    /**
+     * The transport to other processes or null if packets stay within this process.
+     */
+    @DoNotTouch
+    private static volatile DatagramTransport transport;
+
+    /**
+     * The clock of the network.
+     */
+    @DoNotTouch
+    private static volatile Clock clock = Clock.SYSTEM;
+
+    /**
+     * Creates the receive queues of new connections or null for the queues of the clock.
+     */
+    @DoNotTouch
+    private static volatile Supplier<BlockingQueue<Packet>> receiveQueueFactory;
+
+    /**
+     * The receive capacity of new connections.
+     */
+    @DoNotTouch
+    private static volatile int receiveCapacity = Connection.DEFAULT_RECEIVE_CAPACITY;
+
     /**
      * Registers a device in form of a {@link PacketConsumer} to a specific port.
      *
      * @param port          The port number to register the device to
      * @param packetHandler The packet consumer that will handle packets for this port
-     * @throws PortAllocatedException If the port is already allocated
+     * @throws PortAllocatedException   If the port is already allocated
+     * @throws IllegalArgumentException If the installed {@link DatagramTransport} cannot map the port
      */
     @DoNotTouch
     public static void registerDevice(int port, PacketConsumer packetHandler) throws PortAllocatedException {
         assert 0 <= port && port < MAX_PORT;
         assert packetHandler != null;
+        DatagramTransport mapping = transport;
+        if (mapping != null && !mapping.canMap(port)) {
+            // no process can ever bind it, so it is not merely taken
+            throw new IllegalArgumentException("Port " + port + " cannot be mapped to a UDP port, ports must be below "
+                + (MAX_PORT - mapping.getUdpPort(0)) + "!");
+        }
         // perhaps limit amount of devices?
-        if (ports.containsKey(port))
+        if (!ports.register(port, packetHandler))
             throw new PortAllocatedException(port);
-        ports.put(port, packetHandler);
+        DatagramTransport t = transport;
+        if (t != null && !t.open(port)) {
+            // taken by another process
+            ports.unregister(port, packetHandler);
+            throw new PortAllocatedException(port);
+        }
     }
 
     /**
@@ -60,49 +111,179 @@ public class InternetPool {
     @DoNotTouch
     public static void unregisterDevice(int port) {
         assert 0 <= port && port < MAX_PORT;
-        ports.remove(port);
+        DatagramTransport t = transport;
+        if (ports.unregister(port) != null && t != null) {
+            t.close(port);
+        }
+    }
+
+    /**
+     * Unregisters a device from a specific port if the port is still owned by that device.
+     * Unlike {@link #unregisterDevice(int)} this never frees a port that was
+     * reassigned to another device in the meantime.
+     *
+     * @param port          The port number to unregister
+     * @param packetHandler The packet consumer expected to own the port
+     * @return true if the device owned the port and it was freed
+     */
+    @DoNotTouch
+    public static boolean unregisterDevice(int port, PacketConsumer packetHandler) {
+        assert 0 <= port && port < MAX_PORT;
+        DatagramTransport t = transport;
+        if (!ports.unregister(port, packetHandler)) {
+            return false;
+        }
+        if (t != null) {
+            t.close(port);
+        }
+        return true;
     }
 
     /**
      * Sends a packet to a specific port.
-     * The packet is routed through the channel to the appropriate packet consumer.
+     * The packet is routed through the channel to the appropriate packet consumer
+     * by the current {@link DeliveryEngine}, or on the sending thread while a {@link VirtualClock} is installed.
+     * If no device of this process is registered to the port, the packet is handed to the {@link DatagramTransport}, if any.
      *
      * @param port   The destination port
      * @param packet The packet to send
-     * @throws UnknownPortException If the port is not registered
+     * @throws UnknownPortException If the port is not registered and no transport is installed
      */
     @DoNotTouch
     public static void sendPacket(int port, Packet packet) throws UnknownPortException {
         assert 0 <= port && port < MAX_PORT;
         assert packet != null;
-        if (!ports.containsKey(port))
-            throw new UnknownPortException(port);
         PacketConsumer receiver = ports.get(port);
+        if (receiver == null) {
+            DatagramTransport t = transport;
+            if (t == null)
+                throw new UnknownPortException(port);
+            assert packet.getDestinationPort() == port;
+            // the port may belong to another process, the channel is applied there
+            t.send(packet);
+            return;
+        }
+        deliver(port, receiver, packet);
+    }
+
+    /**
+     * Sends a batch of packets to the device registered at a port.
+     * The port is looked up once and the whole batch is handed to the {@link DeliveryEngine} as one task,
+     * which routes it with {@link Channel#routeBatch}. The packets arrive in the order of the list,
+     * as far as the channel keeps the order, and count as one delivery in the metrics of the engine.
+     * The list must not be changed after it was passed to this method.
+     *
+     * @param port    The destination port
+     * @param packets The packets to send
+     * @throws UnknownPortException If the port is not registered
+     */
+    @DoNotTouch
+    public static void sendBatch(int port, List<Packet> packets) throws UnknownPortException {
+        assert 0 <= port && port < MAX_PORT;
+        assert packets != null;
+        if (packets.isEmpty())
+            return;
+        PacketConsumer receiver = ports.get(port);
+        if (receiver == null) {
+            DatagramTransport t = transport;
+            if (t == null)
+                throw new UnknownPortException(port);
+            for (Packet packet : packets) {
+                assert packet.getDestinationPort() == port;
+                t.send(packet);
+            }
+            return;
+        }
+        Channel ch = channel;
+        currentEngine().deliver(port, () -> ch.routeBatch(receiver, packets));
+    }
+
+    /**
+     * Delivers a packet that another process sent over the {@link DatagramTransport} like a packet sent within this process.
+     *
+     * @param port   The destination port
+     * @param packet The received packet
+     * @return false if no device is registered to the port
+     */
+    @DoNotTouch
+    static boolean deliverReceived(int port, Packet packet) {
+        PacketConsumer receiver = ports.get(port);
+        if (receiver == null) {
+            return false;
+        }
+        deliver(port, receiver, packet);
+        return true;
+    }
+
+    /**
+     * Hands a delivery that a {@link Channel} postponed, e.g. when a delay of a {@link TimeoutChannel} expired,
+     * back to the current {@link DeliveryEngine}. The delivery runs in the lane of its port and is counted in
+     * the metrics like any other, instead of running on the thread of the {@link Clock} that fired the timer.
+     *
+     * @param port     The destination port
+     * @param delivery Passes the packets to their consumer, without routing them through the channel again
+     */
+    @DoNotTouch
+    static void deliverPostponed(int port, Runnable delivery) {
+        currentEngine().deliver(port, delivery);
+    }
 
-        new Thread(() -> channel.route(receiver, packet)).start();
+    /**
+     * Routes a packet through the channel to the given consumer with the current {@link DeliveryEngine}.
+     */
+    @DoNotTouch
+    private static void deliver(int port, PacketConsumer receiver, Packet packet) {
+        Channel ch = channel;
+        currentEngine().deliver(port, () -> ch.route(receiver, packet));
+    }
+
+    /**
+     * Returns the engine deliveries are handed to: the engine of the running {@link VirtualClock},
+     * otherwise the installed {@link DeliveryEngine}.
+     */
+    @DoNotTouch
+    private static DeliveryEngine currentEngine() {
+        return clock instanceof VirtualClock virtual ? virtual.getDeliveryEngine() : deliveryEngine;
+    }
+
+    /**
+     * Registers a device in form of a {@link PacketConsumer} to any free port.
+     * Finding and reserving the port happens in one step, so the port cannot be
+     * taken by another device in between. With a {@link DatagramTransport}, ports that
+     * cannot be mapped or are taken by another process are skipped.
+     *
+     * @param packetHandler The packet consumer that will handle packets for the port
+     * @return The port number the device was registered to
+     * @throws NoFreePortException If there are no free ports available
+     */
+    @DoNotTouch
+    public static int registerDevice(PacketConsumer packetHandler) throws NoFreePortException {
+        assert packetHandler != null;
+        for (int attempt = 0; attempt < MAX_TRANSPORT_ATTEMPTS; attempt++) {
+            int port = ports.registerAny(packetHandler);
+            if (port < 0)
+                throw new NoFreePortException();
+            DatagramTransport t = transport;
+            if (t == null || t.open(port))
+                return port;
+            ports.unregister(port, packetHandler);
+        }
+        throw new NoFreePortException();
     }
 
     /**
      * Gets an available port number.
+     * The port is not reserved and may be taken by another device before it is registered;
+     * prefer {@link #registerDevice(PacketConsumer)}.
      *
      * @return An available port number
      * @throws NoFreePortException If there are no free ports available
      */
     @DoNotTouch
     public static int getFreePort() throws NoFreePortException {
-        if (ports.size() >= MAX_PORT)
+        int port = ports.findFree();
+        if (port < 0)
             throw new NoFreePortException();
-        if (ports.size() >= Short.MAX_VALUE) {
-            // probing atp will get a tad annoying
-            for (int i = 0; i < MAX_PORT; i++) {
-                if (!ports.containsKey(i))
-                    return i;
-            }
-        }
-        int port;
-        do {
-            port = ThreadLocalRandom.current().nextInt(0, MAX_PORT);
-        } while (ports.containsKey(port));
         return port;
     }
 
@@ -116,4 +297,137 @@ public class InternetPool {
         InternetPool.channel = ch;
     }
 
+    /**
+     * Sets the transport that carries packets to ports of other processes, or null to keep all packets
+     * within this process. The previous transport is closed. Should be set before any devices are registered,
+     * as only devices registered afterwards can be reached from other processes.
+     *
+     * @param transport The transport to use or null
+     */
+    @DoNotTouch
+    public static void setTransport(DatagramTransport transport) {
+        DatagramTransport previous = InternetPool.transport;
+        InternetPool.transport = transport;
+        if (previous != null && previous != transport) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Returns the transport to other processes.
+     *
+     * @return The current transport or null if packets stay within this process
+     */
+    @DoNotTouch
+    public static DatagramTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets the engine used for delivering packets.
+     * The previous engine is shut down after finishing its pending deliveries.
+     *
+     * @param engine The engine to use
+     */
+    @DoNotTouch
+    public static void setDeliveryEngine(DeliveryEngine engine) {
+        assert engine != null;
+        DeliveryEngine previous = deliveryEngine;
+        deliveryEngine = engine;
+        if (previous != engine) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * Returns the engine used for delivering packets.
+     *
+     * @return The current delivery engine
+     */
+    @DoNotTouch
+    public static DeliveryEngine getDeliveryEngine() {
+        return deliveryEngine;
+    }
+
+    /**
+     * Sets the clock of the network. Connections, servers and channels created afterwards use it.
+     * A {@link VirtualClock} installs itself while running a simulation.
+     *
+     * @param clock The clock to use
+     */
+    @DoNotTouch
+    public static void setClock(Clock clock) {
+        assert clock != null;
+        InternetPool.clock = clock;
+    }
+
+    /**
+     * Returns the clock of the network.
+     *
+     * @return The current clock, {@link Clock#SYSTEM} by default
+     */
+    @DoNotTouch
+    public static Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Sets the factory for the receive queues of connections created afterwards, for example
+     * {@code () -> new MpscArrayBlockingQueue<>(WaitStrategy.PARKING)} for a lock-free queue.
+     * The factory is only used with the real clock, a {@link VirtualClock} always uses its own queues.
+     *
+     * @param factory The factory to use or null for the queues of the clock
+     * @see h09.utils.MpscArrayBlockingQueue
+     */
+    @DoNotTouch
+    public static void setReceiveQueueFactory(Supplier<BlockingQueue<Packet>> factory) {
+        receiveQueueFactory = factory;
+    }
+
+    /**
+     * Returns the factory for the receive queues of connections.
+     *
+     * @return The current factory or null if connections use the queues of the clock
+     */
+    @DoNotTouch
+    public static Supplier<BlockingQueue<Packet>> getReceiveQueueFactory() {
+        return receiveQueueFactory;
+    }
+
+    /**
+     * Sets the maximum number of packets waiting in the queue of connections created afterwards,
+     * see {@link Connection#getReceiveCapacity()}.
+     *
+     * @param capacity The receive capacity, {@link Connection#DEFAULT_RECEIVE_CAPACITY} by default
+     */
+    @DoNotTouch
+    public static void setReceiveCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("invalid receive capacity: " + capacity);
+        }
+        receiveCapacity = capacity;
+    }
+
+    /**
+     * Returns the maximum number of packets waiting in the queue of new connections.
+     *
+     * @return The receive capacity of new connections
+     */
+    @DoNotTouch
+    public static int getReceiveCapacity() {
+        return receiveCapacity;
+    }
+
+    /**
+     * Creates a receive queue for a new connection, see {@link #setReceiveQueueFactory(Supplier)}.
+     *
+     * @return The new queue
+     */
+    @DoNotTouch
+    public static BlockingQueue<Packet> newReceiveQueue() {
+        Clock c = clock;
+        Supplier<BlockingQueue<Packet>> factory = receiveQueueFactory;
+        return factory == null || c instanceof VirtualClock ? c.newQueue() : factory.get();
+    }
+
 }
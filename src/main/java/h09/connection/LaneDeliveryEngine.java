@@ -0,0 +1,129 @@
+package h09.connection;
+
+import h09.utils.MpscQueue;
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A {@link DeliveryEngine} with one serialized lane per destination port.
+ * Packets to the same port are delivered one after another in the order they were sent,
+ * while lanes of different ports are drained in parallel by a shared set of carrier threads.
+ * <p>
+ * A lane only occupies a carrier while it has pending packets and gives it up after
+ * {@link #BATCH_SIZE} deliveries, so a busy port cannot starve the others.
+ */
+@DoNotTouch
+public class LaneDeliveryEngine extends AbstractDeliveryEngine {
+
+    /**
+     * Maximum number of deliveries a lane executes before giving its carrier to other lanes.
+     */
+    @DoNotTouch
+    public static final int BATCH_SIZE = 64;
+
+    /**
+     * The lanes of all ports, created on first use.
+     */
+    @DoNotTouch
+    private final AtomicReferenceArray<Lane> lanes = new AtomicReferenceArray<>(InternetPool.MAX_PORT);
+
+    /**
+     * The executor running the drains of the lanes.
+     */
+    @DoNotTouch
+    private final Executor carriers;
+
+    /**
+     * Constructs a new engine draining its lanes with the given executor.
+     *
+     * @param carriers the executor running the lanes
+     */
+    @DoNotTouch
+    public LaneDeliveryEngine(Executor carriers) {
+        this.carriers = carriers;
+    }
+
+    /**
+     * Constructs a new engine draining its lanes on a fixed number of platform threads.
+     *
+     * @param carrierThreads the number of carrier threads
+     */
+    @DoNotTouch
+    public LaneDeliveryEngine(int carrierThreads) {
+        this(Executors.newFixedThreadPool(carrierThreads,
+            Thread.ofPlatform().daemon().name("delivery-carrier-", 0).factory()));
+    }
+
+    /**
+     * Constructs a new engine draining its lanes on virtual threads, which are in turn
+     * multiplexed over the carrier threads of the JVM. A blocking {@link Channel} still
+     * holds up its own lane, but not the lanes of other ports.
+     */
+    @DoNotTouch
+    public LaneDeliveryEngine() {
+        this(Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("delivery-lane-", 0).factory()));
+    }
+
+    @Override
+    @DoNotTouch
+    protected void dispatch(int port, Runnable task) {
+        Lane lane = lanes.get(port);
+        if (lane == null) {
+            lanes.compareAndSet(port, null, new Lane());
+            lane = lanes.get(port);
+        }
+        lane.queue.offer(task);
+        lane.schedule();
+    }
+
+    @Override
+    @DoNotTouch
+    public void shutdown() {
+        if (carriers instanceof ExecutorService service) {
+            service.shutdown();
+        }
+    }
+
+    /**
+     * The serialized queue of deliveries to a single port.
+     */
+    @DoNotTouch
+    private class Lane implements Runnable {
+
+        private final MpscQueue<Runnable> queue = new MpscQueue<>();
+
+        /**
+         * Whether a drain of this lane is currently submitted or running.
+         */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                carriers.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                Runnable task = queue.poll();
+                if (task == null) {
+                    break;
+                }
+                task.run();
+            }
+            // producers only schedule after their offer completed, so either they see
+            // the lane as idle or this check sees their element
+            scheduled.set(false);
+            if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+}
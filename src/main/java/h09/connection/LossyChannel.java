@@ -4,6 +4,8 @@ import h09.packet.Packet;
 import h09.utils.PacketConsumer;
 import org.tudalgo.algoutils.student.annotation.DoNotTouch;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 /**
@@ -70,4 +72,25 @@ public class LossyChannel extends Channel {
             super.routeInner(consumer, packet);
         }
     }
+
+    /**
+     * Routes the packets of a batch that are not dropped as one batch.
+     * Draws the same random numbers as routing the packets one by one.
+     *
+     * @param consumer the packet consumer that will receive the packets that are not dropped
+     * @param packets  the packets to be routed
+     */
+    @Override
+    @DoNotTouch
+    protected void routeBatchInner(PacketConsumer consumer, List<Packet> packets) {
+        List<Packet> delivered = new ArrayList<>(packets.size());
+        for (Packet packet : packets) {
+            if (random.nextDouble() > lossProbability) {
+                delivered.add(packet);
+            }
+        }
+        if (!delivered.isEmpty()) {
+            super.routeBatchInner(consumer, delivered);
+        }
+    }
 }
@@ -0,0 +1,150 @@
+package h09.connection;
+
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link DeliveryEngine} backed by a fixed number of platform threads.
+ * Every port is assigned to exactly one worker, so packets to the same port keep their order.
+ * Each worker has a bounded queue; senders block while the queue of their worker is full.
+ * A worker of this engine never blocks on a full queue, it runs the delivery itself instead,
+ * otherwise two workers delivering to each other's full queue would wait for each other forever.
+ * After {@link #shutdown()}, deliveries run on the sending thread.
+ */
+@DoNotTouch
+public class PooledDeliveryEngine extends AbstractDeliveryEngine {
+
+    /**
+     * Task used to tell a worker to stop after draining its queue.
+     */
+    @DoNotTouch
+    private static final Runnable POISON = () -> {
+    };
+
+    /**
+     * The workers of this engine, indexed by {@code port % workers.length}.
+     */
+    @DoNotTouch
+    private final Worker[] workers;
+
+    /**
+     * Whether {@link #shutdown()} was called.
+     */
+    @DoNotTouch
+    private volatile boolean shutdown;
+
+    /**
+     * Constructs a new engine with the given number of workers.
+     *
+     * @param threads       the number of worker threads
+     * @param queueCapacity the maximum number of pending deliveries per worker
+     */
+    @DoNotTouch
+    public PooledDeliveryEngine(int threads, int queueCapacity) {
+        assert threads > 0 && queueCapacity > 0;
+        this.workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(i, new ArrayBlockingQueue<>(queueCapacity));
+        }
+    }
+
+    /**
+     * Constructs a new engine with one worker per available processor.
+     */
+    @DoNotTouch
+    public PooledDeliveryEngine() {
+        this(Runtime.getRuntime().availableProcessors(), 1024);
+    }
+
+    @Override
+    @DoNotTouch
+    protected void dispatch(int port, Runnable task) {
+        Worker worker = workers[port % workers.length];
+        if (shutdown) {
+            task.run();
+            return;
+        }
+        if (isWorker(Thread.currentThread())) {
+            // a consumer sending from within a delivery must not wait for any worker
+            if (!worker.queue.offer(task)) {
+                task.run();
+                return;
+            }
+        } else {
+            try {
+                while (!worker.queue.offer(task, 10, TimeUnit.MILLISECONDS)) {
+                    if (shutdown) {
+                        task.run();
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e); // mitigate to handler
+            }
+        }
+        // the worker may have drained its queue for the last time before the task was added
+        if (shutdown && worker.queue.remove(task)) {
+            task.run();
+        }
+    }
+
+    /**
+     * Checks whether the given thread is a worker of this engine.
+     *
+     * @param thread the thread to check
+     * @return true if the thread is a worker
+     */
+    @DoNotTouch
+    private boolean isWorker(Thread thread) {
+        for (Worker worker : workers) {
+            if (worker.thread == thread) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    @DoNotTouch
+    public void shutdown() {
+        shutdown = true;
+        for (Worker worker : workers) {
+            // a full queue keeps its worker awake, it sees the flag once the queue is drained
+            worker.queue.offer(POISON);
+        }
+    }
+
+    /**
+     * A single worker thread with its queue of pending deliveries.
+     */
+    @DoNotTouch
+    private static class Worker implements Runnable {
+
+        private final BlockingQueue<Runnable> queue;
+        private final Thread thread;
+
+        Worker(int index, BlockingQueue<Runnable> queue) {
+            this.queue = queue;
+            this.thread = Thread.ofPlatform().daemon().name("delivery-worker-" + index).start(this);
+        }
+
+        @Override
+        public void run() {
+            try {
+                Runnable task;
+                while ((task = queue.take()) != POISON) {
+                    task.run();
+                }
+                // deliveries queued before the shutdown was seen by their senders
+                while ((task = queue.poll()) != null) {
+                    task.run();
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+package h09.connection;
+
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.random.RandomGenerator;
+
+/**
+ * Lock-free allocator for port numbers based on a two-level bitmap.
+ * <p>
+ * Every port is one bit in {@link #words}; a set bit means the port is taken.
+ * A second bitmap {@link #full} has one bit per word that is set while the word has no free port,
+ * so finding a free port reads at most {@code capacity / 4096} summary words and a handful of
+ * port words, independent of how many ports are taken.
+ * Searches start at a random position, so concurrent allocations rarely contend on the same word.
+ * The position is drawn from the {@link Clock#random() random numbers of the clock}, so a {@link VirtualClock}
+ * hands out the same ports in every run with the same seed.
+ */
+@DoNotTouch
+class PortAllocator {
+
+    /**
+     * A word with all bits set.
+     */
+    @DoNotTouch
+    private static final long ALL = -1L;
+
+    /**
+     * One bit per port, set if the port is taken.
+     */
+    @DoNotTouch
+    private final AtomicLongArray words;
+
+    /**
+     * One bit per entry of {@link #words}, set while that word is full.
+     * A set bit is only a hint; it is cleared again as soon as a port of the word is released.
+     */
+    @DoNotTouch
+    private final AtomicLongArray full;
+
+    /**
+     * Constructs a new allocator with all ports in {@code [0, capacity)} free.
+     *
+     * @param capacity the number of ports
+     */
+    @DoNotTouch
+    PortAllocator(int capacity) {
+        assert capacity > 0;
+        int wordCount = (capacity + 63) >>> 6;
+        this.words = new AtomicLongArray(wordCount);
+        this.full = new AtomicLongArray((wordCount + 63) >>> 6);
+        // ports and words past the end are permanently taken
+        if ((capacity & 63) != 0) {
+            words.set(wordCount - 1, ALL << (capacity & 63));
+        }
+        if ((wordCount & 63) != 0) {
+            full.set(full.length() - 1, ALL << (wordCount & 63));
+        }
+    }
+
+    /**
+     * Takes the given port if it is free.
+     *
+     * @param port the port to take
+     * @return true if the port was free and is now taken
+     */
+    @DoNotTouch
+    boolean claim(int port) {
+        int index = port >>> 6;
+        long bit = 1L << port;
+        while (true) {
+            long word = words.get(index);
+            if ((word & bit) != 0) {
+                return false;
+            }
+            if (words.compareAndSet(index, word, word | bit)) {
+                if ((word | bit) == ALL) {
+                    markFull(index);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases the given port.
+     *
+     * @param port the port to release
+     */
+    @DoNotTouch
+    void release(int port) {
+        int index = port >>> 6;
+        long bit = 1L << port;
+        words.getAndAccumulate(index, ~bit, (word, mask) -> word & mask);
+        full.getAndAccumulate(index >>> 6, ~(1L << index), (word, mask) -> word & mask);
+    }
+
+    /**
+     * Finds and takes a free port.
+     *
+     * @return the taken port or -1 if all ports are taken
+     */
+    @DoNotTouch
+    int allocate() {
+        return search(true);
+    }
+
+    /**
+     * Finds a free port without taking it.
+     *
+     * @return a port that was free at the time of the call or -1 if all ports are taken
+     */
+    @DoNotTouch
+    int findFree() {
+        return search(false);
+    }
+
+    /**
+     * Searches for a free port, starting at a random summary word and a random bit.
+     *
+     * @param take whether the port should be taken
+     * @return the found port or -1 if all ports are taken
+     */
+    @DoNotTouch
+    private int search(boolean take) {
+        RandomGenerator random = InternetPool.getClock().random();
+        int summaries = full.length();
+        int start = random.nextInt(summaries);
+        int rotation = random.nextInt(64);
+        for (int i = 0; i < summaries; i++) {
+            int summaryIndex = (start + i) % summaries;
+            long summary = full.get(summaryIndex);
+            while (summary != ALL) {
+                int bit = Long.numberOfTrailingZeros(~summary);
+                summary |= 1L << bit;
+                int port = searchWord((summaryIndex << 6) + bit, rotation, take);
+                if (port >= 0) {
+                    return port;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Searches for a free port in a single word.
+     *
+     * @param index    the index of the word
+     * @param rotation the bit to start searching at
+     * @param take     whether the port should be taken
+     * @return the found port or -1 if the word is full
+     */
+    @DoNotTouch
+    private int searchWord(int index, int rotation, boolean take) {
+        while (true) {
+            long word = words.get(index);
+            if (word == ALL) {
+                markFull(index);
+                return -1;
+            }
+            int bit = (Long.numberOfTrailingZeros(Long.rotateRight(~word, rotation)) + rotation) & 63;
+            if (!take) {
+                return (index << 6) + bit;
+            }
+            long taken = word | (1L << bit);
+            if (words.compareAndSet(index, word, taken)) {
+                if (taken == ALL) {
+                    markFull(index);
+                }
+                return (index << 6) + bit;
+            }
+        }
+    }
+
+    /**
+     * Marks a word as full in the summary.
+     * Re-checks the word afterwards, so a concurrent release cannot leave a free port hidden.
+     *
+     * @param index the index of the word
+     */
+    @DoNotTouch
+    private void markFull(int index) {
+        long mask = 1L << index;
+        full.getAndAccumulate(index >>> 6, mask, (word, bit) -> word | bit);
+        if (words.get(index) != ALL) {
+            full.getAndAccumulate(index >>> 6, ~mask, (word, bit) -> word & bit);
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+package h09.connection;
+
+import h09.utils.PacketConsumer;
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Table mapping every port to the {@link PacketConsumer} registered to it.
+ * Ports index directly into an array, so lookups need neither boxing nor hashing.
+ * Ownership of a port is decided by a {@link PortAllocator}, so a port can only ever have one owner
+ * and a free port can be found and registered in a single step.
+ */
+@DoNotTouch
+class PortTable {
+
+    /**
+     * The consumer of every port or null if the port is free.
+     */
+    @DoNotTouch
+    private final AtomicReferenceArray<PacketConsumer> consumers;
+
+    /**
+     * The allocator deciding which ports are taken.
+     */
+    @DoNotTouch
+    private final PortAllocator allocator;
+
+    /**
+     * The number of registered ports.
+     */
+    @DoNotTouch
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Constructs a new empty table for the given number of ports.
+     *
+     * @param capacity the number of ports
+     */
+    @DoNotTouch
+    PortTable(int capacity) {
+        this.consumers = new AtomicReferenceArray<>(capacity);
+        this.allocator = new PortAllocator(capacity);
+    }
+
+    /**
+     * Returns the consumer registered to the given port.
+     *
+     * @param port the port to look up
+     * @return the registered consumer or null if the port is free
+     */
+    @DoNotTouch
+    PacketConsumer get(int port) {
+        return consumers.get(port);
+    }
+
+    /**
+     * Registers a consumer to the given port if it is free.
+     *
+     * @param port     the port to register
+     * @param consumer the consumer to register
+     * @return true if the port was free and is now owned by the consumer
+     */
+    @DoNotTouch
+    boolean register(int port, PacketConsumer consumer) {
+        if (!allocator.claim(port)) {
+            return false;
+        }
+        consumers.set(port, consumer);
+        size.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Registers a consumer to any free port.
+     *
+     * @param consumer the consumer to register
+     * @return the port now owned by the consumer or -1 if all ports are taken
+     */
+    @DoNotTouch
+    int registerAny(PacketConsumer consumer) {
+        int port = allocator.allocate();
+        if (port >= 0) {
+            consumers.set(port, consumer);
+            size.incrementAndGet();
+        }
+        return port;
+    }
+
+    /**
+     * Finds a port that is currently free without registering it.
+     *
+     * @return a free port or -1 if all ports are taken
+     */
+    @DoNotTouch
+    int findFree() {
+        return allocator.findFree();
+    }
+
+    /**
+     * Frees the given port.
+     *
+     * @param port the port to free
+     * @return the consumer that was registered or null if the port was already free
+     */
+    @DoNotTouch
+    PacketConsumer unregister(int port) {
+        PacketConsumer previous = consumers.getAndSet(port, null);
+        if (previous != null) {
+            size.decrementAndGet();
+            allocator.release(port);
+        }
+        return previous;
+    }
+
+    /**
+     * Frees the given port if it is still owned by the given consumer.
+     *
+     * @param port     the port to free
+     * @param consumer the consumer expected to own the port
+     * @return true if the port was owned by the consumer and is now free
+     */
+    @DoNotTouch
+    boolean unregister(int port, PacketConsumer consumer) {
+        if (!consumers.compareAndSet(port, consumer, null)) {
+            return false;
+        }
+        size.decrementAndGet();
+        allocator.release(port);
+        return true;
+    }
+
+    /**
+     * Returns the number of registered ports.
+     *
+     * @return the number of registered ports
+     */
+    @DoNotTouch
+    int size() {
+        return size.get();
+    }
+
+}
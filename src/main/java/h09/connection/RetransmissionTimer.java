@@ -0,0 +1,271 @@
+package h09.connection;
+
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+/**
+ * Estimates the round-trip time of a {@link Connection} and derives its retransmission timeout (RTO).
+ * <p>
+ * Follows the usual smoothed estimator: every valid sample {@code R} updates
+ * {@code RTTVAR = 3/4 RTTVAR + 1/4 |SRTT - R|} and {@code SRTT = 7/8 SRTT + 1/8 R},
+ * and the timeout becomes {@code SRTT + 4 RTTVAR}, clamped to {@code [minRto, maxRto]}.
+ * Every timeout doubles the RTO until the next valid sample or until the peer acknowledges
+ * new data. Samples of retransmitted packets are ambiguous and must not be reported (Karn's algorithm).
+ */
+@DoNotTouch
+public class RetransmissionTimer {
+
+    /**
+     * Default RTO before the first sample, in milliseconds.
+     * Large enough that the first exchange survives slow channels without any sample,
+     * since timed out exchanges never produce one.
+     */
+    @DoNotTouch
+    public static final long DEFAULT_INITIAL_RTO = 3000;
+
+    /**
+     * Default lower bound of the RTO, in milliseconds.
+     */
+    @DoNotTouch
+    public static final long DEFAULT_MIN_RTO = 1000;
+
+    /**
+     * Default upper bound of the RTO, in milliseconds.
+     */
+    @DoNotTouch
+    public static final long DEFAULT_MAX_RTO = 60000;
+
+    /**
+     * Default number of timeouts in a row after which a transfer is given up.
+     */
+    @DoNotTouch
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    @DoNotTouch
+    private static volatile long defaultInitialRto = DEFAULT_INITIAL_RTO;
+
+    @DoNotTouch
+    private static volatile long defaultMinRto = DEFAULT_MIN_RTO;
+
+    @DoNotTouch
+    private static volatile long defaultMaxRto = DEFAULT_MAX_RTO;
+
+    @DoNotTouch
+    private static volatile int defaultMaxRetries = DEFAULT_MAX_RETRIES;
+
+    @DoNotTouch
+    private final long minRto;
+
+    @DoNotTouch
+    private final long maxRto;
+
+    @DoNotTouch
+    private final int maxRetries;
+
+    /**
+     * Smoothed round-trip time in milliseconds, negative until the first sample.
+     */
+    @DoNotTouch
+    private double srtt = -1;
+
+    /**
+     * Round-trip time variation in milliseconds.
+     */
+    @DoNotTouch
+    private double rttvar;
+
+    /**
+     * RTO derived from the last sample, without backoff.
+     */
+    @DoNotTouch
+    private long baseRto;
+
+    /**
+     * Current RTO including backoff.
+     */
+    @DoNotTouch
+    private long rto;
+
+    @DoNotTouch
+    private long samples;
+
+    @DoNotTouch
+    private long timeouts;
+
+    @DoNotTouch
+    private long retransmissions;
+
+    /**
+     * Constructs a new timer with the given bounds.
+     *
+     * @param initialRto the RTO before the first sample in milliseconds
+     * @param minRto     the lower bound of the RTO in milliseconds
+     * @param maxRto     the upper bound of the RTO in milliseconds
+     * @param maxRetries the number of timeouts in a row after which a transfer is given up
+     */
+    @DoNotTouch
+    public RetransmissionTimer(long initialRto, long minRto, long maxRto, int maxRetries) {
+        assert 0 < minRto && minRto <= maxRto && maxRetries > 0;
+        this.minRto = minRto;
+        this.maxRto = maxRto;
+        this.maxRetries = maxRetries;
+        this.baseRto = Math.min(maxRto, Math.max(minRto, initialRto));
+        this.rto = baseRto;
+    }
+
+    /**
+     * Constructs a new timer using the current defaults.
+     *
+     * @see #setDefaults(long, long, long, int)
+     */
+    @DoNotTouch
+    public RetransmissionTimer() {
+        this(defaultInitialRto, defaultMinRto, defaultMaxRto, defaultMaxRetries);
+    }
+
+    /**
+     * Sets the bounds used by timers created afterwards with {@link #RetransmissionTimer()}.
+     *
+     * @param initialRto the RTO before the first sample in milliseconds
+     * @param minRto     the lower bound of the RTO in milliseconds
+     * @param maxRto     the upper bound of the RTO in milliseconds
+     * @param maxRetries the number of timeouts in a row after which a transfer is given up
+     */
+    @DoNotTouch
+    public static void setDefaults(long initialRto, long minRto, long maxRto, int maxRetries) {
+        assert 0 < minRto && minRto <= maxRto && maxRetries > 0;
+        defaultInitialRto = initialRto;
+        defaultMinRto = minRto;
+        defaultMaxRto = maxRto;
+        defaultMaxRetries = maxRetries;
+    }
+
+    /**
+     * Reports a round-trip time measured for a packet that was not retransmitted.
+     * Resets any backoff.
+     *
+     * @param rttNanos the measured round-trip time in nanoseconds
+     */
+    @DoNotTouch
+    public synchronized void onSample(long rttNanos) {
+        double r = rttNanos / 1e6;
+        if (srtt < 0) {
+            srtt = r;
+            rttvar = r / 2;
+        } else {
+            rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - r);
+            srtt = 0.875 * srtt + 0.125 * r;
+        }
+        samples++;
+        baseRto = Math.min(maxRto, Math.max(minRto, (long) Math.ceil(srtt + 4 * rttvar)));
+        rto = baseRto;
+    }
+
+    /**
+     * Reports that the peer acknowledged new data, possibly of a retransmitted packet.
+     * The path works again, so the backoff is reset without taking a sample.
+     */
+    @DoNotTouch
+    public synchronized void onProgress() {
+        rto = baseRto;
+    }
+
+    /**
+     * Reports that waiting for a packet timed out. Doubles the RTO.
+     */
+    @DoNotTouch
+    public synchronized void onTimeout() {
+        timeouts++;
+        rto = Math.min(maxRto, rto * 2);
+    }
+
+    /**
+     * Reports that a packet was sent again.
+     */
+    @DoNotTouch
+    public synchronized void onRetransmit() {
+        retransmissions++;
+    }
+
+    /**
+     * Returns the current retransmission timeout including backoff.
+     *
+     * @return the RTO in milliseconds
+     */
+    @DoNotTouch
+    public synchronized long getRto() {
+        return rto;
+    }
+
+    /**
+     * Returns the smoothed round-trip time.
+     *
+     * @return the SRTT in milliseconds or a negative value if there was no sample yet
+     */
+    @DoNotTouch
+    public synchronized double getSrtt() {
+        return srtt;
+    }
+
+    /**
+     * Returns the round-trip time variation.
+     *
+     * @return the RTTVAR in milliseconds
+     */
+    @DoNotTouch
+    public synchronized double getRttvar() {
+        return rttvar;
+    }
+
+    /**
+     * Returns the number of timeouts in a row after which a transfer is given up.
+     *
+     * @return the maximum number of retries
+     */
+    @DoNotTouch
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Returns the number of valid round-trip samples.
+     *
+     * @return the number of samples
+     */
+    @DoNotTouch
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    /**
+     * Returns the number of timeouts.
+     *
+     * @return the number of timeouts
+     */
+    @DoNotTouch
+    public synchronized long getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * Returns the number of retransmitted packets.
+     *
+     * @return the number of retransmissions
+     */
+    @DoNotTouch
+    public synchronized long getRetransmissions() {
+        return retransmissions;
+    }
+
+    @Override
+    @DoNotTouch
+    public synchronized String toString() {
+        return "RetransmissionTimer{" +
+            "rto=" + rto +
+            ", srtt=" + srtt +
+            ", rttvar=" + rttvar +
+            ", samples=" + samples +
+            ", timeouts=" + timeouts +
+            ", retransmissions=" + retransmissions +
+            '}';
+    }
+}
@@ -0,0 +1,66 @@
+package h09.connection;
+
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.random.RandomGenerator;
+
+/**
+ * The {@link Clock#SYSTEM system clock}: real time, {@link LinkedBlockingQueue LinkedBlockingQueues},
+ * virtual threads and a shared {@link TimerWheel} for delayed tasks.
+ */
+@DoNotTouch
+final class SystemClock implements Clock {
+
+    /**
+     * The timer wheel running delayed tasks, started on first use.
+     */
+    @DoNotTouch
+    private final TimerWheel timer = new TimerWheel("system-clock-timer");
+
+    @Override
+    @DoNotTouch
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    @DoNotTouch
+    public RandomGenerator random() {
+        return ThreadLocalRandom.current();
+    }
+
+    @Override
+    @DoNotTouch
+    public <E> BlockingQueue<E> newQueue() {
+        return new LinkedBlockingQueue<>();
+    }
+
+    @Override
+    @DoNotTouch
+    public ThreadFactory newThreadFactory(String prefix) {
+        return Thread.ofVirtual().name(prefix, 0).factory();
+    }
+
+    @Override
+    @DoNotTouch
+    public void schedule(Runnable task, long delay, TimeUnit unit) {
+        timer.schedule(task, delay, unit);
+    }
+
+    @Override
+    @DoNotTouch
+    public void interrupt(Thread thread) {
+        thread.interrupt();
+    }
+
+    @Override
+    @DoNotTouch
+    public String toString() {
+        return "SystemClock";
+    }
+}
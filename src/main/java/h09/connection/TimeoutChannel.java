@@ -4,21 +4,39 @@ import h09.packet.Packet;
 import h09.utils.PacketConsumer;
 import org.tudalgo.algoutils.student.annotation.DoNotTouch;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A specialized channel that introduces random delays when routing packets.
  * This simulates network latency or timeouts in a network connection.
+ * The delays are waited out by the {@link Clock} of the {@link InternetPool}, so delayed packets do not occupy threads.
+ * Once a delay expired, the packet is handed back to the {@link DeliveryEngine} of its destination port,
+ * so a slow consumer does not hold up the timers of the clock.
  */
 @DoNotTouch
 public class TimeoutChannel extends Channel {
 
+    /**
+     * The default upper bound of the delay in milliseconds.
+     */
+    @DoNotTouch
+    public static final long DEFAULT_MAX_DELAY = 7000;
+
     /**
      * Random number generator used to determine delay times.
      */
     @DoNotTouch
     private final Random random;
 
+    /**
+     * The distribution of the delays.
+     */
+    @DoNotTouch
+    private final DelayDistribution delays;
+
     /**
      * Constructs a TimeoutChannel with a specified random number generator.
      *
@@ -26,7 +44,31 @@ public class TimeoutChannel extends Channel {
      */
     @DoNotTouch
     public TimeoutChannel(Random random) {
+        this(random, DEFAULT_MAX_DELAY);
+    }
+
+    /**
+     * Constructs a TimeoutChannel with a specified random number generator and
+     * a scaled delay, e.g. to run benchmarks in reasonable time.
+     *
+     * @param random   The random number generator to use for determining delays
+     * @param maxDelay The exclusive upper bound of the delay in milliseconds
+     */
+    @DoNotTouch
+    public TimeoutChannel(Random random, long maxDelay) {
+        this(random, DelayDistribution.uniform(maxDelay));
+    }
+
+    /**
+     * Constructs a TimeoutChannel drawing its delays from the given distribution.
+     *
+     * @param random The random number generator to use for determining delays
+     * @param delays The distribution of the delays
+     */
+    @DoNotTouch
+    public TimeoutChannel(Random random, DelayDistribution delays) {
         this.random = random;
+        this.delays = delays;
     }
 
     /**
@@ -39,20 +81,101 @@ public class TimeoutChannel extends Channel {
 
     /**
      * Routes a packet to a consumer with a random delay.
-     * The delay can be up to 7000 milliseconds (7 seconds).
+     * By default the delay can be up to 7000 milliseconds (7 seconds).
+     * The delivery thread is not blocked and packets may overtake each other.
      *
      * @param consumer The packet consumer that will receive the packet
      * @param packet   The packet to route
-     * @throws RuntimeException If the thread is interrupted during the delay
      */
     @Override
     @DoNotTouch
     protected void routeInner(PacketConsumer consumer, Packet packet) {
-        try {
-            Thread.sleep(random.nextLong(7000));
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+        long delay = delays.nextDelay(random);
+        InternetPool.getClock().schedule(() -> InternetPool.deliverPostponed(packet.getDestinationPort(),
+            () -> super.routeInner(consumer, packet)), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Routes a batch of packets to a consumer, every packet with its own random delay like {@link #routeInner}.
+     * Instead of one timer per packet, a single timer walks through the packets ordered by their delays.
+     * Packets whose delays expire together are handed to the {@link DeliveryEngine} as one delivery.
+     *
+     * @param consumer The packet consumer that will receive the packets
+     * @param packets  The packets to route
+     */
+    @Override
+    @DoNotTouch
+    protected void routeBatchInner(PacketConsumer consumer, List<Packet> packets) {
+        int count = packets.size();
+        // delay and index in one number, so sorting needs no boxing
+        long[] schedule = new long[count];
+        for (int i = 0; i < count; i++) {
+            schedule[i] = delays.nextDelay(random) * count + i;
+        }
+        Arrays.sort(schedule);
+        new DelayedBatch(consumer, packets, schedule).scheduleNext(0);
+    }
+
+    /**
+     * The packets of a batch waiting for their delays, see {@link #routeBatchInner}.
+     */
+    @DoNotTouch
+    private final class DelayedBatch implements Runnable {
+
+        @DoNotTouch
+        private final PacketConsumer consumer;
+
+        @DoNotTouch
+        private final List<Packet> packets;
+
+        /**
+         * {@code delay * packets.size() + index} of every packet, ascending.
+         */
+        @DoNotTouch
+        private final long[] schedule;
+
+        /**
+         * The position in {@link #schedule} of the next packet to route.
+         */
+        @DoNotTouch
+        private int next;
+
+        @DoNotTouch
+        private DelayedBatch(PacketConsumer consumer, List<Packet> packets, long[] schedule) {
+            this.consumer = consumer;
+            this.packets = packets;
+            this.schedule = schedule;
+        }
+
+        /**
+         * Waits for the delay of the next packet.
+         *
+         * @param elapsed the delay that has already passed
+         */
+        @DoNotTouch
+        private void scheduleNext(long elapsed) {
+            long delay = schedule[next] / packets.size();
+            InternetPool.getClock().schedule(this, delay - elapsed, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        @DoNotTouch
+        public void run() {
+            int count = packets.size();
+            long delay = schedule[next] / count;
+            int first = next;
+            while (next < schedule.length && schedule[next] / count == delay) {
+                next++;
+            }
+            int last = next;
+            InternetPool.deliverPostponed(packets.get(0).getDestinationPort(), () -> {
+                for (int i = first; i < last; i++) {
+                    TimeoutChannel.super.routeInner(consumer, packets.get((int) (schedule[i] % count)));
+                }
+            });
+            if (next < schedule.length) {
+                scheduleNext(delay);
+            }
         }
-        super.routeInner(consumer, packet);
     }
 }
@@ -0,0 +1,266 @@
+package h09.connection;
+
+import h09.utils.MpscQueue;
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel running delayed tasks on a single ticker thread.
+ * <p>
+ * The wheel consists of {@code wheelSize} buckets, each covering one tick. A task is put into the bucket
+ * of its deadline together with the number of full rounds the wheel has to turn before it is due.
+ * Every tick the ticker thread runs the due tasks of one bucket. Scheduling only appends to a lock-free queue,
+ * so a pending task costs a queue entry instead of a sleeping thread. Deadlines are rounded up to whole ticks.
+ * <p>
+ * Tasks run on the ticker thread and must therefore be short, e.g. hand a delayed packet to the
+ * {@link DeliveryEngine} instead of delivering it themselves.
+ * While no task is pending, the ticker thread parks without waking up every tick.
+ */
+@DoNotTouch
+public class TimerWheel {
+
+    /**
+     * The default duration of a tick in milliseconds.
+     */
+    @DoNotTouch
+    public static final long DEFAULT_TICK_MILLIS = 1;
+
+    /**
+     * The default number of buckets.
+     */
+    @DoNotTouch
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    @DoNotTouch
+    private final long tickNanos;
+
+    @DoNotTouch
+    private final Timeout[] buckets;
+
+    @DoNotTouch
+    private final int mask;
+
+    /**
+     * Tasks scheduled but not yet put into a bucket by the ticker thread.
+     */
+    @DoNotTouch
+    private final MpscQueue<Timeout> scheduled = new MpscQueue<>();
+
+    /**
+     * The number of tasks that have not run yet.
+     */
+    @DoNotTouch
+    private final AtomicInteger pending = new AtomicInteger();
+
+    @DoNotTouch
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    @DoNotTouch
+    private final String name;
+
+    @DoNotTouch
+    private volatile Thread ticker;
+
+    /**
+     * Whether the ticker thread parks until a task is scheduled.
+     */
+    @DoNotTouch
+    private volatile boolean idle;
+
+    @DoNotTouch
+    private volatile boolean shutdown;
+
+    /**
+     * The {@link System#nanoTime()} tick 0 started at.
+     */
+    @DoNotTouch
+    private long startTime;
+
+    /**
+     * The next tick to process, only accessed by the ticker thread.
+     */
+    @DoNotTouch
+    private long currentTick;
+
+    /**
+     * Constructs a timer wheel with a tick of {@value #DEFAULT_TICK_MILLIS} ms and {@value #DEFAULT_WHEEL_SIZE} buckets.
+     *
+     * @param name the name of the ticker thread
+     */
+    @DoNotTouch
+    public TimerWheel(String name) {
+        this(name, DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Constructs a timer wheel. The ticker thread is started when the first task is scheduled.
+     *
+     * @param name      the name of the ticker thread
+     * @param tick      the duration of a tick, i.e. the resolution of the deadlines
+     * @param unit      the unit of the tick
+     * @param wheelSize the number of buckets, a power of two
+     */
+    @DoNotTouch
+    public TimerWheel(String name, long tick, TimeUnit unit, int wheelSize) {
+        assert tick > 0;
+        assert wheelSize > 0 && Integer.bitCount(wheelSize) == 1 : "wheel size must be a power of two";
+        this.name = name;
+        this.tickNanos = unit.toNanos(tick);
+        this.buckets = new Timeout[wheelSize];
+        this.mask = wheelSize - 1;
+    }
+
+    /**
+     * Schedules a task to run once the given delay has passed.
+     *
+     * @param task  the task to run on the ticker thread
+     * @param delay the delay, 0 to run the task on the next tick
+     * @param unit  the unit of the delay
+     * @throws IllegalStateException if the wheel was shut down
+     */
+    @DoNotTouch
+    public void schedule(Runnable task, long delay, TimeUnit unit) {
+        if (shutdown) {
+            throw new IllegalStateException("timer wheel " + name + " is shut down");
+        }
+        if (started.compareAndSet(false, true)) {
+            start();
+        }
+        pending.incrementAndGet();
+        scheduled.offer(new Timeout(task, System.nanoTime() + unit.toNanos(Math.max(0, delay))));
+        if (idle) {
+            LockSupport.unpark(ticker);
+        }
+    }
+
+    /**
+     * Returns the number of tasks that have been scheduled but not run yet.
+     *
+     * @return the number of pending tasks
+     */
+    @DoNotTouch
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Stops the ticker thread. Pending tasks are discarded.
+     */
+    @DoNotTouch
+    public void shutdown() {
+        shutdown = true;
+        Thread t = ticker;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    @DoNotTouch
+    private void start() {
+        startTime = System.nanoTime();
+        Thread t = Thread.ofPlatform().name(name).daemon().unstarted(this::run);
+        ticker = t;
+        t.start();
+    }
+
+    /**
+     * The loop of the ticker thread.
+     */
+    @DoNotTouch
+    private void run() {
+        while (!shutdown) {
+            long nowTick = (System.nanoTime() - startTime) / tickNanos;
+            transferScheduled();
+            while (currentTick <= nowTick) {
+                expire(currentTick);
+                currentTick++;
+            }
+            if (pending.get() == 0) {
+                idle = true;
+                // re-check, a task scheduled before idle was set did not unpark this thread
+                if (pending.get() == 0) {
+                    LockSupport.park(this);
+                }
+                idle = false;
+                // all buckets are empty, so the ticks passed while parking can be skipped
+                currentTick = Math.max(currentTick, (System.nanoTime() - startTime) / tickNanos);
+            } else {
+                LockSupport.parkNanos(this, startTime + currentTick * tickNanos - System.nanoTime());
+            }
+        }
+    }
+
+    /**
+     * Moves the newly scheduled tasks into their buckets.
+     */
+    @DoNotTouch
+    private void transferScheduled() {
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            long deadlineTick = Math.max(currentTick, ceilDiv(timeout.deadline - startTime, tickNanos));
+            timeout.rounds = (deadlineTick - currentTick) / buckets.length;
+            int index = (int) (deadlineTick & mask);
+            timeout.next = buckets[index];
+            buckets[index] = timeout;
+        }
+    }
+
+    /**
+     * Runs the due tasks of the bucket of the given tick and counts down the rounds of the others.
+     *
+     * @param tick the tick to process
+     */
+    @DoNotTouch
+    private void expire(long tick) {
+        int index = (int) (tick & mask);
+        Timeout previous = null;
+        Timeout timeout = buckets[index];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.rounds <= 0) {
+                if (previous == null) {
+                    buckets[index] = next;
+                } else {
+                    previous.next = next;
+                }
+                pending.decrementAndGet();
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    Thread current = Thread.currentThread();
+                    current.getUncaughtExceptionHandler().uncaughtException(current, e);
+                }
+            } else {
+                timeout.rounds--;
+                previous = timeout;
+            }
+            timeout = next;
+        }
+    }
+
+    @DoNotTouch
+    private static long ceilDiv(long x, long y) {
+        return x <= 0 ? 0 : (x + y - 1) / y;
+    }
+
+    /**
+     * A scheduled task, linked into the list of its bucket.
+     */
+    @DoNotTouch
+    private static final class Timeout {
+
+        private final Runnable task;
+        private final long deadline;
+        private long rounds;
+        private Timeout next;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package h09.connection;
+
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.random.RandomGenerator;
+
+/**
+ * A {@link Clock} for deterministic discrete-event simulation of the network.
+ * <p>
+ * Time only advances when nothing can run anymore: then it jumps to the next pending event, e.g. the timeout
+ * of a {@link Connection#waitForPacketTimeout()} or a packet delayed by a {@link TimeoutChannel}. Waiting costs
+ * no real time, so minutes of timeouts pass in milliseconds.
+ * <p>
+ * The threads of a simulation, called participants, are the thread calling {@link #run(Callable)} and the threads
+ * created by {@link #newThreadFactory(String)}. Only one participant runs at a time: it holds the baton until it
+ * blocks on a queue of this clock or ends, then the baton is passed to the participant that became ready first,
+ * or, if none is ready, time advances to the next event. A created thread becomes ready once it was started,
+ * threads that are never started never get the baton. Packets are delivered on the sending participant.
+ * With seeded random number generators for the channels, a simulation is therefore exactly reproducible.
+ * <p>
+ * Participants must only block through this clock, i.e. on connections, as any other blocking call
+ * holds the baton and stalls the simulation.
+ */
+@DoNotTouch
+public class VirtualClock implements Clock {
+
+    /**
+     * Delivers packets on the sending participant.
+     */
+    @DoNotTouch
+    private final DeliveryEngine deliveryEngine = new InlineDeliveryEngine();
+
+    /**
+     * Random number generator shared by all participants, safe as only one runs at a time.
+     */
+    @DoNotTouch
+    private final Random random;
+
+    /**
+     * The pending timeouts and tasks ordered by time and scheduling order.
+     */
+    @DoNotTouch
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+
+    /**
+     * Participants ready to run in the order they became ready.
+     */
+    @DoNotTouch
+    private final ArrayDeque<Participant> ready = new ArrayDeque<>();
+
+    /**
+     * Participants whose threads were created but not seen started yet, in the order they were created.
+     */
+    @DoNotTouch
+    private final ArrayDeque<Participant> created = new ArrayDeque<>();
+
+    @DoNotTouch
+    private final Map<Thread, Participant> participants = new HashMap<>();
+
+    @DoNotTouch
+    private final ThreadLocal<Participant> self = new ThreadLocal<>();
+
+    /**
+     * The participant holding the baton.
+     */
+    @DoNotTouch
+    private volatile Participant current;
+
+    @DoNotTouch
+    private volatile boolean shutdown;
+
+    /**
+     * The participant that called {@link #run(Callable)}.
+     */
+    @DoNotTouch
+    private Participant main;
+
+    /**
+     * The current time in nanoseconds.
+     */
+    @DoNotTouch
+    private long now;
+
+    /**
+     * Counter ordering events with equal times.
+     */
+    @DoNotTouch
+    private long sequence;
+
+    /**
+     * Constructs a virtual clock with a fixed seed.
+     */
+    @DoNotTouch
+    public VirtualClock() {
+        this(0);
+    }
+
+    /**
+     * Constructs a virtual clock.
+     *
+     * @param seed the seed of the random number generator returned by {@link #random()}
+     */
+    @DoNotTouch
+    public VirtualClock(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Runs a simulation on this clock. The clock is installed as the clock of the {@link InternetPool}
+     * while the simulation runs and the calling thread becomes its first participant. When the simulation
+     * returns, all remaining participants are stopped and the previous clock is restored.
+     * <p>
+     * Devices used in the simulation must be created inside of it.
+     *
+     * @param simulation the simulation
+     * @param <T>        the type of the result
+     * @return the result of the simulation
+     * @throws Exception             if the simulation throws an exception
+     * @throws IllegalStateException if this clock already ran a simulation
+     */
+    @DoNotTouch
+    public <T> T run(Callable<T> simulation) throws Exception {
+        Participant participant = new Participant(Thread.currentThread());
+        synchronized (this) {
+            if (main != null) {
+                throw new IllegalStateException("a virtual clock can only run one simulation");
+            }
+            main = participant;
+            participants.put(participant.thread, participant);
+            current = participant;
+        }
+        self.set(participant);
+        Clock previous = InternetPool.getClock();
+        InternetPool.setClock(this);
+        try {
+            return simulation.call();
+        } finally {
+            InternetPool.setClock(previous);
+            self.remove();
+            shutdown();
+        }
+    }
+
+    @Override
+    @DoNotTouch
+    public synchronized long nanoTime() {
+        return now;
+    }
+
+    /**
+     * Returns the time passed since the simulation started.
+     *
+     * @return the current time in milliseconds
+     */
+    @DoNotTouch
+    public long currentTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(nanoTime());
+    }
+
+    @Override
+    @DoNotTouch
+    public RandomGenerator random() {
+        return random;
+    }
+
+    @Override
+    @DoNotTouch
+    public <E> BlockingQueue<E> newQueue() {
+        return new VirtualQueue<>(this);
+    }
+
+    @Override
+    @DoNotTouch
+    public ThreadFactory newThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return task -> {
+            Participant participant = new Participant();
+            Thread thread = Thread.ofVirtual()
+                .name(prefix + counter.getAndIncrement())
+                .unstarted(() -> runParticipant(participant, task));
+            participant.thread = thread;
+            synchronized (this) {
+                participants.put(thread, participant);
+                created.add(participant);
+            }
+            return thread;
+        };
+    }
+
+    @Override
+    @DoNotTouch
+    public synchronized void schedule(Runnable task, long delay, TimeUnit unit) {
+        events.add(new Event(now + unit.toNanos(Math.max(0, delay)), sequence++, null, task));
+    }
+
+    @Override
+    @DoNotTouch
+    public synchronized void interrupt(Thread thread) {
+        Participant participant = participants.get(thread);
+        if (participant == null) {
+            thread.interrupt();
+            return;
+        }
+        participant.interrupted = true;
+        if (participant.blocked) {
+            wake(participant);
+        }
+    }
+
+    /**
+     * Lets the calling participant wait for the given time.
+     *
+     * @param delay the time to wait
+     * @param unit  the unit of the time
+     * @throws InterruptedException if the participant is interrupted
+     */
+    @DoNotTouch
+    public void sleep(long delay, TimeUnit unit) throws InterruptedException {
+        await(null, nanoTime() + unit.toNanos(delay));
+    }
+
+    /**
+     * Returns the engine delivering packets while this clock is installed.
+     *
+     * @return the delivery engine
+     */
+    @DoNotTouch
+    DeliveryEngine getDeliveryEngine() {
+        return deliveryEngine;
+    }
+
+    /**
+     * Blocks the calling participant until it is woken from the given waiters, the deadline passes or it is
+     * interrupted, and passes the baton on in the meantime.
+     *
+     * @param waiters  the waiters to join or null to only wait for the deadline
+     * @param deadline the time to wake up at or a negative number to wait without deadline
+     * @throws InterruptedException if the participant is interrupted
+     */
+    @DoNotTouch
+    void await(ArrayDeque<Participant> waiters, long deadline) throws InterruptedException {
+        Participant me = self.get();
+        if (me == null || current != me) {
+            throw new IllegalStateException(Thread.currentThread() + " is not a participant of the virtual clock");
+        }
+        synchronized (this) {
+            checkInterrupted(me);
+            me.blocked = true;
+            me.waitingOn = waiters;
+            if (waiters != null) {
+                waiters.add(me);
+            }
+            if (deadline >= 0) {
+                me.timeout = new Event(deadline, sequence++, me, null);
+                events.add(me.timeout);
+            }
+            handOff();
+        }
+        if (!awaitBaton(me)) {
+            throw new InterruptedException("virtual clock shut down");
+        }
+        synchronized (this) {
+            if (me.stalled) {
+                me.stalled = false;
+                throw new IllegalStateException("simulation stalled, every participant waits without a timeout");
+            }
+            checkInterrupted(me);
+        }
+    }
+
+    /**
+     * Makes a blocked participant ready, cancelling its timeout.
+     *
+     * @param participant the blocked participant
+     */
+    @DoNotTouch
+    synchronized void wake(Participant participant) {
+        unblock(participant);
+        ready.add(participant);
+    }
+
+    @DoNotTouch
+    private void unblock(Participant participant) {
+        participant.blocked = false;
+        if (participant.timeout != null) {
+            participant.timeout.cancelled = true;
+            participant.timeout = null;
+        }
+        if (participant.waitingOn != null) {
+            participant.waitingOn.remove(participant);
+            participant.waitingOn = null;
+        }
+    }
+
+    @DoNotTouch
+    private static void checkInterrupted(Participant participant) throws InterruptedException {
+        if (participant.interrupted) {
+            participant.interrupted = false;
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Passes the baton to the next participant. Must hold the lock of this clock.
+     */
+    @DoNotTouch
+    private void handOff() {
+        Participant next = dispatch();
+        current = next;
+        if (next != null) {
+            LockSupport.unpark(next.thread);
+        }
+    }
+
+    /**
+     * Determines the next participant to run, advancing time and running due tasks if none is ready.
+     *
+     * @return the next participant or null if the simulation is over
+     */
+    @DoNotTouch
+    private Participant dispatch() {
+        // only the baton holder starts threads, so the order does not depend on the scheduling of the JVM
+        created.removeIf(participant -> {
+            if (participant.thread.getState() == Thread.State.NEW) {
+                return false;
+            }
+            ready.add(participant);
+            return true;
+        });
+        while (true) {
+            Participant next = ready.poll();
+            if (next != null) {
+                return next;
+            }
+            Event event = events.poll();
+            if (event == null) {
+                if (main == null || !main.blocked) {
+                    return null;
+                }
+                // nothing will ever wake the simulation up again, so it fails instead of hanging
+                unblock(main);
+                main.stalled = true;
+                return main;
+            }
+            if (event.cancelled) {
+                continue;
+            }
+            now = Math.max(now, event.time);
+            if (event.task != null) {
+                try {
+                    event.task.run();
+                } catch (RuntimeException e) {
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                }
+            } else {
+                event.participant.timeout = null;
+                unblock(event.participant);
+                return event.participant;
+            }
+        }
+    }
+
+    /**
+     * Parks the calling participant until it holds the baton.
+     *
+     * @param me the calling participant
+     * @return false if the simulation ended before the participant got the baton
+     */
+    @DoNotTouch
+    private boolean awaitBaton(Participant me) {
+        while (current != me) {
+            if (shutdown) {
+                return false;
+            }
+            LockSupport.park(this);
+        }
+        return true;
+    }
+
+    @DoNotTouch
+    private void runParticipant(Participant me, Runnable task) {
+        self.set(me);
+        try {
+            if (awaitBaton(me)) {
+                task.run();
+            }
+        } finally {
+            synchronized (this) {
+                participants.remove(me.thread);
+                if (!shutdown) {
+                    handOff();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops all remaining participants. Blocked participants get an {@link InterruptedException},
+     * participants that never got the baton end without running their task.
+     */
+    @DoNotTouch
+    private synchronized void shutdown() {
+        shutdown = true;
+        current = null;
+        for (Participant participant : participants.values()) {
+            LockSupport.unpark(participant.thread);
+        }
+        participants.clear();
+        created.clear();
+    }
+
+    @Override
+    @DoNotTouch
+    public String toString() {
+        return "VirtualClock{now=" + nanoTime() + "ns}";
+    }
+
+    /**
+     * A thread taking part in the simulation.
+     */
+    @DoNotTouch
+    static final class Participant {
+
+        private Thread thread;
+        private boolean blocked;
+        private boolean interrupted;
+        private boolean stalled;
+        private ArrayDeque<Participant> waitingOn;
+        private Event timeout;
+
+        Participant() {
+        }
+
+        Participant(Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+    /**
+     * A timeout of a participant or a scheduled task.
+     */
+    @DoNotTouch
+    private static final class Event implements Comparable<Event> {
+
+        private final long time;
+        private final long sequence;
+        private final Participant participant;
+        private final Runnable task;
+        private boolean cancelled;
+
+        Event(long time, long sequence, Participant participant, Runnable task) {
+            this.time = time;
+            this.sequence = sequence;
+            this.participant = participant;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            int byTime = Long.compare(time, other.time);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+}
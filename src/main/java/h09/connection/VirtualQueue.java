@@ -0,0 +1,153 @@
+package h09.connection;
+
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unbounded {@link BlockingQueue} whose blocking operations wait on a {@link VirtualClock}.
+ * All operations synchronize on the clock, as the waiting participants are managed by it.
+ *
+ * @param <E> the type of the elements
+ */
+@DoNotTouch
+final class VirtualQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    @DoNotTouch
+    private final VirtualClock clock;
+
+    @DoNotTouch
+    private final ArrayDeque<E> elements = new ArrayDeque<>();
+
+    /**
+     * The participants blocked in {@link #take()} or {@link #poll(long, TimeUnit)}.
+     */
+    @DoNotTouch
+    private final ArrayDeque<VirtualClock.Participant> waiters = new ArrayDeque<>();
+
+    @DoNotTouch
+    VirtualQueue(VirtualClock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    @DoNotTouch
+    public boolean offer(E e) {
+        synchronized (clock) {
+            elements.add(e);
+            VirtualClock.Participant waiter = waiters.peek();
+            if (waiter != null) {
+                clock.wake(waiter);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    @DoNotTouch
+    public E poll() {
+        synchronized (clock) {
+            return elements.poll();
+        }
+    }
+
+    @Override
+    @DoNotTouch
+    public E peek() {
+        synchronized (clock) {
+            return elements.peek();
+        }
+    }
+
+    @Override
+    @DoNotTouch
+    public int size() {
+        synchronized (clock) {
+            return elements.size();
+        }
+    }
+
+    @Override
+    @DoNotTouch
+    public Iterator<E> iterator() {
+        synchronized (clock) {
+            return new ArrayList<>(elements).iterator();
+        }
+    }
+
+    @Override
+    @DoNotTouch
+    public void put(E e) {
+        offer(e);
+    }
+
+    @Override
+    @DoNotTouch
+    public boolean offer(E e, long timeout, TimeUnit unit) {
+        return offer(e);
+    }
+
+    @Override
+    @DoNotTouch
+    public E take() throws InterruptedException {
+        return await(-1);
+    }
+
+    @Override
+    @DoNotTouch
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return await(clock.nanoTime() + unit.toNanos(Math.max(0, timeout)));
+    }
+
+    /**
+     * Takes the first element, waiting until one is available or the deadline passed.
+     *
+     * @param deadline the time of the clock to give up at, negative to wait without deadline
+     * @return the first element or null if the deadline passed
+     * @throws InterruptedException if the participant is interrupted
+     */
+    @DoNotTouch
+    private E await(long deadline) throws InterruptedException {
+        while (true) {
+            E e = poll();
+            if (e != null) {
+                return e;
+            }
+            if (deadline >= 0 && clock.nanoTime() >= deadline) {
+                return null;
+            }
+            clock.await(waiters, deadline);
+        }
+    }
+
+    @Override
+    @DoNotTouch
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    @DoNotTouch
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    @DoNotTouch
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        synchronized (clock) {
+            int n = 0;
+            while (n < maxElements && !elements.isEmpty()) {
+                c.add(elements.poll());
+                n++;
+            }
+            return n;
+        }
+    }
+}
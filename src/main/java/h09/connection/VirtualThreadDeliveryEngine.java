@@ -0,0 +1,26 @@
+package h09.connection;
+
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A {@link DeliveryEngine} that delivers every packet on its own virtual thread.
+ * Deliveries are cheap and may block, but packets to the same port can overtake each other.
+ */
+@DoNotTouch
+public class VirtualThreadDeliveryEngine extends AbstractDeliveryEngine {
+
+    /**
+     * Factory for the delivery threads.
+     */
+    @DoNotTouch
+    private final ThreadFactory threadFactory = Thread.ofVirtual().name("delivery-", 0).factory();
+
+    @Override
+    @DoNotTouch
+    protected void dispatch(int port, Runnable task) {
+        threadFactory.newThread(task).start();
+    }
+
+}
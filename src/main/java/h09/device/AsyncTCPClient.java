@@ -0,0 +1,624 @@
+package h09.device;
+
+import h09.connection.Clock;
+import h09.connection.InternetPool;
+import h09.connection.RetransmissionTimer;
+import h09.exceptions.ConnectionClosedException;
+import h09.exceptions.InternetException;
+import h09.exceptions.packet.PacketException;
+import h09.exceptions.tcp.TCPException;
+import h09.packet.Packet;
+import h09.packet.TCPOptions;
+import h09.utils.PacketConsumer;
+import h09.utils.TCPUtils;
+import h09.utils.Verbose;
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static h09.packet.PacketType.*;
+
+/**
+ * A TCP client whose operations return {@link CompletableFuture CompletableFutures} instead of blocking.
+ * <p>
+ * It speaks the same stop-and-wait protocol as a {@link TCPClient} without window, but its state machine
+ * is driven by the packets arriving in {@link #accept(Packet)} and by retransmission timeouts scheduled on the
+ * {@link Clock} of the {@link InternetPool}. No thread waits for a conversation, so a single thread can start
+ * thousands of them and combine their futures.
+ * <p>
+ * Operations must be called one after another, i.e. the next operation only after the future of the previous
+ * one completed, for example with {@link CompletableFuture#thenCompose}:
+ * <pre>
+ * {@code
+ * AsyncTCPClient client = new AsyncTCPClient(443);
+ * CompletableFuture<String> reply = client.connect()
+ *     .thenCompose(v -> client.send("Hello Server"))
+ *     .thenCompose(v -> client.receive())
+ *     .whenComplete((r, e) -> client.close());
+ * }
+ * </pre>
+ * Futures complete on the thread that delivered the last packet or ran the timeout, so dependent actions
+ * must not block. A failed operation closes the client. On a {@link h09.connection.VirtualClock} the futures
+ * must be awaited through a queue of the clock instead of {@link CompletableFuture#join()}.
+ * <p>
+ * Actions are performed by one thread at a time. An action produced while a thread already performs one,
+ * e.g. because the {@link h09.connection.InlineDeliveryEngine} or a {@link h09.connection.VirtualClock}
+ * delivered the packet and the server answered on the same thread, or because a dependent action started the
+ * next operation, is queued and performed by that thread afterwards. So neither the packets of a conversation
+ * nor chained operations grow the stack.
+ */
+@DoNotTouch
+public class AsyncTCPClient implements PacketConsumer {
+
+    /**
+     * The steps of a conversation.
+     */
+    @DoNotTouch
+    private enum State {
+        IDLE, CONNECTING, CONNECTED, SENDING, RECEIVING, CLOSED
+    }
+
+    /**
+     * What to do after the state was updated, outside the lock of the client.
+     *
+     * @param packet     the packet to send or null
+     * @param generation the generation of the retransmission timeout to schedule or -1
+     * @param timeout    the retransmission timeout in milliseconds
+     * @param completion the completion of the pending future or null
+     */
+    @DoNotTouch
+    private record Action(Packet packet, int generation, long timeout, Runnable completion) {
+    }
+
+    @DoNotTouch
+    private static final Action NONE = new Action(null, -1, 0, null);
+
+    /**
+     * The port of the server.
+     */
+    @DoNotTouch
+    private final int serverPort;
+
+    /**
+     * The port this client is registered to.
+     */
+    @DoNotTouch
+    private final int myPort;
+
+    /**
+     * The segment size requested from the server during {@link #connect()}.
+     */
+    @DoNotTouch
+    private final int requestedSegmentSize;
+
+    /**
+     * The clock the retransmission timeouts are scheduled on.
+     */
+    @DoNotTouch
+    private final Clock clock = InternetPool.getClock();
+
+    /**
+     * Round-trip estimation and retransmission timeout of the conversation.
+     */
+    @DoNotTouch
+    private final RetransmissionTimer timer = new RetransmissionTimer();
+
+    @DoNotTouch
+    private State state = State.IDLE;
+
+    /**
+     * The next sequence number, as in {@link TCPClient}.
+     */
+    @DoNotTouch
+    private int sequence;
+
+    /**
+     * The segment size agreed on with the server.
+     */
+    @DoNotTouch
+    private int segmentSize = Packet.DEFAULT_SEGMENT_SIZE;
+
+    /**
+     * The future of the running operation, completed with the reply for {@link #receive()}.
+     */
+    @DoNotTouch
+    private CompletableFuture<String> pending;
+
+    /**
+     * The packet waiting for its answer, sent again on timeouts and old packets. Null if no packet waits.
+     */
+    @DoNotTouch
+    private Packet outstanding;
+
+    /**
+     * The sequence number the answer to the outstanding packet has.
+     */
+    @DoNotTouch
+    private int expectedSequence;
+
+    /**
+     * Counts outstanding packets, so that timeouts of answered packets are ignored.
+     */
+    @DoNotTouch
+    private int generation;
+
+    @DoNotTouch
+    private long sentAt;
+
+    @DoNotTouch
+    private int tries;
+
+    @DoNotTouch
+    private boolean resent;
+
+    /**
+     * The DATA packets of the running {@link #send(String)}, including the {@code "<EOF>"}.
+     */
+    @DoNotTouch
+    private List<String> chunks;
+
+    @DoNotTouch
+    private int chunkIndex;
+
+    /**
+     * The reply of the running {@link #receive()} so far, as UTF-8.
+     */
+    @DoNotTouch
+    private ByteArrayOutputStream reply;
+
+    /**
+     * Whether a thread is performing the actions of this client and those queued while it does.
+     */
+    @DoNotTouch
+    private boolean performing;
+
+    /**
+     * The actions queued while another action was performed, null if there are none.
+     */
+    @DoNotTouch
+    private ArrayDeque<Action> actions;
+
+    /**
+     * Constructs an asynchronous client for the server at the given port.
+     *
+     * @param serverPort the port of the server
+     * @throws InternetException if there is no free port to register the client to
+     */
+    @DoNotTouch
+    public AsyncTCPClient(int serverPort) throws InternetException {
+        this(serverPort, Packet.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructs an asynchronous client for the server at the given port that offers the given segment size.
+     *
+     * @param serverPort  the port of the server
+     * @param segmentSize the maximum payload length of a DATA packet to ask the server for
+     * @throws InternetException if there is no free port to register the client to
+     */
+    @DoNotTouch
+    public AsyncTCPClient(int serverPort, int segmentSize) throws InternetException {
+        assert 0 < segmentSize && segmentSize <= Packet.MAX_SEGMENT_SIZE;
+        this.serverPort = serverPort;
+        this.requestedSegmentSize = segmentSize;
+        this.myPort = InternetPool.registerDevice(this);
+    }
+
+    /**
+     * Connects to the server with the SYN exchange.
+     *
+     * @return a future completed once the server answered the SYN packet
+     */
+    @DoNotTouch
+    public CompletableFuture<Void> connect() {
+        CompletableFuture<String> future;
+        Action action;
+        synchronized (this) {
+            if (state != State.IDLE) {
+                return CompletableFuture.failedFuture(new IllegalStateException("client is " + state));
+            }
+            state = State.CONNECTING;
+            future = pending = new CompletableFuture<>();
+            sequence = clock.random().nextInt(1, 1000);
+            TCPOptions options = requestedSegmentSize != Packet.DEFAULT_SEGMENT_SIZE
+                ? TCPOptions.EMPTY.with(TCPOptions.MSS, requestedSegmentSize)
+                : TCPOptions.EMPTY;
+            action = transmit(new Packet(myPort, serverPort, sequence, SYN, null, options), sequence + 1);
+        }
+        perform(action);
+        return future.thenAccept(ignored -> {});
+    }
+
+    /**
+     * Sends data to the server in DATA packets of at most the agreed segment size, followed by {@code "<EOF>"}.
+     *
+     * @param data the data to send
+     * @return a future completed once the server acknowledged the {@code "<EOF>"}
+     * @throws IllegalArgumentException if data is null
+     */
+    @DoNotTouch
+    public CompletableFuture<Void> send(String data) {
+        if (data == null) {
+            throw new IllegalArgumentException("data must not be null");
+        }
+        CompletableFuture<String> future;
+        Action action;
+        synchronized (this) {
+            if (state != State.CONNECTED) {
+                return CompletableFuture.failedFuture(new IllegalStateException("client is " + state));
+            }
+            state = State.SENDING;
+            future = pending = new CompletableFuture<>();
+            chunks = TCPUtils.split(data, segmentSize);
+            chunks.add("<EOF>");
+            chunkIndex = 0;
+            action = transmitChunk();
+        }
+        perform(action);
+        return future.thenAccept(ignored -> {});
+    }
+
+    /**
+     * Receives the reply of the server, acknowledging every DATA packet until the {@code "<EOF>"}.
+     *
+     * @return a future completed with the complete reply
+     */
+    @DoNotTouch
+    public CompletableFuture<String> receive() {
+        CompletableFuture<String> future;
+        Action action;
+        synchronized (this) {
+            if (state != State.CONNECTED) {
+                return CompletableFuture.failedFuture(new IllegalStateException("client is " + state));
+            }
+            state = State.RECEIVING;
+            future = pending = new CompletableFuture<>();
+            reply = new ByteArrayOutputStream();
+            action = transmit(new Packet(myPort, serverPort, sequence, ACK, null), sequence + 1);
+        }
+        perform(action);
+        return future;
+    }
+
+    /**
+     * Advances the state machine with a packet from the server.
+     *
+     * @param packet the packet received by this client
+     */
+    @Override
+    @DoNotTouch
+    public void accept(Packet packet) {
+        if (Verbose.isEnabled()) {
+            Verbose.out.printf("async-client[%d]: received %s%n", myPort, packet);
+        }
+        Action action;
+        synchronized (this) {
+            action = onPacket(packet);
+        }
+        perform(action);
+    }
+
+    /**
+     * Closes the client. A running operation fails with a {@link ConnectionClosedException}
+     * and the server is sent a CLOSE packet.
+     */
+    @DoNotTouch
+    public void close() {
+        Action action;
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                return;
+            }
+            action = fail(new ConnectionClosedException());
+        }
+        perform(action);
+    }
+
+    /**
+     * Checks whether the client can still be used, i.e. neither it nor the server closed the connection.
+     *
+     * @return true if the client is open
+     */
+    @DoNotTouch
+    public synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    /**
+     * Returns the port this client is registered to.
+     *
+     * @return the port of the client
+     */
+    @DoNotTouch
+    public int getPort() {
+        return myPort;
+    }
+
+    /**
+     * Returns the segment size agreed on with the server.
+     *
+     * @return the maximum payload length of a DATA packet
+     */
+    @DoNotTouch
+    public synchronized int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Handles a packet from the server. Must hold the lock of this client.
+     *
+     * @param packet the packet
+     * @return what to do next
+     */
+    @DoNotTouch
+    private Action onPacket(Packet packet) {
+        if (state == State.CLOSED) {
+            // due to timeouts duplicates can arrive after the connection ended
+            return NONE;
+        }
+        if (packet.getType() == CLOSE) {
+            return fail(new ConnectionClosedException(), false);
+        }
+        if (outstanding == null) {
+            return NONE;
+        }
+        if (packet.getSequenceNumber() < expectedSequence) {
+            // as in TCPUtils.try3Times, an old packet means the server missed our last packet
+            Verbose.out.printf("async-client[%d]: received old packet %d < %d%n", myPort,
+                packet.getSequenceNumber(), expectedSequence);
+            resent = true;
+            timer.onRetransmit();
+            return retransmit();
+        }
+        if (resent) {
+            timer.onProgress();
+        } else {
+            timer.onSample(clock.nanoTime() - sentAt);
+        }
+        outstanding = null;
+        generation++;
+        try {
+            return switch (state) {
+                case CONNECTING -> onSyn(packet);
+                case SENDING -> onAck(packet);
+                case RECEIVING -> onData(packet);
+                default -> NONE;
+            };
+        } catch (PacketException e) {
+            return fail(e);
+        }
+    }
+
+    @DoNotTouch
+    private Action onSyn(Packet packet) throws PacketException {
+        packet.expectType(SYN);
+        packet.expectSequenceNumber(sequence + 1);
+        packet.validateChecksum();
+        sequence += 2;
+        segmentSize = Math.max(1, Math.min(requestedSegmentSize,
+            packet.getOptions().getInt(TCPOptions.MSS, Packet.DEFAULT_SEGMENT_SIZE)));
+        state = State.CONNECTED;
+        return complete(null);
+    }
+
+    @DoNotTouch
+    private Action onAck(Packet packet) throws PacketException {
+        packet.expectType(ACK);
+        packet.expectSequenceNumber(expectedSequence);
+        packet.validateChecksum();
+        sequence = expectedSequence + 1;
+        if (++chunkIndex < chunks.size()) {
+            return transmitChunk();
+        }
+        chunks = null;
+        state = State.CONNECTED;
+        return complete(null);
+    }
+
+    @DoNotTouch
+    private Action onData(Packet packet) throws PacketException {
+        packet.expectType(DATA);
+        packet.expectSequenceNumber(expectedSequence);
+        packet.validateChecksum();
+        sequence = expectedSequence + 1 + packet.getPayloadLength();
+        if (packet.isBinary()) {
+            ByteBuffer bytes = packet.getBytes();
+            byte[] chunk = new byte[bytes.remaining()];
+            bytes.get(chunk);
+            reply.writeBytes(chunk);
+        } else if (packet.getData().equals("<EOF>")) {
+            // the <EOF> is not acknowledged
+            String result = reply.toString(StandardCharsets.UTF_8);
+            reply = null;
+            state = State.CONNECTED;
+            return complete(result);
+        } else {
+            reply.writeBytes(packet.getData().getBytes(StandardCharsets.UTF_8));
+        }
+        return transmit(new Packet(myPort, serverPort, sequence, ACK, null), sequence + 1);
+    }
+
+    /**
+     * Handles a retransmission timeout. Stale timeouts of packets answered in the meantime are ignored.
+     *
+     * @param timeoutGeneration the generation the timeout was scheduled for
+     */
+    @DoNotTouch
+    private void onTimeout(int timeoutGeneration) {
+        Action action;
+        synchronized (this) {
+            if (timeoutGeneration != generation || outstanding == null) {
+                return;
+            }
+            Verbose.out.printf("async-client[%d]: timeout after %d ms%n", myPort, timer.getRto());
+            timer.onTimeout();
+            if (++tries >= timer.getMaxRetries()) {
+                action = fail(new TCPException("unstable connection, too many timeouts!"));
+            } else {
+                resent = true;
+                timer.onRetransmit();
+                action = retransmit();
+            }
+        }
+        perform(action);
+    }
+
+    /**
+     * Sends the next chunk of the running {@link #send(String)}. Must hold the lock of this client.
+     */
+    @DoNotTouch
+    private Action transmitChunk() {
+        String chunk = chunks.get(chunkIndex);
+        return transmit(new Packet(myPort, serverPort, sequence, DATA, chunk), sequence + 1 + chunk.length());
+    }
+
+    /**
+     * Sends a packet that waits for an answer. Must hold the lock of this client.
+     *
+     * @param packet   the packet
+     * @param expected the sequence number of the answer
+     */
+    @DoNotTouch
+    private Action transmit(Packet packet, int expected) {
+        outstanding = packet;
+        expectedSequence = expected;
+        tries = 0;
+        resent = false;
+        return retransmit();
+    }
+
+    /**
+     * Sends the outstanding packet (again) and restarts its timeout. Must hold the lock of this client.
+     */
+    @DoNotTouch
+    private Action retransmit() {
+        sentAt = clock.nanoTime();
+        return new Action(outstanding, ++generation, timer.getRto(), null);
+    }
+
+    /**
+     * Completes the running operation. Must hold the lock of this client.
+     *
+     * @param result the result of the operation
+     */
+    @DoNotTouch
+    private Action complete(String result) {
+        CompletableFuture<String> future = pending;
+        pending = null;
+        return new Action(null, -1, 0, () -> future.complete(result));
+    }
+
+    /**
+     * Fails the running operation and closes the client, letting the server know.
+     * Must hold the lock of this client.
+     *
+     * @param cause the cause of the failure
+     */
+    @DoNotTouch
+    private Action fail(Exception cause) {
+        return fail(cause, true);
+    }
+
+    @DoNotTouch
+    private Action fail(Exception cause, boolean notifyServer) {
+        CompletableFuture<String> future = pending;
+        pending = null;
+        outstanding = null;
+        chunks = null;
+        reply = null;
+        generation++;
+        state = State.CLOSED;
+        InternetPool.unregisterDevice(myPort, this);
+        Packet close = notifyServer ? new Packet(myPort, serverPort, Integer.MAX_VALUE, CLOSE, null) : null;
+        return new Action(close, -1, 0, future == null ? null : () -> future.completeExceptionally(cause));
+    }
+
+    /**
+     * Performs an action, or queues it if a thread already performs the actions of this client.
+     * The performing thread continues with the queued actions until none are left.
+     * Called without holding the lock, as the packet may be delivered on the calling thread.
+     *
+     * @param action the action
+     */
+    @DoNotTouch
+    private void perform(Action action) {
+        if (action == NONE) {
+            return;
+        }
+        synchronized (this) {
+            if (performing) {
+                if (actions == null) {
+                    actions = new ArrayDeque<>(2);
+                }
+                actions.add(action);
+                return;
+            }
+            performing = true;
+        }
+        try {
+            do {
+                run(action);
+            } while ((action = nextAction()) != null);
+        } catch (RuntimeException | Error e) {
+            // queued actions may complete the futures of other callers, so they are performed all the same
+            while ((action = nextAction()) != null) {
+                try {
+                    run(action);
+                } catch (RuntimeException | Error suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Takes the next queued action, or stops performing if there is none.
+     *
+     * @return the next action or null
+     */
+    @DoNotTouch
+    private synchronized Action nextAction() {
+        Action next = actions == null ? null : actions.poll();
+        if (next == null) {
+            performing = false;
+            actions = null;
+        }
+        return next;
+    }
+
+    /**
+     * Sends the packet, schedules the timeout and completes the future of an action.
+     *
+     * @param action the action
+     */
+    @DoNotTouch
+    private void run(Action action) {
+        if (action.packet() != null) {
+            try {
+                InternetPool.sendPacket(serverPort, action.packet());
+            } catch (InternetException e) {
+                if (action.packet().getType() != CLOSE) {
+                    Action failure;
+                    synchronized (this) {
+                        failure = state == State.CLOSED ? NONE : fail(e, false);
+                    }
+                    perform(failure);
+                }
+            }
+        }
+        if (action.generation() >= 0) {
+            int timeoutGeneration = action.generation();
+            clock.schedule(() -> onTimeout(timeoutGeneration), action.timeout(), TimeUnit.MILLISECONDS);
+        }
+        if (action.completion() != null) {
+            action.completion().run();
+        }
+    }
+}
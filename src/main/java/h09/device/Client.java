@@ -23,7 +23,7 @@ public abstract class Client implements PacketConsumer {
      * The connection to the server.
      */
     @DoNotTouch
-    private Connection conn;
+    private volatile Connection conn;
 
     /**
      * The port number assigned to this client.
@@ -33,17 +33,16 @@ public abstract class Client implements PacketConsumer {
 
     /**
      * Constructs a client that connects to a specified server port.
-     * Gets a free port for this client and registers it with the {@link InternetPool}.
+     * Registers this client to a free port of the {@link InternetPool}.
      *
      * @param serverPort The port number of the server to connect to
-     * @throws InternetException If there is an error getting a free port or registering the device
+     * @throws InternetException If there is no free port to register the device to
      * @see InternetPool
      */
     @DoNotTouch
     public Client(int serverPort) throws InternetException {
-        this.myPort = InternetPool.getFreePort();
+        this.myPort = InternetPool.registerDevice(this);
         this.conn = new Connection(myPort, serverPort);
-        InternetPool.registerDevice(myPort, this);
     }
 
     /**
@@ -55,11 +54,13 @@ public abstract class Client implements PacketConsumer {
     @DoNotTouch
     @Override
     public void accept(Packet packet) {
-        Verbose.out.printf("client[%d]: received %s%n", myPort, packet);
+        if (Verbose.isEnabled()) {
+            Verbose.out.printf("client[%d]: received %s%n", myPort, packet);
+        }
         // due to timeout we could receive duplicates after CLOSE
         if(conn != null)
             conn.addPacket(packet);
-        if (packet.getHeader().type() == PacketType.CLOSE) {
+        if (packet.getType() == PacketType.CLOSE) {
             this.innerClose();
         }
     }
@@ -99,7 +100,7 @@ public abstract class Client implements PacketConsumer {
      */
     @DoNotTouch
     protected void innerClose() {
-        InternetPool.unregisterDevice(myPort);
+        InternetPool.unregisterDevice(myPort, this);
         conn = null;
     }
 
@@ -116,6 +117,17 @@ public abstract class Client implements PacketConsumer {
         return conn;
     }
 
+    /**
+     * Checks whether the connection is still open, i.e. neither this client
+     * nor the server has closed it.
+     *
+     * @return true if the connection is open
+     */
+    @DoNotTouch
+    public boolean isOpen() {
+        return conn != null;
+    }
+
     /**
      * Closes the client connection.
      * This method should be called when the client is no longer needed.
@@ -0,0 +1,670 @@
+package h09.device;
+
+import h09.connection.Clock;
+import h09.connection.InternetPool;
+import h09.connection.RetransmissionTimer;
+import h09.connection.VirtualClock;
+import h09.exceptions.InternetException;
+import h09.exceptions.packet.PacketException;
+import h09.packet.Packet;
+import h09.packet.TCPOptions;
+import h09.utils.Verbose;
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static h09.packet.PacketType.*;
+
+/**
+ * A TCP server that needs no thread per connection.
+ * <p>
+ * It speaks the stop-and-wait protocol of the {@link TCPServer}, but keeps every connection as a compact
+ * {@link Session} object instead of a thread blocking in a handler. The state machine of a session is advanced
+ * directly by the packets arriving in {@link #accept(Packet)} and by retransmission timeouts scheduled on the
+ * {@link Clock} of the {@link InternetPool}. A session only holds buffers while a request or response is
+ * being transferred, so an idle or half-open connection costs a few hundred bytes.
+ * <p>
+ * The packets of a session are sent by one thread at a time and in the order its events produced them.
+ * An outcome produced while a thread is already sending for the session, e.g. because the
+ * {@link h09.connection.InlineDeliveryEngine} or a {@link VirtualClock} delivered the packet and the client
+ * answered on the same thread, is queued and sent by that thread once its current packet returned.
+ * So the stack does not grow with the number of segments of a request or response.
+ * <p>
+ * Windows and keep-alive are not agreed to, clients offering them fall back to stop-and-wait and
+ * one request per connection. The segment size is negotiated as by the {@link TCPServer}.
+ */
+@DoNotTouch
+public class EventTCPServer extends Server {
+
+    /**
+     * The states of a session.
+     */
+    @DoNotTouch
+    enum State {
+        /**
+         * The SYN was answered, waiting for the first DATA packet.
+         */
+        SYN_RCVD,
+        /**
+         * Receiving the DATA packets of the request.
+         */
+        RECEIVING,
+        /**
+         * The {@code "<EOF>"} of the request was acknowledged, waiting for the client to ask for the response.
+         */
+        REQUEST_DONE,
+        /**
+         * The request handler computes the response.
+         */
+        HANDLING,
+        /**
+         * Sending the DATA packets of the response.
+         */
+        RESPONDING,
+        /**
+         * The {@code "<EOF>"} of the response was sent, waiting for the client to confirm or close.
+         */
+        AWAIT_EOF
+    }
+
+    /**
+     * The state of one connection. All fields are guarded by the session itself.
+     */
+    @DoNotTouch
+    static final class Session {
+
+        private final int clientPort;
+        private final RetransmissionTimer timer = new RetransmissionTimer();
+        private State state = State.SYN_RCVD;
+        /**
+         * The sequence number of the server, as {@code seq.value} of {@link TCPServer}.
+         */
+        private int sequence;
+        /**
+         * The smallest sequence number of a packet that advances the state, older packets cause a resend.
+         */
+        private int expected;
+        private int segmentSize;
+        private boolean offeredSegmentSize;
+        private int generation;
+        private int tries;
+        private boolean resent;
+        private long sentAt;
+        /**
+         * The request received so far as UTF-8, only while receiving.
+         */
+        private ByteArrayOutputStream request;
+        /**
+         * The response and the offset of the DATA packet waiting for its ACK, only while responding.
+         */
+        private String response;
+        private int offset;
+        /**
+         * Whether a thread is applying the outcomes of this session and those queued while it does, only then.
+         */
+        private boolean applying;
+        private ArrayDeque<Outcome> outcomes;
+
+        private Session(int clientPort) {
+            this.clientPort = clientPort;
+        }
+    }
+
+    /**
+     * The result of an event, applied after the lock of the session was released.
+     *
+     * @param packet  the packet to send or null
+     * @param request the request to pass to the request handler or null
+     */
+    @DoNotTouch
+    private record Outcome(Packet packet, String request) {
+    }
+
+    @DoNotTouch
+    private static final Outcome NOTHING = new Outcome(null, null);
+
+    /**
+     * The sessions by client port.
+     */
+    @DoNotTouch
+    private final HandlerTable<Session> sessions = new HandlerTable<>();
+
+    /**
+     * The clock the retransmission timeouts are scheduled on.
+     */
+    @DoNotTouch
+    private final Clock clock;
+
+    /**
+     * The largest segment size this server agrees to when a client asks for one.
+     */
+    @DoNotTouch
+    private final int maxSegmentSize;
+
+    /**
+     * Computes the responses to the requests of the clients.
+     */
+    @DoNotTouch
+    private final RequestHandler requestHandler;
+
+    /**
+     * Runs the request handler, null to run it on the thread completing the request.
+     */
+    @DoNotTouch
+    private final Executor workers;
+
+    @DoNotTouch
+    private final HandlerMetrics metrics = new HandlerMetrics();
+
+    /**
+     * Constructs an event-driven server answering like a {@link TCPServer}.
+     *
+     * @param port The port number to listen on
+     * @throws InternetException If there is an error registering the device
+     */
+    @DoNotTouch
+    public EventTCPServer(int port) throws InternetException {
+        this(port, TCPServer.DEFAULT_MAX_SEGMENT_SIZE, TCPServer::getResponse, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs an event-driven server answering requests with the given handler,
+     * run on the {@link ForkJoinPool#commonPool() common pool}.
+     *
+     * @param port           The port number to listen on
+     * @param requestHandler The handler computing the responses
+     * @throws InternetException If there is an error registering the device
+     */
+    @DoNotTouch
+    public EventTCPServer(int port, RequestHandler requestHandler) throws InternetException {
+        this(port, TCPServer.DEFAULT_MAX_SEGMENT_SIZE, requestHandler, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs an event-driven server answering requests with the given handler. As for the
+     * {@link TCPServer}, the handler runs on the protocol thread on a {@link VirtualClock}.
+     *
+     * @param port           The port number to listen on
+     * @param maxSegmentSize The largest segment size to agree to
+     * @param requestHandler The handler computing the responses
+     * @param workers        The executor running the handler
+     * @throws InternetException If there is an error registering the device
+     */
+    @DoNotTouch
+    public EventTCPServer(int port, int maxSegmentSize, RequestHandler requestHandler, Executor workers)
+        throws InternetException {
+        super(port);
+        assert 0 < maxSegmentSize && maxSegmentSize <= Packet.MAX_SEGMENT_SIZE;
+        this.maxSegmentSize = maxSegmentSize;
+        this.requestHandler = requestHandler;
+        this.clock = InternetPool.getClock();
+        this.workers = clock instanceof VirtualClock ? null : workers;
+    }
+
+    /**
+     * Returns the number of connections this server currently holds a session for.
+     *
+     * @return the number of open connections
+     */
+    @DoNotTouch
+    public int getConnectionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Returns the metrics of the request handler of this server.
+     *
+     * @return the handler metrics
+     */
+    @DoNotTouch
+    public HandlerMetrics getHandlerMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Advances the session of the sending client, creating it for a SYN packet.
+     *
+     * @param packet The packet received by this server
+     */
+    @Override
+    @DoNotTouch
+    public void accept(Packet packet) {
+        if (Verbose.isEnabled()) {
+            Verbose.out.printf("event-server[%d]: received packet %s%n", getPort(), packet);
+        }
+        int clientPort = packet.getSourcePort();
+        if (packet.getType() == CLOSE) {
+            Session closed = sessions.remove(clientPort);
+            if (closed != null) {
+                synchronized (closed) {
+                    closed.generation++;
+                }
+            }
+            return;
+        }
+        Session session = sessions.get(clientPort);
+        if (session == null) {
+            if (packet.getType() != SYN) {
+                return;
+            }
+            Session created = new Session(clientPort);
+            session = sessions.putIfAbsent(clientPort, created);
+            if (session == null) {
+                Verbose.out.printf("event-server[%d]: new session for port %d%n", getPort(), clientPort);
+                apply(created, open(created, packet));
+                return;
+            }
+        }
+        Outcome outcome;
+        synchronized (session) {
+            outcome = onPacket(session, packet);
+        }
+        apply(session, outcome);
+    }
+
+    /**
+     * Answers the SYN packet of a new session.
+     *
+     * @param session the new session
+     * @param syn     the SYN packet of the client
+     * @return the SYN packet to answer with
+     */
+    @DoNotTouch
+    private Outcome open(Session session, Packet syn) {
+        synchronized (session) {
+            session.sequence = syn.getSequenceNumber();
+            session.offeredSegmentSize = syn.getOptions().has(TCPOptions.MSS);
+            session.segmentSize = Math.max(1, Math.min(maxSegmentSize,
+                syn.getOptions().getInt(TCPOptions.MSS, Packet.DEFAULT_SEGMENT_SIZE)));
+            return transmit(session, session.sequence + 2);
+        }
+    }
+
+    /**
+     * Handles a packet of the client. Must hold the lock of the session.
+     *
+     * @param session the session of the client
+     * @param packet  the packet
+     * @return what to do next
+     */
+    @DoNotTouch
+    private Outcome onPacket(Session session, Packet packet) {
+        if (session.state == State.HANDLING || sessions.get(session.clientPort) != session) {
+            // the client waits for the response, or the session already ended
+            return NOTHING;
+        }
+        if (packet.getSequenceNumber() < session.expected) {
+            Verbose.out.printf("event-server[%d]: old packet %d < %d of port %d%n", getPort(),
+                packet.getSequenceNumber(), session.expected, session.clientPort);
+            if (session.state != State.AWAIT_EOF) {
+                session.resent = true;
+                session.timer.onRetransmit();
+            }
+            return retransmit(session);
+        }
+        if (session.state == State.AWAIT_EOF) {
+            // the client moved on, so it received the <EOF>
+            end(session);
+            return NOTHING;
+        }
+        if (session.resent) {
+            session.timer.onProgress();
+        } else {
+            session.timer.onSample(clock.nanoTime() - session.sentAt);
+        }
+        session.generation++;
+        try {
+            return switch (session.state) {
+                case SYN_RCVD, RECEIVING -> onData(session, packet);
+                case REQUEST_DONE -> onRequestAck(session, packet);
+                case RESPONDING -> onResponseAck(session, packet);
+                default -> NOTHING;
+            };
+        } catch (PacketException e) {
+            return drop(session, e);
+        }
+    }
+
+    @DoNotTouch
+    private Outcome onData(Session session, Packet packet) throws PacketException {
+        packet.expectType(DATA);
+        packet.expectSequenceNumber(session.sequence += 2);
+        packet.validateChecksum();
+        session.sequence += packet.getPayloadLength();
+        if (session.request == null) {
+            session.request = new ByteArrayOutputStream();
+        }
+        if (packet.isBinary()) {
+            ByteBuffer bytes = packet.getBytes();
+            byte[] chunk = new byte[bytes.remaining()];
+            bytes.get(chunk);
+            session.request.writeBytes(chunk);
+            session.state = State.RECEIVING;
+        } else if (packet.getData().equals("<EOF>")) {
+            session.state = State.REQUEST_DONE;
+        } else {
+            session.request.writeBytes(packet.getData().getBytes(StandardCharsets.UTF_8));
+            session.state = State.RECEIVING;
+        }
+        return transmit(session, session.sequence + 2);
+    }
+
+    @DoNotTouch
+    private Outcome onRequestAck(Session session, Packet packet) throws PacketException {
+        packet.expectType(ACK);
+        packet.expectSequenceNumber(session.sequence += 2);
+        packet.validateChecksum();
+        String request = session.request.toString(StandardCharsets.UTF_8);
+        session.request = null;
+        session.state = State.HANDLING;
+        return new Outcome(null, request);
+    }
+
+    @DoNotTouch
+    private Outcome onResponseAck(Session session, Packet packet) throws PacketException {
+        int length = Math.min(session.segmentSize, session.response.length() - session.offset);
+        packet.expectType(ACK);
+        packet.expectSequenceNumber(session.sequence += length + 2);
+        packet.validateChecksum();
+        session.offset += length;
+        return respond(session);
+    }
+
+    /**
+     * Sends the next DATA packet of the response or its {@code "<EOF>"}. Must hold the lock of the session.
+     */
+    @DoNotTouch
+    private Outcome respond(Session session) {
+        if (session.offset < session.response.length()) {
+            session.state = State.RESPONDING;
+            int length = Math.min(session.segmentSize, session.response.length() - session.offset);
+            return transmit(session, session.sequence + length + 2);
+        }
+        session.response = null;
+        session.state = State.AWAIT_EOF;
+        // any packet after the <EOF> confirms it
+        return transmit(session, session.sequence + 1);
+    }
+
+    /**
+     * Passes the response of the request handler to the session.
+     *
+     * @param session  the session
+     * @param response the response
+     */
+    @DoNotTouch
+    private void onResponse(Session session, String response) {
+        Outcome outcome;
+        synchronized (session) {
+            if (session.state != State.HANDLING || sessions.get(session.clientPort) != session) {
+                return;
+            }
+            session.response = response;
+            session.offset = 0;
+            outcome = respond(session);
+        }
+        apply(session, outcome);
+    }
+
+    /**
+     * Handles a retransmission timeout of a session. Stale timeouts are ignored.
+     *
+     * @param session           the session
+     * @param timeoutGeneration the generation the timeout was scheduled for
+     */
+    @DoNotTouch
+    private void onTimeout(Session session, int timeoutGeneration) {
+        Outcome outcome;
+        synchronized (session) {
+            if (timeoutGeneration != session.generation || sessions.get(session.clientPort) != session) {
+                return;
+            }
+            session.timer.onTimeout();
+            if (++session.tries >= session.timer.getMaxRetries()) {
+                if (session.state == State.AWAIT_EOF) {
+                    // the client most likely closed without the CLOSE packet reaching us
+                    end(session);
+                    return;
+                }
+                outcome = drop(session, null);
+            } else if (session.state == State.AWAIT_EOF) {
+                // as in TCPServer, the <EOF> is only sent again when the client asks for it
+                outcome = NOTHING;
+                schedule(session, ++session.generation);
+            } else {
+                session.resent = true;
+                session.timer.onRetransmit();
+                outcome = retransmit(session);
+            }
+        }
+        apply(session, outcome);
+    }
+
+    /**
+     * Starts waiting for the packet with the given sequence number after sending the packet of the current
+     * state. Must hold the lock of the session.
+     *
+     * @param session  the session
+     * @param expected the smallest sequence number advancing the state
+     * @return the packet of the current state
+     */
+    @DoNotTouch
+    private Outcome transmit(Session session, int expected) {
+        session.expected = expected;
+        session.tries = 0;
+        session.resent = false;
+        return retransmit(session);
+    }
+
+    /**
+     * Sends the packet of the current state (again) and restarts the timeout. Must hold the lock of the session.
+     */
+    @DoNotTouch
+    private Outcome retransmit(Session session) {
+        session.sentAt = clock.nanoTime();
+        schedule(session, ++session.generation);
+        return new Outcome(currentPacket(session), null);
+    }
+
+    /**
+     * Builds the packet the client waits for in the current state, so sessions need not keep it.
+     */
+    @DoNotTouch
+    private Packet currentPacket(Session session) {
+        int port = getPort();
+        int sequence = session.sequence + 1;
+        return switch (session.state) {
+            case SYN_RCVD -> new Packet(port, session.clientPort, sequence, SYN, null, session.offeredSegmentSize
+                ? TCPOptions.EMPTY.with(TCPOptions.MSS, session.segmentSize)
+                : TCPOptions.EMPTY);
+            case RECEIVING, REQUEST_DONE -> new Packet(port, session.clientPort, sequence, ACK, null);
+            case RESPONDING -> new Packet(port, session.clientPort, sequence, DATA, session.response.substring(
+                session.offset, Math.min(session.response.length(), session.offset + session.segmentSize)));
+            case AWAIT_EOF -> new Packet(port, session.clientPort, sequence, DATA, "<EOF>");
+            case HANDLING -> throw new IllegalStateException("no packet while handling");
+        };
+    }
+
+    @DoNotTouch
+    private void schedule(Session session, int timeoutGeneration) {
+        clock.schedule(() -> onTimeout(session, timeoutGeneration), session.timer.getRto(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Ends a session normally. Must hold the lock of the session.
+     */
+    @DoNotTouch
+    private void end(Session session) {
+        session.generation++;
+        sessions.removeIf(session.clientPort, s -> s == session);
+        Verbose.out.printf("event-server[%d]: session of port %d finished%n", getPort(), session.clientPort);
+    }
+
+    /**
+     * Ends a session because of an error, like a failing handler thread of the {@link TCPServer}.
+     * Must hold the lock of the session.
+     *
+     * @param session the session
+     * @param cause   the exception or error, or null if there were too many timeouts
+     * @return a CLOSE packet if the client should learn about it
+     */
+    @DoNotTouch
+    private Outcome drop(Session session, Throwable cause) {
+        end(session);
+        if (cause == null) {
+            System.out.printf("Session of port %d on event-server[%d] failed: unstable connection, too many timeouts!%n",
+                session.clientPort, getPort());
+            return NOTHING;
+        }
+        System.out.printf("Following %s was thrown for session of port %d on event-server[%d]: %s%n",
+            cause.getClass().getSimpleName(), session.clientPort, getPort(), cause.getMessage());
+        return new Outcome(new Packet(getPort(), session.clientPort, Integer.MAX_VALUE, CLOSE, null), null);
+    }
+
+    /**
+     * Applies an outcome of the session, or queues it if a thread already applies the outcomes of the session.
+     * The applying thread continues with the queued outcomes until none are left.
+     *
+     * @param session the session
+     * @param outcome the outcome
+     */
+    @DoNotTouch
+    private void apply(Session session, Outcome outcome) {
+        if (outcome == NOTHING) {
+            return;
+        }
+        synchronized (session) {
+            if (session.applying) {
+                if (session.outcomes == null) {
+                    session.outcomes = new ArrayDeque<>(2);
+                }
+                session.outcomes.add(outcome);
+                return;
+            }
+            session.applying = true;
+        }
+        try {
+            do {
+                perform(session, outcome);
+            } while ((outcome = nextOutcome(session)) != null);
+        } catch (RuntimeException | Error e) {
+            // the queued outcomes are still sent, otherwise their packets would only follow after a timeout
+            while ((outcome = nextOutcome(session)) != null) {
+                try {
+                    perform(session, outcome);
+                } catch (RuntimeException | Error suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Takes the next queued outcome of the session, or stops applying if there is none.
+     *
+     * @param session the session
+     * @return the next outcome or null
+     */
+    @DoNotTouch
+    private Outcome nextOutcome(Session session) {
+        synchronized (session) {
+            Outcome next = session.outcomes == null ? null : session.outcomes.poll();
+            if (next == null) {
+                session.applying = false;
+                session.outcomes = null;
+            }
+            return next;
+        }
+    }
+
+    /**
+     * Sends the packet of an outcome and runs the request handler for it, without holding the lock of the session.
+     *
+     * @param session the session
+     * @param outcome the outcome
+     */
+    @DoNotTouch
+    private void perform(Session session, Outcome outcome) {
+        if (outcome.packet() != null) {
+            try {
+                InternetPool.sendPacket(session.clientPort, outcome.packet());
+            } catch (InternetException e) {
+                Verbose.out.printf("event-server[%d]: could not send to port %d: %s%n", getPort(),
+                    session.clientPort, e.getMessage());
+            }
+        }
+        if (outcome.request() != null) {
+            handle(session, outcome.request());
+        }
+    }
+
+    /**
+     * Runs the request handler on the workers and continues the session with its response.
+     * If the handler fails, the session is dropped and the client is sent a CLOSE packet.
+     *
+     * @param session the session
+     * @param request the complete request
+     */
+    @DoNotTouch
+    private void handle(Session session, String request) {
+        long submitted = metrics.onSubmit();
+        Runnable task = () -> {
+            long started = metrics.onStart(submitted);
+            String response;
+            try {
+                response = requestHandler.handle(request);
+            } catch (Throwable e) {
+                // errors as well, a session in HANDLING has no timeout and would never end
+                metrics.onFinish(started, false);
+                Outcome outcome;
+                synchronized (session) {
+                    outcome = drop(session, e);
+                }
+                apply(session, outcome);
+                return;
+            }
+            metrics.onFinish(started, true);
+            onResponse(session, response);
+        };
+        if (workers == null) {
+            task.run();
+            return;
+        }
+        try {
+            workers.execute(task);
+        } catch (RejectedExecutionException e) {
+            metrics.onFinish(metrics.onStart(submitted), false);
+            Outcome outcome;
+            synchronized (session) {
+                outcome = drop(session, e);
+            }
+            apply(session, outcome);
+        }
+    }
+
+    /**
+     * Closes the server and all sessions, letting their clients know.
+     */
+    @Override
+    @DoNotTouch
+    public void close() {
+        sessions.forEach(session -> {
+            synchronized (session) {
+                end(session);
+            }
+            try {
+                InternetPool.sendPacket(session.clientPort,
+                    new Packet(getPort(), session.clientPort, Integer.MAX_VALUE, CLOSE, null));
+            } catch (InternetException ignored) {}
+        });
+        super.close();
+    }
+}
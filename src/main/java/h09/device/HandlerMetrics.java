@@ -0,0 +1,302 @@
+package h09.device;
+
+import h09.connection.CongestionControl;
+import h09.utils.LatencyStats;
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the {@link RequestHandler} of a {@link TCPServer}.
+ * Tracks how many requests wait for a worker, how long they waited and how long the handler took,
+ * as well as the connections rejected because the server was saturated, the packets dropped
+ * because the receive queue of a connection was full, the stale packets coalesced by connections
+ * and the congestion windows the connections finished with.
+ */
+@DoNotTouch
+public class HandlerMetrics {
+
+    /**
+     * Number of requests that were submitted but not yet started.
+     */
+    @DoNotTouch
+    private final AtomicLong queueDepth = new AtomicLong();
+
+    /**
+     * Largest queue depth observed since the last reset.
+     */
+    @DoNotTouch
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+
+    /**
+     * Time between submitting a request and a worker starting to handle it.
+     */
+    @DoNotTouch
+    private final LatencyStats queueLatency = new LatencyStats();
+
+    /**
+     * Time the handler took to compute a response.
+     */
+    @DoNotTouch
+    private final LatencyStats handlerLatency = new LatencyStats();
+
+    /**
+     * Number of requests whose handler threw an exception.
+     */
+    @DoNotTouch
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * Number of SYN packets and requests answered with a CLOSE packet because the server was saturated.
+     */
+    @DoNotTouch
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Number of packets dropped by the full receive queues of finished connections.
+     */
+    @DoNotTouch
+    private final LongAdder droppedPackets = new LongAdder();
+
+    /**
+     * Number of stale packets coalesced by finished connections.
+     */
+    @DoNotTouch
+    private final LongAdder coalescedPackets = new LongAdder();
+
+    /**
+     * Number of finished connections whose congestion window was recorded.
+     */
+    @DoNotTouch
+    private final LongAdder congestionSamples = new LongAdder();
+
+    /**
+     * Sum of the final congestion windows of finished connections, in packets.
+     */
+    @DoNotTouch
+    private final DoubleAdder congestionWindows = new DoubleAdder();
+
+    /**
+     * Number of losses and timeouts that shrank the congestion windows of finished connections.
+     */
+    @DoNotTouch
+    private final LongAdder congestionEvents = new LongAdder();
+
+    /**
+     * Records that a request was submitted to the workers.
+     *
+     * @return the submission timestamp to pass to {@link #onStart(long)}
+     */
+    @DoNotTouch
+    long onSubmit() {
+        maxQueueDepth.accumulateAndGet(queueDepth.incrementAndGet(), Math::max);
+        return System.nanoTime();
+    }
+
+    /**
+     * Records that a worker started to handle a request.
+     *
+     * @param submitted the timestamp returned by {@link #onSubmit()}
+     * @return the start timestamp to pass to {@link #onFinish(long, boolean)}
+     */
+    @DoNotTouch
+    long onStart(long submitted) {
+        queueDepth.decrementAndGet();
+        long now = System.nanoTime();
+        queueLatency.record(now - submitted);
+        return now;
+    }
+
+    /**
+     * Records that the handler finished a request.
+     *
+     * @param started   the timestamp returned by {@link #onStart(long)}
+     * @param succeeded whether the handler returned a response
+     */
+    @DoNotTouch
+    void onFinish(long started, boolean succeeded) {
+        handlerLatency.record(System.nanoTime() - started);
+        if (!succeeded) {
+            failed.increment();
+        }
+    }
+
+    /**
+     * Records that a connection or a request was rejected.
+     */
+    @DoNotTouch
+    void onReject() {
+        rejected.increment();
+    }
+
+    /**
+     * Records the packets a finished connection dropped because its receive queue was full
+     * and the stale packets it coalesced.
+     *
+     * @param dropped   the number of dropped packets
+     * @param coalesced the number of coalesced packets
+     */
+    @DoNotTouch
+    void onDropped(long dropped, long coalesced) {
+        if (dropped > 0) {
+            droppedPackets.add(dropped);
+        }
+        if (coalesced > 0) {
+            coalescedPackets.add(coalesced);
+        }
+    }
+
+    /**
+     * Records the congestion window a finished connection ended with.
+     *
+     * @param congestionControl the congestion control of the connection
+     */
+    @DoNotTouch
+    void onCongestion(CongestionControl congestionControl) {
+        congestionSamples.increment();
+        congestionWindows.add(congestionControl.getCwnd());
+        congestionEvents.add(congestionControl.getLosses() + congestionControl.getTimeouts());
+    }
+
+    /**
+     * Returns the number of requests that are currently waiting for a worker.
+     *
+     * @return the current queue depth
+     */
+    @DoNotTouch
+    public long getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Returns the largest queue depth observed since the last reset.
+     *
+     * @return the maximum queue depth
+     */
+    @DoNotTouch
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * Returns the time requests spent waiting for a worker.
+     *
+     * @return the queue latency statistics
+     */
+    @DoNotTouch
+    public LatencyStats getQueueLatency() {
+        return queueLatency;
+    }
+
+    /**
+     * Returns the time the handler took per request.
+     *
+     * @return the handler latency statistics
+     */
+    @DoNotTouch
+    public LatencyStats getHandlerLatency() {
+        return handlerLatency;
+    }
+
+    /**
+     * Returns the number of requests whose handler threw an exception.
+     *
+     * @return the number of failed requests
+     */
+    @DoNotTouch
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Returns the number of connections and requests rejected because the server was saturated,
+     * i.e. too many connections were open or too many requests waited for a worker.
+     *
+     * @return the number of rejections
+     */
+    @DoNotTouch
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Returns the number of packets dropped because the receive queue of a connection was full.
+     * The packets of a connection are counted once its handler finished.
+     *
+     * @return the number of dropped packets
+     */
+    @DoNotTouch
+    public long getDroppedPackets() {
+        return droppedPackets.sum();
+    }
+
+    /**
+     * Returns the number of stale packets dropped by connections because another stale packet was waiting,
+     * see {@link h09.connection.Connection#expectSequenceNumber(int)}.
+     * The packets of a connection are counted once its handler finished.
+     *
+     * @return the number of coalesced packets
+     */
+    @DoNotTouch
+    public long getCoalescedPackets() {
+        return coalescedPackets.sum();
+    }
+
+    /**
+     * Returns the average congestion window finished connections ended with.
+     *
+     * @return the average congestion window in packets or 0 if no connection finished
+     */
+    @DoNotTouch
+    public double getAverageCongestionWindow() {
+        long samples = congestionSamples.sum();
+        return samples == 0 ? 0 : congestionWindows.sum() / samples;
+    }
+
+    /**
+     * Returns the number of losses and timeouts that shrank the congestion windows of finished connections.
+     *
+     * @return the number of congestion events
+     */
+    @DoNotTouch
+    public long getCongestionEvents() {
+        return congestionEvents.sum();
+    }
+
+    /**
+     * Resets the latency statistics, the counters and the maximum queue depth.
+     * The current queue depth is left untouched.
+     */
+    @DoNotTouch
+    public void reset() {
+        maxQueueDepth.set(queueDepth.get());
+        queueLatency.reset();
+        handlerLatency.reset();
+        failed.reset();
+        rejected.reset();
+        droppedPackets.reset();
+        coalescedPackets.reset();
+        congestionSamples.reset();
+        congestionWindows.reset();
+        congestionEvents.reset();
+    }
+
+    @Override
+    @DoNotTouch
+    public String toString() {
+        return "HandlerMetrics{" +
+            "queueDepth=" + getQueueDepth() +
+            ", maxQueueDepth=" + getMaxQueueDepth() +
+            ", queueLatency=" + queueLatency +
+            ", handlerLatency=" + handlerLatency +
+            ", failed=" + getFailed() +
+            ", rejected=" + getRejected() +
+            ", droppedPackets=" + getDroppedPackets() +
+            ", coalescedPackets=" + getCoalescedPackets() +
+            ", averageCongestionWindow=" + getAverageCongestionWindow() +
+            ", congestionEvents=" + getCongestionEvents() +
+            '}';
+    }
+}
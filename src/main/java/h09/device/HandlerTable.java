@@ -0,0 +1,131 @@
+package h09.device;
+
+import h09.connection.InternetPool;
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Concurrent table mapping client ports to the handlers of a server.
+ * Like the port table of the {@link InternetPool}, ports index directly into an array, so lookups
+ * need neither boxing nor hashing, and every update is a single atomic operation on one slot.
+ * It is safe to use from the delivery threads calling {@link Server#accept} and from the handler threads
+ * at the same time.
+ *
+ * @param <H> the type of the handlers
+ */
+@DoNotTouch
+class HandlerTable<H> {
+
+    /**
+     * The handler of every client port or null if the port has none.
+     */
+    @DoNotTouch
+    private final AtomicReferenceArray<H> handlers = new AtomicReferenceArray<>(InternetPool.MAX_PORT);
+
+    /**
+     * The number of handlers in this table.
+     */
+    @DoNotTouch
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Returns the handler of the given client port.
+     *
+     * @param port the client port
+     * @return the handler or null if the port has none
+     */
+    @DoNotTouch
+    H get(int port) {
+        return handlers.get(port);
+    }
+
+    /**
+     * Adds a handler for the given client port unless the port already has one.
+     * The handler must not have been started yet, as it is discarded if another one wins.
+     *
+     * @param port    the client port
+     * @param handler the new handler
+     * @return null if the handler was added, otherwise the handler the port already has
+     */
+    @DoNotTouch
+    H putIfAbsent(int port, H handler) {
+        while (true) {
+            if (handlers.compareAndSet(port, null, handler)) {
+                size.incrementAndGet();
+                return null;
+            }
+            H existing = handlers.get(port);
+            if (existing != null) {
+                return existing;
+            }
+            // the existing handler was removed in between, try again
+        }
+    }
+
+    /**
+     * Removes the handler of the given client port.
+     *
+     * @param port the client port
+     * @return the removed handler or null if the port had none
+     */
+    @DoNotTouch
+    H remove(int port) {
+        H previous = handlers.getAndSet(port, null);
+        if (previous != null) {
+            size.decrementAndGet();
+        }
+        return previous;
+    }
+
+    /**
+     * Removes the handler of the given client port if it matches the given condition.
+     * A finished handler uses this so that it never removes a newer handler of a reused port.
+     *
+     * @param port      the client port
+     * @param condition the condition the handler of the port must match
+     * @return true if a handler was removed
+     */
+    @DoNotTouch
+    boolean removeIf(int port, Predicate<? super H> condition) {
+        while (true) {
+            H handler = handlers.get(port);
+            if (handler == null || !condition.test(handler)) {
+                return false;
+            }
+            if (handlers.compareAndSet(port, handler, null)) {
+                size.decrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Passes every handler in this table to the given action. Handlers added or removed
+     * concurrently may or may not be visited.
+     *
+     * @param action the action to perform
+     */
+    @DoNotTouch
+    void forEach(Consumer<? super H> action) {
+        for (int port = 0; port < handlers.length() && size.get() > 0; port++) {
+            H handler = handlers.get(port);
+            if (handler != null) {
+                action.accept(handler);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of handlers in this table.
+     *
+     * @return the number of handlers
+     */
+    @DoNotTouch
+    int size() {
+        return size.get();
+    }
+}
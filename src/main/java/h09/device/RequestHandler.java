@@ -0,0 +1,25 @@
+package h09.device;
+
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+/**
+ * Functional interface for the application logic of a {@link TCPServer}.
+ * The server receives a complete request, passes it to the handler on one of its worker threads
+ * and sends the returned response back to the client.
+ * Handlers may be called concurrently for different connections.
+ */
+@FunctionalInterface
+@DoNotTouch
+public interface RequestHandler {
+
+    /**
+     * Computes the response to a request.
+     *
+     * @param request the complete request of the client
+     * @return the response to send back, may be empty
+     * @throws RuntimeException if the request cannot be handled, the server then closes the connection
+     */
+    @DoNotTouch
+    String handle(String request);
+
+}
@@ -47,7 +47,7 @@ public abstract class Server implements PacketConsumer {
      */
     @DoNotTouch
     public void close() {
-        InternetPool.unregisterDevice(port);
+        InternetPool.unregisterDevice(port, this);
     }
 
 }
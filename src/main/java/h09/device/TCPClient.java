@@ -1,18 +1,25 @@
 package h09.device;
 
 import h09.connection.Connection;
+import h09.connection.InternetPool;
 import h09.exceptions.InternetException;
 import h09.exceptions.packet.PacketException;
 import h09.packet.PacketType;
+import h09.packet.TCPOptions;
+import h09.utils.ReassemblyBuffer;
 import h09.utils.TCPUtils;
 import h09.packet.Packet;
+import h09.utils.ThrowingPacketWaiter;
 import org.tudalgo.algoutils.student.annotation.DoNotTouch;
 import org.tudalgo.algoutils.student.annotation.SolutionOnly;
 import org.tudalgo.algoutils.student.annotation.StudentImplementationRequired;
 
 import static h09.packet.PacketType.*;
 
-import java.util.concurrent.ThreadLocalRandom;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A TCP client implementation that extends the abstract {@link Client} class.
@@ -27,9 +34,155 @@ public class TCPClient extends Client {
      */
     private int sequence;
 
+    /**
+     * The window size requested from the server during {@link #connect()}.
+     */
+    @DoNotTouch
+    private final int requestedWindow;
+
+    /**
+     * The window size agreed on with the server. 1 means stop-and-wait.
+     */
+    @DoNotTouch
+    private int window = 1;
+
+    /**
+     * The segment size requested from the server during {@link #connect()}.
+     */
+    @DoNotTouch
+    private final int requestedSegmentSize;
+
+    /**
+     * The segment size agreed on with the server, i.e. the maximum payload length of a DATA packet.
+     */
+    @DoNotTouch
+    private int segmentSize = Packet.DEFAULT_SEGMENT_SIZE;
+
+    /**
+     * Whether the client asks the server to keep the connection open for further requests.
+     */
+    @DoNotTouch
+    private final boolean requestedKeepAlive;
+
+    /**
+     * The number of milliseconds the server keeps the idle connection open, 0 if it closes the
+     * connection after the first response.
+     */
+    @DoNotTouch
+    private long keepAliveTimeout;
+
+    /**
+     * Whether the server agreed to selective acknowledgements, i.e. the client holds early DATA packets
+     * of a windowed response and reports them in its ACK packets.
+     */
+    @DoNotTouch
+    private boolean selectiveAck;
+
     public TCPClient(int serverPort) throws InternetException {
+        this(serverPort, 1);
+    }
+
+    /**
+     * Constructs a TCP client that offers the server a windowed transfer, i.e. keeping
+     * up to {@code window} DATA packets unacknowledged at once. If the server does not
+     * support windows, the client falls back to stop-and-wait.
+     *
+     * @param serverPort The port number of the server to connect to
+     * @param window     The maximum number of unacknowledged DATA packets, 1 for stop-and-wait
+     * @throws InternetException If there is no free port to register the client to
+     */
+    @DoNotTouch
+    public TCPClient(int serverPort, int window) throws InternetException {
+        this(serverPort, window, Packet.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructs a TCP client that offers the server a windowed transfer and a maximum
+     * segment size, i.e. the number of characters or bytes a DATA packet may carry.
+     * The server may agree to smaller values; a server not supporting segment sizes
+     * keeps the default of {@value Packet#DEFAULT_SEGMENT_SIZE}.
+     *
+     * @param serverPort  The port number of the server to connect to
+     * @param window      The maximum number of unacknowledged DATA packets, 1 for stop-and-wait
+     * @param segmentSize The maximum payload length of a DATA packet
+     * @throws InternetException If there is no free port to register the client to
+     */
+    @DoNotTouch
+    public TCPClient(int serverPort, int window, int segmentSize) throws InternetException {
+        this(serverPort, window, segmentSize, false);
+    }
+
+    /**
+     * Constructs a TCP client that may additionally ask the server to keep the connection open,
+     * so that several request/response exchanges can use the same connection. After
+     * {@link #receive()} returned, the next request can be sent with {@link #send(String)}
+     * without connecting again. Whether the server agreed is reported by {@link #isKeepAlive()}.
+     *
+     * @param serverPort  The port number of the server to connect to
+     * @param window      The maximum number of unacknowledged DATA packets, 1 for stop-and-wait
+     * @param segmentSize The maximum payload length of a DATA packet
+     * @param keepAlive   Whether to ask the server to keep the connection open
+     * @throws InternetException If there is no free port to register the client to
+     */
+    @DoNotTouch
+    public TCPClient(int serverPort, int window, int segmentSize, boolean keepAlive) throws InternetException {
         super(serverPort);
-        sequence = ThreadLocalRandom.current().nextInt(1, 1000);
+        assert window > 0;
+        assert 0 < segmentSize && segmentSize <= Packet.MAX_SEGMENT_SIZE;
+        this.requestedWindow = window;
+        this.requestedSegmentSize = segmentSize;
+        this.requestedKeepAlive = keepAlive;
+        sequence = InternetPool.getClock().random().nextInt(1, 1000);
+    }
+
+    /**
+     * Returns the window size agreed on with the server.
+     *
+     * @return the window size, 1 if the client uses stop-and-wait
+     */
+    @DoNotTouch
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Checks whether the server agreed to selective acknowledgements, see {@link TCPOptions#SACK}.
+     *
+     * @return true if selective acknowledgements are used in both directions
+     */
+    @DoNotTouch
+    public boolean isSelectiveAck() {
+        return selectiveAck;
+    }
+
+    /**
+     * Returns the segment size agreed on with the server.
+     *
+     * @return the maximum payload length of a DATA packet
+     */
+    @DoNotTouch
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Checks whether the server agreed to keep the connection open for further requests.
+     *
+     * @return true if the connection may be reused after a response was received
+     */
+    @DoNotTouch
+    public boolean isKeepAlive() {
+        return keepAliveTimeout > 0;
+    }
+
+    /**
+     * Returns the number of milliseconds the server keeps an idle connection open.
+     *
+     * @return the keep-alive timeout of the server, 0 if the connection is not kept alive
+     */
+    @DoNotTouch
+    public long getKeepAliveTimeout() {
+        return keepAliveTimeout;
     }
 
     /**
@@ -45,20 +198,41 @@ public class TCPClient extends Client {
     public void connect() throws InternetException, PacketException {
         Connection conn = getConn();
         int sendSequence = sequence;
+        // the server never has more packets in flight than the receive queue holds
+        int offeredWindow = Math.min(requestedWindow, conn.getReceiveCapacity());
+
+        TCPOptions synOptions = TCPOptions.EMPTY;
+        if (offeredWindow > 1) {
+            synOptions = synOptions.with(TCPOptions.WINDOW, offeredWindow);
+            synOptions = synOptions.with(TCPOptions.SACK_PERMITTED, 1);
+        }
+        if (requestedSegmentSize != Packet.DEFAULT_SEGMENT_SIZE) {
+            synOptions = synOptions.with(TCPOptions.MSS, requestedSegmentSize);
+        }
+        if (requestedKeepAlive) {
+            synOptions = synOptions.with(TCPOptions.KEEP_ALIVE, 1);
+        }
+        TCPOptions finalSynOptions = synOptions;
 
         // 1 Send SYN and wait receive SYN and sequence ++
-        Packet received = TCPUtils.try3Times(() ->{
-            conn.sendPacket(sendSequence,SYN,null);
-            return conn.waitForPacketTimeout(5000);
+        Packet received = TCPUtils.try3Times(conn, () ->{
+            conn.sendPacket(sendSequence,SYN,null,finalSynOptions);
+            return conn.waitForPacketTimeout();
         },sendSequence +1);
 
-        //2 Validate the received packet from the server
+        //2 Validate the received packet from the server, a saturated server rejects the connection with CLOSE
+        TCPUtils.expectNotClosed(received);
         received.expectType(SYN);
         received.expectSequenceNumber(sendSequence + 1);
         received.validateChecksum();
 
         //3
         sequence = sendSequence+2;
+        window = Math.max(1, Math.min(offeredWindow, received.getOptions().getInt(TCPOptions.WINDOW, 1)));
+        segmentSize = Math.max(1, Math.min(requestedSegmentSize,
+            received.getOptions().getInt(TCPOptions.MSS, Packet.DEFAULT_SEGMENT_SIZE)));
+        selectiveAck = window > 1 && received.getOptions().has(TCPOptions.SACK_PERMITTED);
+        keepAliveTimeout = requestedKeepAlive ? Math.max(0, received.getOptions().getInt(TCPOptions.KEEP_ALIVE, 0)) : 0;
     }
 
     /**
@@ -68,6 +242,9 @@ public class TCPClient extends Client {
      * <p>
      * After all data is sent, a DATA packet with content {@code "<EOF>"} is sent
      * to signal the end of the client's data. The response ACK is also validated.
+     * <p>
+     * If a window was agreed on in {@link #connect()}, the DATA packets are pipelined
+     * with {@link TCPUtils#sendWindowed} instead of waiting for every acknowledgement.
      *
      * @param data The data to send
      * @throws InternetException        If there is an error with the network connection
@@ -81,28 +258,62 @@ public class TCPClient extends Client {
         if (data == null) {
             throw new IllegalArgumentException("data must not be null");
         }
-        //divide chunk
-        String remaining = data;
-        while (!remaining.isEmpty()) {
-            int chunkSize = Math.min(8, remaining.length());
-            String chunk = remaining.substring(0, chunkSize);
-            remaining = remaining.substring(chunkSize);
+        if (window > 1) {
+            List<String> chunks = TCPUtils.split(data, segmentSize);
+            chunks.add("<EOF>");
+            sequence = TCPUtils.sendWindowed(getConn(), sequence, chunks, window) + 1;
+            return;
+        }
+        //divide chunk, only the chunk itself is copied out of the data
+        for (int start = 0; start < data.length(); start += segmentSize) {
+            String chunk = data.substring(start, Math.min(data.length(), start + segmentSize));
             //send
             sendDataChunk(chunk);
         }
         sendDataChunk("<EOF>");
     }
+
+    /**
+     * Sends raw bytes of variable, unbounded length to the remote server.
+     * The bytes are split into binary DATA packets of at most the agreed segment size
+     * without copying them, followed by the usual {@code "<EOF>"} packet.
+     * The packets are sent with {@link TCPUtils#sendWindowed} using the agreed window.
+     *
+     * @param data The bytes to send, must not be changed until this method returns
+     * @throws InternetException        If there is an error with the network connection
+     * @throws PacketException          If there is an error with packet handling
+     * @throws IllegalArgumentException if data is null
+     */
+    @DoNotTouch
+    public void send(byte[] data) throws InternetException, PacketException {
+        if (data == null) {
+            throw new IllegalArgumentException("data must not be null");
+        }
+        Connection conn = getConn();
+        List<ByteBuffer> chunks = TCPUtils.split(data, segmentSize);
+        int count = chunks.size();
+        sequence = TCPUtils.sendWindowed(conn, sequence, count + 1,
+            i -> i < count ? chunks.get(i).remaining() : "<EOF>".length(),
+            (seq, i) -> {
+                if (i < count) {
+                    conn.sendPacket(seq, chunks.get(i));
+                } else {
+                    conn.sendPacket(seq, DATA, "<EOF>");
+                }
+            }, window) + 1;
+    }
     //send data chunk
     private void sendDataChunk(String chunk) throws InternetException, PacketException{
         int currentSequence = sequence;
         int expectedACKSequence = sequence+1+chunk.length();
 
-        Packet ACK = TCPUtils.try3Times(() ->{
+        Packet ACK = TCPUtils.try3Times(getConn(), () ->{
             getConn().sendPacket(currentSequence,DATA,chunk);
-            return getConn().waitForPacketTimeout(5000);
+            return getConn().waitForPacketTimeout();
         },expectedACKSequence);
 
         //check
+        TCPUtils.expectNotClosed(ACK);
         ACK.expectType(PacketType.ACK);
         ACK.expectSequenceNumber(expectedACKSequence);
         ACK.validateChecksum();
@@ -118,6 +329,8 @@ public class TCPClient extends Client {
      * with an acknowledgement. Repeats receiving and acknowledging data
      * until the server sends a DATA packet with {@code "<EOF>"}.
      * The EOF packet does not need to be acknowledged.
+     * <p>
+     * If the server sent raw bytes, the message is decoded as UTF-8.
      *
      * @return the complete message from the server
      * @throws InternetException If there is an error with the network connection
@@ -126,37 +339,106 @@ public class TCPClient extends Client {
     @Override
     @StudentImplementationRequired("H9.4.3")
     public String receive() throws InternetException, PacketException {
+        List<Packet> packets = receivePackets();
+        if (packets.stream().anyMatch(Packet::isBinary)) {
+            return new String(concatBytes(packets), StandardCharsets.UTF_8);
+        }
+        int length = 0;
+        for (Packet packet : packets) {
+            length += packet.getPayloadLength();
+        }
+        StringBuilder stringBuilder = new StringBuilder(length);
+        for (Packet packet : packets) {
+            stringBuilder.append(packet.getData());
+        }
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Retrieves the message from the remote server as bytes, like {@link #receive()}.
+     * Text sent by the server is encoded as UTF-8.
+     *
+     * @return the complete message from the server
+     * @throws InternetException If there is an error with the network connection
+     * @throws PacketException   If there is an error with packet handling
+     */
+    @DoNotTouch
+    public byte[] receiveBytes() throws InternetException, PacketException {
+        return concatBytes(receivePackets());
+    }
+
+    /**
+     * Receives and acknowledges the DATA packets of a message as described in {@link #receive()}.
+     *
+     * @return the DATA packets of the message in order, without the EOF packet
+     * @throws InternetException If there is an error with the network connection
+     * @throws PacketException   If there is an error with packet handling
+     */
+    private List<Packet> receivePackets() throws InternetException, PacketException {
         Connection conn = getConn();
-        StringBuilder stringBuilder = new StringBuilder();
+        List<Packet> packets = new ArrayList<>();
         int ackSequence = sequence;
+        // early packets of a windowed response are only kept if the server learns about them
+        ReassemblyBuffer reassembly = selectiveAck ? new ReassemblyBuffer() : null;
 
         while (true){
             int currentACKSequence = ackSequence;
             int expectedACKSequence = currentACKSequence+1;
-            Packet received = TCPUtils.try3Times(()->{
-                conn.sendPacket(currentACKSequence,ACK,null);
-                return getConn().waitForPacketTimeout(5000);
-            },expectedACKSequence);
+            ThrowingPacketWaiter ackAndWait = ()->{
+                conn.sendPacket(currentACKSequence,ACK,null,conn.withReceiveWindow(reassembly != null ? reassembly.withSack(null) : null));
+                return getConn().waitForPacketTimeout();
+            };
+            Packet received;
+            if (reassembly != null) {
+                received = TCPUtils.tryInOrder(conn,reassembly,ackAndWait,expectedACKSequence);
+            } else if (window > 1) {
+                received = TCPUtils.tryInOrder(conn,ackAndWait,expectedACKSequence);
+            } else {
+                received = TCPUtils.try3Times(conn,ackAndWait,expectedACKSequence);
+            }
 
             sequence=currentACKSequence+1;
 
+            TCPUtils.expectNotClosed(received);
             received.expectType(DATA);
             received.expectSequenceNumber(expectedACKSequence);
             received.validateChecksum();
 
-            String chunk = received.getData();
-            this.sequence = expectedACKSequence+1+chunk.length();
-            if(chunk.equals("<EOF>")){
-                sequence=expectedACKSequence+1+chunk.length();
+            int length = received.getPayloadLength();
+            this.sequence = expectedACKSequence+1+length;
+            if(!received.isBinary() && received.getData().equals("<EOF>")){
                 break;
             }else {
-                stringBuilder.append(chunk);
-                ackSequence=expectedACKSequence+1+chunk.length();
+                packets.add(received);
+                ackSequence=expectedACKSequence+1+length;
             }
         }
-        return stringBuilder.toString();
-
+        return packets;
+    }
 
+    /**
+     * Concatenates the data of the given packets.
+     *
+     * @param packets the packets to concatenate
+     * @return the data of all packets as bytes
+     * @throws PacketException If a packet has no data
+     */
+    private static byte[] concatBytes(List<Packet> packets) throws PacketException {
+        ByteBuffer[] chunks = new ByteBuffer[packets.size()];
+        int length = 0;
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = packets.get(i).getBytes();
+            length += chunks[i].remaining();
+        }
+        // copied straight into the result instead of through an intermediate array per packet
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (ByteBuffer chunk : chunks) {
+            int size = chunk.remaining();
+            chunk.get(result, offset, size);
+            offset += size;
+        }
+        return result;
     }
 
     /**
@@ -3,17 +3,31 @@ package h09.device;
 import h09.exceptions.TimeoutException;
 import h09.exceptions.packet.PacketException;
 import h09.packet.PacketType;
+import h09.packet.TCPOptions;
+import h09.utils.ReassemblyBuffer;
 import h09.utils.TCPUtils;
+import h09.connection.Clock;
 import h09.connection.Connection;
+import h09.connection.InternetPool;
+import h09.connection.VirtualClock;
 import h09.exceptions.InternetException;
 import h09.packet.Packet;
+import h09.utils.ThrowingPacketWaiter;
 import h09.utils.Verbose;
 import org.tudalgo.algoutils.student.annotation.DoNotTouch;
 
 import static h09.packet.PacketType.*;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 
 /**
@@ -24,9 +38,97 @@ import java.util.concurrent.ThreadFactory;
 @DoNotTouch
 public class TCPServer extends Server {
 
-    private final Map<Integer, TCPHandler> sourcePortQueues;
+    /**
+     * The largest window a client may negotiate by default.
+     */
+    @DoNotTouch
+    public static final int DEFAULT_MAX_WINDOW = 32;
+
+    /**
+     * The largest segment size a client may negotiate by default.
+     */
+    @DoNotTouch
+    public static final int DEFAULT_MAX_SEGMENT_SIZE = 1024;
+
+    /**
+     * The number of milliseconds an idle keep-alive connection is kept open by default.
+     */
+    @DoNotTouch
+    public static final long DEFAULT_KEEP_ALIVE_TIMEOUT = 30_000;
+
+    /**
+     * The number of connections a server handles at once by default.
+     */
+    @DoNotTouch
+    public static final int DEFAULT_MAX_CONNECTIONS = 16_384;
+
+    /**
+     * The number of requests that may wait for a worker by default.
+     */
+    @DoNotTouch
+    public static final int DEFAULT_MAX_QUEUED_REQUESTS = 1024;
+
+    /**
+     * The handlers of the open client connections by client port.
+     */
+    @DoNotTouch
+    private final HandlerTable<TCPHandler> handlers = new HandlerTable<>();
+
     private final ThreadFactory threadFactory;
 
+    /**
+     * The clock the handlers run on.
+     */
+    @DoNotTouch
+    private final Clock clock;
+
+    /**
+     * The largest window this server agrees to when a client asks for a windowed transfer.
+     */
+    @DoNotTouch
+    private final int maxWindow;
+
+    /**
+     * The largest segment size this server agrees to when a client asks for one.
+     */
+    @DoNotTouch
+    private final int maxSegmentSize;
+
+    /**
+     * The number of milliseconds an idle keep-alive connection is kept open, 0 to not support keep-alive.
+     */
+    @DoNotTouch
+    private final long keepAliveTimeout;
+
+    /**
+     * Computes the responses to the requests of the clients.
+     */
+    @DoNotTouch
+    private final RequestHandler requestHandler;
+
+    /**
+     * Runs the request handler, separate from the threads running the protocol.
+     * Null if requests are handled on the protocol threads, as in a {@link VirtualClock} simulation.
+     */
+    @DoNotTouch
+    private final Executor workers;
+
+    /**
+     * Permits for open connections. A SYN packet without a free permit is rejected.
+     */
+    @DoNotTouch
+    private final Semaphore admissions;
+
+    /**
+     * Permits for requests waiting for a worker, taken when a request is submitted and returned when
+     * a worker starts it. A request without a free permit is rejected, as is a SYN packet while none is free.
+     */
+    @DoNotTouch
+    private final Semaphore queueSlots;
+
+    @DoNotTouch
+    private final HandlerMetrics metrics = new HandlerMetrics();
+
     /**
      * Constructs a TCP server that listens on the specified port.
      *
@@ -35,9 +137,150 @@ public class TCPServer extends Server {
      */
     @DoNotTouch
     public TCPServer(int port) throws InternetException {
+        this(port, DEFAULT_MAX_WINDOW);
+    }
+
+    /**
+     * Constructs a TCP server that listens on the specified port and limits
+     * windowed transfers to the given window size.
+     *
+     * @param port      The port number to listen on
+     * @param maxWindow The largest window to agree to, 1 to only support stop-and-wait
+     * @throws InternetException If there is an error registering the device
+     */
+    @DoNotTouch
+    public TCPServer(int port, int maxWindow) throws InternetException {
+        this(port, maxWindow, DEFAULT_MAX_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructs a TCP server that listens on the specified port and limits
+     * windowed transfers to the given window size and DATA packets to the given segment size.
+     *
+     * @param port           The port number to listen on
+     * @param maxWindow      The largest window to agree to, 1 to only support stop-and-wait
+     * @param maxSegmentSize The largest segment size to agree to
+     * @throws InternetException If there is an error registering the device
+     */
+    @DoNotTouch
+    public TCPServer(int port, int maxWindow, int maxSegmentSize) throws InternetException {
+        this(port, maxWindow, maxSegmentSize, DEFAULT_KEEP_ALIVE_TIMEOUT);
+    }
+
+    /**
+     * Constructs a TCP server that listens on the specified port, limits windowed transfers and
+     * segment sizes and keeps connections of clients asking for keep-alive open for the given time.
+     *
+     * @param port             The port number to listen on
+     * @param maxWindow        The largest window to agree to, 1 to only support stop-and-wait
+     * @param maxSegmentSize   The largest segment size to agree to
+     * @param keepAliveTimeout The number of milliseconds to keep an idle connection open,
+     *                         0 to close every connection after its first response
+     * @throws InternetException If there is an error registering the device
+     */
+    @DoNotTouch
+    public TCPServer(int port, int maxWindow, int maxSegmentSize, long keepAliveTimeout) throws InternetException {
+        this(port, maxWindow, maxSegmentSize, keepAliveTimeout, TCPServer::getResponse, ForkJoinPool.commonPool(),
+            DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Constructs a TCP server that listens on the specified port and answers requests with the given handler,
+     * run on the {@link ForkJoinPool#commonPool() common pool}.
+     *
+     * @param port           The port number to listen on
+     * @param requestHandler The handler computing the responses
+     * @throws InternetException If there is an error registering the device
+     */
+    @DoNotTouch
+    public TCPServer(int port, RequestHandler requestHandler) throws InternetException {
+        this(port, DEFAULT_MAX_WINDOW, DEFAULT_MAX_SEGMENT_SIZE, DEFAULT_KEEP_ALIVE_TIMEOUT, requestHandler,
+            ForkJoinPool.commonPool(), DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Constructs a TCP server that listens on the specified port and answers requests with the given handler,
+     * letting at most {@link #DEFAULT_MAX_QUEUED_REQUESTS} requests wait for the executor.
+     *
+     * @param port             The port number to listen on
+     * @param maxWindow        The largest window to agree to, 1 to only support stop-and-wait
+     * @param maxSegmentSize   The largest segment size to agree to
+     * @param keepAliveTimeout The number of milliseconds to keep an idle connection open,
+     *                         0 to close every connection after its first response
+     * @param requestHandler   The handler computing the responses
+     * @param workers          The executor running the handler
+     * @param maxConnections   The largest number of connections to handle at once
+     * @throws InternetException If there is an error registering the device
+     * @see #TCPServer(int, int, int, long, RequestHandler, Executor, int, int)
+     */
+    @DoNotTouch
+    public TCPServer(int port, int maxWindow, int maxSegmentSize, long keepAliveTimeout,
+                     RequestHandler requestHandler, Executor workers, int maxConnections) throws InternetException {
+        this(port, maxWindow, maxSegmentSize, keepAliveTimeout, requestHandler, workers, maxConnections,
+            DEFAULT_MAX_QUEUED_REQUESTS);
+    }
+
+    /**
+     * Constructs a TCP server that listens on the specified port and answers requests with the given handler.
+     * <p>
+     * The handler runs on the given executor, so CPU-heavy handlers do not occupy the threads running the protocol
+     * and their parallelism is limited by the executor. At most {@code maxQueuedRequests} requests wait for the
+     * executor: a complete request arriving while the queue is full is answered with a CLOSE packet instead of
+     * a response, and so is a SYN packet, so new clients fail fast while the workers are behind. Independently,
+     * at most {@code maxConnections} connections are handled at once. Rejected clients see a
+     * {@link h09.exceptions.ConnectionClosedException}. On a {@link VirtualClock} the handler runs
+     * on the protocol thread, as a simulation cannot wait for threads outside of it.
+     *
+     * @param port              The port number to listen on
+     * @param maxWindow         The largest window to agree to, 1 to only support stop-and-wait
+     * @param maxSegmentSize    The largest segment size to agree to
+     * @param keepAliveTimeout  The number of milliseconds to keep an idle connection open,
+     *                          0 to close every connection after its first response
+     * @param requestHandler    The handler computing the responses
+     * @param workers           The executor running the handler
+     * @param maxConnections    The largest number of connections to handle at once
+     * @param maxQueuedRequests The largest number of requests waiting for the executor
+     * @throws InternetException If there is an error registering the device
+     */
+    @DoNotTouch
+    public TCPServer(int port, int maxWindow, int maxSegmentSize, long keepAliveTimeout,
+                     RequestHandler requestHandler, Executor workers, int maxConnections,
+                     int maxQueuedRequests) throws InternetException {
         super(port);
-        this.sourcePortQueues = new HashMap<>();
-        this.threadFactory = Thread.ofVirtual().name("tcp-server[" + getPort() + "]-", 0).factory();
+        assert maxConnections > 0;
+        assert maxQueuedRequests > 0;
+        assert maxWindow > 0;
+        assert 0 < maxSegmentSize && maxSegmentSize <= Packet.MAX_SEGMENT_SIZE;
+        assert 0 <= keepAliveTimeout && keepAliveTimeout <= Integer.MAX_VALUE;
+        this.maxWindow = maxWindow;
+        this.maxSegmentSize = maxSegmentSize;
+        this.keepAliveTimeout = keepAliveTimeout;
+        this.requestHandler = requestHandler;
+        this.admissions = new Semaphore(maxConnections);
+        this.queueSlots = new Semaphore(maxQueuedRequests);
+        this.clock = InternetPool.getClock();
+        this.threadFactory = clock.newThreadFactory("tcp-server[" + getPort() + "]-");
+        this.workers = clock instanceof VirtualClock ? null : workers;
+    }
+
+    /**
+     * Returns the number of client connections this server currently handles.
+     *
+     * @return the number of open connections
+     */
+    @DoNotTouch
+    public int getConnectionCount() {
+        return handlers.size();
+    }
+
+    /**
+     * Returns the metrics of the request handler of this server.
+     *
+     * @return the handler metrics
+     */
+    @DoNotTouch
+    public HandlerMetrics getHandlerMetrics() {
+        return metrics;
     }
 
     /**
@@ -48,50 +291,94 @@ public class TCPServer extends Server {
     @Override
     @DoNotTouch
     public void accept(Packet packet) {
-        Verbose.out.printf("tcp-server[%d]: received packet %s%n", getPort(), packet);
-        int clientPort = packet.getHeader().sourcePort();
-        if (packet.getHeader().type() == CLOSE) {
-            sourcePortQueues.computeIfPresent(clientPort, (integer, tcpHandler) -> {
-                tcpHandler.thread().interrupt();
-                return null;
-            });
-            return;
+        if (Verbose.isEnabled()) {
+            Verbose.out.printf("tcp-server[%d]: received packet %s%n", getPort(), packet);
         }
-        if (!sourcePortQueues.containsKey(clientPort) && packet.getHeader().type() != SYN) {
+        int clientPort = packet.getSourcePort();
+        if (packet.getType() == CLOSE) {
+            TCPHandler closed = handlers.remove(clientPort);
+            if (closed != null) {
+                clock.interrupt(closed.thread());
+            }
             return;
         }
-        sourcePortQueues.computeIfAbsent(clientPort, p -> {
-            Verbose.out.printf("tcp-server[%d]: creating new handler for port %d%n", getPort(), p);
-            Connection conn = new Connection(this.getPort(), p);
-            Thread th = threadFactory.newThread(() -> {
+        TCPHandler handler = handlers.get(clientPort);
+        if (handler == null) {
+            if (packet.getType() != SYN) {
+                return;
+            }
+            // the queue permits only run out with workers, so simulations are never rejected for them
+            if (queueSlots.availablePermits() == 0 || !admissions.tryAcquire()) {
+                Verbose.out.printf("tcp-server[%d]: saturated, rejecting port %d%n", getPort(), clientPort);
+                metrics.onReject();
                 try {
-                    handleTCPServer(conn);
-                } catch (RuntimeException e) {
-                    if (!(e.getCause() instanceof InterruptedException)) {
-                        System.out.printf("Following RuntimeException was thrown in thread %s: %n",
-                            Thread.currentThread().getName());
-                        e.printStackTrace(System.out);
-                    }
-                } catch (Exception e) {
-                    System.out.printf("Following %s was thrown in thread %s: %n",
-                        e.getClass().getSimpleName(),
+                    InternetPool.sendPacket(clientPort, new Packet(getPort(), clientPort, Integer.MAX_VALUE, CLOSE, null));
+                } catch (InternetException ignored) {}
+                return;
+            }
+            TCPHandler created = newHandler(clientPort);
+            handler = handlers.putIfAbsent(clientPort, created);
+            if (handler == null) {
+                // only the handler that made it into the table is started, a concurrent SYN lost the race
+                handler = created;
+                created.thread().start();
+            } else {
+                admissions.release();
+            }
+        }
+        handler.conn().addPacket(packet);
+    }
+
+    /**
+     * Creates the handler for a new client connection without starting its thread.
+     * When the handler ends, it removes itself from the handler table, unless it was already removed
+     * by a CLOSE packet and the port got a new handler since, and returns its admission permit.
+     *
+     * @param clientPort the port of the client
+     * @return the new handler
+     */
+    @DoNotTouch
+    private TCPHandler newHandler(int clientPort) {
+        Verbose.out.printf("tcp-server[%d]: creating new handler for port %d%n", getPort(), clientPort);
+        Connection conn = new Connection(this.getPort(), clientPort);
+        Thread th = threadFactory.newThread(() -> {
+            try {
+                handleTCPServer(conn);
+            } catch (RuntimeException e) {
+                if (!(e.getCause() instanceof InterruptedException)) {
+                    System.out.printf("Following RuntimeException was thrown in thread %s: %n",
                         Thread.currentThread().getName());
                     e.printStackTrace(System.out);
-                } finally {
-                    // SAFETY: the first packet will be handled after the element gets created
-                    // thus this will actually remove the element and not get called out of order
-                    sourcePortQueues.remove(p);
                 }
-                Verbose.out.println(Thread.currentThread().getName() + ": finished");
-            });
-            th.start();
-            return new TCPHandler(th, conn);
-        }).conn().addPacket(packet);
+            } catch (Exception e) {
+                System.out.printf("Following %s was thrown in thread %s: %n",
+                    e.getClass().getSimpleName(),
+                    Thread.currentThread().getName());
+                e.printStackTrace(System.out);
+            } finally {
+                handlers.removeIf(clientPort, handler -> handler.conn() == conn);
+                admissions.release();
+                metrics.onDropped(conn.getDroppedPackets(), conn.getCoalescedPackets());
+                metrics.onCongestion(conn.getCongestionControl());
+            }
+            Verbose.out.println(Thread.currentThread().getName() + ": finished");
+        });
+        return new TCPHandler(th, conn);
     }
 
     /**
      * Handles the TCP server protocol for a single client connection.
      * Implements the TCP handshake, data exchange, and connection termination.
+     * If the client offers a window in its SYN packet, the server answers with the agreed window
+     * and both the request and the response are transferred windowed.
+     * Likewise, a segment size offered by the client is answered with the agreed segment size,
+     * which then limits the payload of every DATA packet in both directions.
+     * Windowed transfers use selective acknowledgements if the client offers them.
+     * <p>
+     * If the client asks for keep-alive, the handler does not end after the response but waits for
+     * the next request on the same connection. The first DATA packet of the next request also confirms
+     * the {@code "<EOF>"} of the previous response. A connection idle for longer than the keep-alive
+     * timeout is closed by sending a CLOSE packet to the client.
      *
      * @param conn The connection to the client
      * @throws InternetException If there is an error with the network connection
@@ -103,60 +390,131 @@ public class TCPServer extends Server {
         Packet clientSyn = conn.waitForPacket(); // we are guaranteed to have a packet if we got here
         clientSyn.expectType(SYN);
         Verbose.out.println(Thread.currentThread().getName() + ": received SYN packet");
-        IntHolder seq = new IntHolder(clientSyn.getHeader().sequenceNumber());
+        IntHolder seq = new IntHolder(clientSyn.getSequenceNumber());
+        // a window beyond the receive queue would only fill it with packets to drop
+        int window = Math.max(1, Math.min(Math.min(maxWindow, conn.getReceiveCapacity()),
+            clientSyn.getOptions().getInt(TCPOptions.WINDOW, 1)));
+        int segmentSize = Math.max(1, Math.min(maxSegmentSize,
+            clientSyn.getOptions().getInt(TCPOptions.MSS, Packet.DEFAULT_SEGMENT_SIZE)));
+        TCPOptions synOptions = TCPOptions.EMPTY;
+        if (clientSyn.getOptions().has(TCPOptions.WINDOW)) {
+            synOptions = synOptions.with(TCPOptions.WINDOW, window);
+        }
+        if (clientSyn.getOptions().has(TCPOptions.MSS)) {
+            synOptions = synOptions.with(TCPOptions.MSS, segmentSize);
+        }
+        boolean selectiveAck = window > 1 && clientSyn.getOptions().has(TCPOptions.SACK_PERMITTED);
+        if (selectiveAck) {
+            synOptions = synOptions.with(TCPOptions.SACK_PERMITTED, 1);
+        }
+        boolean keepAlive = keepAliveTimeout > 0 && clientSyn.getOptions().has(TCPOptions.KEEP_ALIVE);
+        if (keepAlive) {
+            synOptions = synOptions.with(TCPOptions.KEEP_ALIVE, keepAliveTimeout);
+        }
+        TCPOptions finalSynOptions = synOptions;
         Verbose.out.println(Thread.currentThread().getName() + ": sending response SYN packet");
         PacketType responseType = SYN;
-        StringBuilder buffer = new StringBuilder();
-        boolean requestFinished = false;
+        // the first DATA packet of the next request, already received while waiting on a keep-alive connection
+        Packet nextRequest = null;
 
-        do {
-            // required because responseType is not _effectively final_
-            PacketType finalResponseType = responseType;
+        while (true) {
+            // text and binary DATA packets are collected as UTF-8, a character may span two binary packets
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            boolean requestFinished = false;
+            // early packets of a windowed request are only kept if the client learns about them
+            ReassemblyBuffer reassembly = selectiveAck ? new ReassemblyBuffer() : null;
 
-            Packet moreData = TCPUtils.try3Times(() -> {
-                conn.sendPacket(seq.value + 1, finalResponseType, null);
-                return conn.waitForPacketTimeout(5000);
+            do {
+                // required because responseType is not _effectively final_
+                PacketType finalResponseType = responseType;
+
+                ThrowingPacketWaiter respondAndWait = () -> {
+                    TCPOptions options = finalResponseType == SYN ? finalSynOptions
+                        : conn.withReceiveWindow(reassembly != null ? reassembly.withSack(null) : null);
+                    conn.sendPacket(seq.value + 1, finalResponseType, null, options);
+                    return conn.waitForPacketTimeout();
+                };
+                Packet moreData;
+                if (nextRequest != null && nextRequest.getSequenceNumber() == seq.value + 2) {
+                    moreData = nextRequest;
+                } else if (reassembly != null) {
+                    moreData = TCPUtils.tryInOrder(conn, reassembly, respondAndWait, seq.value + 2);
+                } else if (window > 1) {
+                    moreData = TCPUtils.tryInOrder(conn, respondAndWait, seq.value + 2);
+                } else {
+                    moreData = TCPUtils.try3Times(conn, respondAndWait, seq.value + 2);
+                }
+                // without selective acknowledgements an early packet of a windowed request is dropped, the sender resends it
+                nextRequest = null;
+                moreData.expectType(DATA);
+                moreData.expectSequenceNumber(seq.value += 2);
+                moreData.validateChecksum();
+                seq.value += moreData.getPayloadLength();
+                Verbose.out.println(Thread.currentThread().getName() + ": received a DATA Packet");
+
+                if (moreData.isBinary()) {
+                    ByteBuffer bytes = moreData.getBytes();
+                    byte[] chunk = new byte[bytes.remaining()];
+                    bytes.get(chunk);
+                    buffer.writeBytes(chunk);
+                } else if (moreData.getData().equals("<EOF>")) {
+                    requestFinished = true;
+                } else {
+                    buffer.writeBytes(moreData.getData().getBytes(StandardCharsets.UTF_8));
+                }
+
+                responseType = ACK;
+            } while (!requestFinished);
+
+            Packet rcvACK = TCPUtils.try3Times(conn, () -> {
+                conn.sendPacket(seq.value + 1, ACK, null);
+                // waiting for receive
+                return conn.waitForPacket();
             }, seq.value + 2);
-            moreData.expectType(DATA);
-            moreData.expectSequenceNumber(seq.value += 2);
-            moreData.validateChecksum();
-            seq.value += moreData.getData().length();
-            Verbose.out.println(Thread.currentThread().getName() + ": received a DATA Packet");
-
-            String data = moreData.getData();
-            if (data.equals("<EOF>")) {
-                requestFinished = true;
+            rcvACK.expectType(ACK);
+            rcvACK.expectSequenceNumber(seq.value += 2);
+            rcvACK.validateChecksum();
+
+            String query = buffer.toString(StandardCharsets.UTF_8);
+            String response = handleRequest(conn, query);
+            if (response == null) {
+                return;
+            }
+
+            if (window > 1) {
+                List<String> responseChunks = TCPUtils.split(response, segmentSize);
+                if (!responseChunks.isEmpty()) {
+                    seq.value = TCPUtils.sendWindowed(conn, seq.value + 1, responseChunks, window);
+                }
             } else {
-                buffer.append(data);
+                for (int i = 0; i < response.length(); i += segmentSize) {
+                    int end = Math.min(response.length(), i + segmentSize);
+                    String currentData = response.substring(i, end);
+                    Packet clientAck = TCPUtils.try3Times(conn, () -> {
+                        conn.sendPacket(seq.value + 1, DATA, currentData);
+                        return conn.waitForPacketTimeout();
+                    }, seq.value + currentData.length() + 2);
+                    clientAck.expectType(ACK);
+                    clientAck.expectSequenceNumber(seq.value += currentData.length() + 2);
+                    Verbose.out.println(Thread.currentThread().getName() + ": received an ACK for data.");
+                }
             }
+            conn.sendPacket(seq.value + 1, DATA, "<EOF>");
 
-            responseType = ACK;
-        } while (!requestFinished);
-
-        Packet rcvACK = TCPUtils.try3Times(() -> {
-            conn.sendPacket(seq.value + 1, ACK, null);
-            // waiting for receive
-            return conn.waitForPacket();
-        }, seq.value + 2);
-        rcvACK.expectType(ACK);
-        rcvACK.expectSequenceNumber(seq.value += 2);
-        rcvACK.validateChecksum();
-
-        String query = buffer.toString();
-        String response = getResponse(query);
-
-        for (int i = 0; i < response.length(); i += 8) {
-            int end = Math.min(response.length(), i + 8);
-            String currentData = response.substring(i, end);
-            Packet clientAck = TCPUtils.try3Times(() -> {
-                conn.sendPacket(seq.value + 1, DATA, currentData);
-                return conn.waitForPacketTimeout(5000);
-            }, seq.value + currentData.length() + 2);
-            clientAck.expectType(ACK);
-            clientAck.expectSequenceNumber(seq.value += currentData.length() + 2);
-            Verbose.out.println(Thread.currentThread().getName() + ": received an ACK for data.");
+            if (!keepAlive) {
+                break;
+            }
+            nextRequest = awaitNextRequest(conn, seq.value);
+            if (nextRequest == null) {
+                Verbose.out.println(Thread.currentThread().getName() + ": keep-alive connection idle, closing");
+                try {
+                    conn.sendPacket(Integer.MAX_VALUE, CLOSE, null);
+                } catch (InternetException ignored) {}
+                return;
+            }
+            // the client continues right after the <EOF>, i.e. at its sequence number plus its length plus one
+            seq.value += "<EOF>".length();
         }
-        conn.sendPacket(seq.value + 1, DATA, "<EOF>");
 
         /*
         Makes sure that the final eof is received. As it does not need to be ACKd.
@@ -170,11 +528,13 @@ public class TCPServer extends Server {
         Does not count the amount of errors as transmission is done anyway thus we do not need to fail
         but rather just wait for client to receive or fail.
          */
+        // a burst of old packets causes a single resend
+        conn.expectSequenceNumber(seq.value + 1);
         boolean eofReceived = false;
         while(!eofReceived) {
             try {
-                Packet p = conn.waitForPacketTimeout(5000);
-                if(p.getHeader().sequenceNumber() <= seq.value) {
+                Packet p = conn.waitForPacketTimeout();
+                if(p.getSequenceNumber() <= seq.value) {
                     Verbose.out.println(Thread.currentThread().getName() + ": resent <EOF> of response");
                     conn.sendPacket(seq.value + 1, DATA, "<EOF>");
                 } else {
@@ -185,15 +545,107 @@ public class TCPServer extends Server {
         Verbose.out.println(Thread.currentThread().getName() + ": Sent and ACKd entire response.");
     }
 
+    /**
+     * Waits on a keep-alive connection for the first packet of the next request.
+     * Like the end of a single exchange, old packets of the client cause the
+     * {@code "<EOF>"} of the response to be sent again, a burst of them only once.
+     *
+     * @param conn     The connection to the client
+     * @param sequence The sequence number of the {@code "<EOF>"} packet minus one
+     * @return the first packet of the next request or null if the connection stayed idle for the keep-alive timeout
+     * @throws InternetException If there is an error with the network connection
+     */
+    @DoNotTouch
+    private Packet awaitNextRequest(Connection conn, int sequence) throws InternetException {
+        long deadline = clock.nanoTime() + keepAliveTimeout * 1_000_000;
+        conn.expectSequenceNumber(sequence + 1);
+        while (true) {
+            long remaining = (deadline - clock.nanoTime()) / 1_000_000;
+            if (remaining <= 0) {
+                return null;
+            }
+            try {
+                Packet p = conn.waitForPacketTimeout(remaining);
+                if (p.getSequenceNumber() <= sequence) {
+                    Verbose.out.println(Thread.currentThread().getName() + ": resent <EOF> of response");
+                    conn.sendPacket(sequence + 1, DATA, "<EOF>");
+                } else {
+                    Verbose.out.println(Thread.currentThread().getName() + ": Sent and ACKd entire response.");
+                    return p;
+                }
+            } catch (TimeoutException ignored) {}
+        }
+    }
+
+    /**
+     * Computes the response to a request with the request handler, on a worker if this server has workers.
+     * The calling protocol thread waits for the response. If the handler fails, the connection is closed.
+     * If too many requests already wait for a worker, the request is rejected by closing the connection.
+     *
+     * @param conn    The connection to the client
+     * @param request The complete request of the client
+     * @return The response to the request or null if it was rejected
+     */
+    @DoNotTouch
+    private String handleRequest(Connection conn, String request) {
+        if (workers != null && !queueSlots.tryAcquire()) {
+            Verbose.out.println(Thread.currentThread().getName() + ": request queue full, rejecting request");
+            metrics.onReject();
+            try {
+                conn.sendPacket(Integer.MAX_VALUE, CLOSE, null);
+            } catch (InternetException ignored) {}
+            return null;
+        }
+        CompletableFuture<String> response = new CompletableFuture<>();
+        long submitted = metrics.onSubmit();
+        Runnable task = () -> {
+            if (workers != null) {
+                queueSlots.release();
+            }
+            long started = metrics.onStart(submitted);
+            boolean succeeded = false;
+            try {
+                response.complete(requestHandler.handle(request));
+                succeeded = true;
+            } catch (Throwable e) {
+                // errors as well, e.g. a failed assertion, otherwise the protocol thread would wait forever
+                response.completeExceptionally(e);
+            } finally {
+                metrics.onFinish(started, succeeded);
+            }
+        };
+        if (workers == null) {
+            task.run();
+        } else {
+            try {
+                workers.execute(task);
+            } catch (RejectedExecutionException e) {
+                queueSlots.release();
+                metrics.onFinish(metrics.onStart(submitted), false);
+                response.completeExceptionally(e);
+            }
+        }
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e); // mitigate to handler
+        } catch (ExecutionException e) {
+            try {
+                conn.sendPacket(Integer.MAX_VALUE, CLOSE, null);
+            } catch (InternetException ignored) {}
+            throw new RuntimeException("request handler failed", e.getCause());
+        }
+    }
+
     /**
      * Generates a response message based on the client's request.
-     * Provides predefined responses for known messages.
+     * Provides predefined responses for known messages. The request handler of servers without another one.
      *
      * @param message The client's request message
      * @return The server's response message
      */
     @DoNotTouch
-    private String getResponse(String message) {
+    static String getResponse(String message) {
         if (message.equals("Hello Server")) {
             return "Hello Client :)";
         } else {
@@ -207,9 +659,13 @@ public class TCPServer extends Server {
     @Override
     @DoNotTouch
     public void close() {
-        for (TCPHandler openHandler : sourcePortQueues.values()) {
-            openHandler.thread().interrupt();
-        }
+        handlers.forEach(openHandler -> {
+            clock.interrupt(openHandler.thread());
+            // lets clients waiting on a kept-alive connection know that it is gone
+            try {
+                openHandler.conn().sendPacket(Integer.MAX_VALUE, CLOSE, null);
+            } catch (InternetException ignored) {}
+        });
         super.close();
     }
 
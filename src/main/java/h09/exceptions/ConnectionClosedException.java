@@ -18,4 +18,14 @@ public class ConnectionClosedException extends InternetException {
     public ConnectionClosedException() {
         super("The connection is already closed!");
     }
+
+    /**
+     * Constructs a new {@code ConnectionClosedException} with a detailed message.
+     *
+     * @param message the detail message describing why the connection was closed
+     */
+    @DoNotTouch
+    public ConnectionClosedException(String message) {
+        super(message);
+    }
 }
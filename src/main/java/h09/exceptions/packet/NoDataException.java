@@ -17,6 +17,6 @@ public class NoDataException extends PacketException {
      */
     @DoNotTouch
     public NoDataException(Packet packet) {
-        super("No data in packet as this is a " + packet.getHeader().type() + " packet");
+        super("No data in packet as this is a " + packet.getType() + " packet");
     }
 }
@@ -0,0 +1,7 @@
+package h09.exceptions.packet;
+
+public class PacketFormatException extends PacketException {
+    public PacketFormatException(String message) {
+        super("Malformed encoding, " + message);
+    }
+}
@@ -6,19 +6,76 @@ import org.jetbrains.annotations.NotNull;
 import org.tudalgo.algoutils.student.annotation.DoNotTouch;
 import org.tudalgo.algoutils.student.annotation.StudentImplementationRequired;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 /**
  * Represents data that can be sent over the network.
  * A packet consists of a mandatory header and optional data.
+ * <p>
+ * Packets are immutable, so a packet may be shared freely, e.g. kept for retransmission while the
+ * network still delivers it, and is never released or reused. To keep the allocation per packet low,
+ * the header fields are stored in the packet itself; the {@link Header} record is only created when
+ * {@link #getHeader()} is called. The protocol code reads the fields with {@link #getSourcePort()},
+ * {@link #getDestinationPort()}, {@link #getSequenceNumber()} and {@link #getType()} instead.
  */
 @DoNotTouch
 public class Packet {
 
+    /**
+     * The number of characters or bytes a packet carries unless a larger segment size was agreed on.
+     */
+    @DoNotTouch
+    public static final int DEFAULT_SEGMENT_SIZE = 8;
+
+    /**
+     * The largest number of characters or bytes a single packet may carry.
+     */
+    @DoNotTouch
+    public static final int MAX_SEGMENT_SIZE = 65535;
+
+    /**
+     * The strategy used to calculate and validate checksums.
+     */
+    @DoNotTouch
+    private static volatile PacketChecksum checksum = PacketChecksum.CRC32C;
+
+    /**
+     * The port from which the packet originated.
+     */
+    @DoNotTouch
+    private final int sourcePort;
+
+    /**
+     * The port to which the packet is destined.
+     */
+    @DoNotTouch
+    private final int destinationPort;
+
+    /**
+     * The sequence number of the packet for ordering.
+     */
+    @DoNotTouch
+    private final int sequenceNumber;
+
+    /**
+     * The checksum sent with the packet.
+     */
+    @DoNotTouch
+    private final int headerChecksum;
 
     /**
-     * Packet header containing control information.
+     * The type of the packet.
      */
     @DoNotTouch
     @NotNull
+    private final PacketType type;
+
+    /**
+     * Packet header containing control information, created on first use.
+     * As the record is immutable, racing threads may at worst create it twice.
+     */
+    @DoNotTouch
     private Header header;
 
     /**
@@ -27,6 +84,19 @@ public class Packet {
     @DoNotTouch
     private String data;
 
+    /**
+     * Packet data consisting of raw bytes, read-only. Only set if {@link #data} is null.
+     */
+    @DoNotTouch
+    private ByteBuffer bytes;
+
+    /**
+     * Protocol options attached to this packet.
+     */
+    @DoNotTouch
+    @NotNull
+    private TCPOptions options;
+
     /**
      * Constructs a new packet using the provided header and data.
      *
@@ -35,8 +105,14 @@ public class Packet {
      */
     @DoNotTouch
     public Packet(@NotNull Header header, String data) {
+        this.sourcePort = header.sourcePort();
+        this.destinationPort = header.destinationPort();
+        this.sequenceNumber = header.sequenceNumber();
+        this.headerChecksum = header.checksum();
+        this.type = header.type();
         this.header = header;
         this.data = data;
+        this.options = TCPOptions.EMPTY;
     }
 
     /**
@@ -48,7 +124,7 @@ public class Packet {
      * @param sequenceNumber  the sequence number for packet ordering
      * @param type            the packet type
      * @param data            the data of the packet or null if the packet has no data.
-     *                        should at most be 8 characters
+     *                        should at most be {@link #MAX_SEGMENT_SIZE} characters
      * @throws AssertionError if the type is DATA but the provided data is null,
      *                        the provided data is not null but the type is not DATA or
      *                        the length of data (if present) is bigger than allowed.
@@ -59,44 +135,236 @@ public class Packet {
         int sequenceNumber,
         PacketType type,
         String data) {
+        this(sourcePort, destinationPort, sequenceNumber, type, data, null);
+    }
+
+    /**
+     * Constructs a new {@link Packet} with attached {@link TCPOptions}.
+     *
+     * @param sourcePort      the address the packet came from
+     * @param destinationPort the address the packet is going to
+     * @param sequenceNumber  the sequence number for packet ordering
+     * @param type            the packet type
+     * @param data            the data of the packet or null if the packet has no data.
+     *                        should at most be {@link #MAX_SEGMENT_SIZE} characters
+     * @param options         the options of the packet or null if the packet has no options
+     * @throws AssertionError if the type is DATA but the provided data is null,
+     *                        the provided data is not null but the type is not DATA or
+     *                        the length of data (if present) is bigger than allowed.
+     */
+    public Packet(
+        int sourcePort,
+        int destinationPort,
+        int sequenceNumber,
+        PacketType type,
+        String data,
+        TCPOptions options) {
         //TODO Implement H9.1.
         if (type == PacketType.DATA) {
             assert data != null : "data must not be null";
-            assert data.length() <= 8 : "data must not be longer than 8 zeichnen";
+            assert data.length() <= MAX_SEGMENT_SIZE : "data must not be longer than " + MAX_SEGMENT_SIZE + " zeichnen";
         }
         else {
             assert data == null :"data must be null for non-data types";
         }
-        int checksum = calculateChecksum(sequenceNumber,data);
-        this.header = new Header(sourcePort, destinationPort, sequenceNumber, checksum, type);
+        assertHeader(sourcePort, destinationPort, sequenceNumber);
+        this.sourcePort = sourcePort;
+        this.destinationPort = destinationPort;
+        this.sequenceNumber = sequenceNumber;
+        this.options = options == null ? TCPOptions.EMPTY : options;
+        this.headerChecksum = Packet.checksum.compute(sourcePort, destinationPort, sequenceNumber, type, data, this.options);
+        this.type = type;
         this.data = data;
     }
 
     /**
-     * Calculates the checksum of a header using the sequence number and data.
-     * Asserts data is not null for data packets, and data stays within the allowed length.
+     * Constructs a new DATA {@link Packet} carrying raw bytes instead of text.
+     * The packet keeps a read-only view of the remaining bytes of the buffer without copying them,
+     * so the content of the buffer must not be changed afterwards.
+     *
+     * @param sourcePort      the address the packet came from
+     * @param destinationPort the address the packet is going to
+     * @param sequenceNumber  the sequence number for packet ordering
+     * @param bytes           the data of the packet, at most {@link #MAX_SEGMENT_SIZE} bytes
+     * @param options         the options of the packet or null if the packet has no options
+     * @throws AssertionError if the bytes are null or longer than allowed
+     */
+    @DoNotTouch
+    public Packet(
+        int sourcePort,
+        int destinationPort,
+        int sequenceNumber,
+        ByteBuffer bytes,
+        TCPOptions options) {
+        assert bytes != null : "bytes must not be null";
+        assert bytes.remaining() <= MAX_SEGMENT_SIZE : "bytes must not be longer than " + MAX_SEGMENT_SIZE;
+        assertHeader(sourcePort, destinationPort, sequenceNumber);
+        this.sourcePort = sourcePort;
+        this.destinationPort = destinationPort;
+        this.sequenceNumber = sequenceNumber;
+        this.options = options == null ? TCPOptions.EMPTY : options;
+        this.headerChecksum = Packet.checksum.compute(sourcePort, destinationPort, sequenceNumber, bytes, this.options);
+        this.type = PacketType.DATA;
+        this.bytes = bytes.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Constructs a packet from fields that were already checked, keeping the given checksum.
+     * Used by {@link PacketCodec} to restore a decoded packet exactly as it was sent,
+     * so that a packet corrupted on its way still fails {@link #validateChecksum()}.
+     *
+     * @param sourcePort      the address the packet came from
+     * @param destinationPort the address the packet is going to
+     * @param sequenceNumber  the sequence number for packet ordering
+     * @param headerChecksum  the checksum sent with the packet
+     * @param type            the packet type
+     * @param data            the text of the packet or null
+     * @param bytes           the read-only bytes of the packet or null, only set if data is null
+     * @param options         the options of the packet, not null
+     */
+    @DoNotTouch
+    Packet(
+        int sourcePort,
+        int destinationPort,
+        int sequenceNumber,
+        int headerChecksum,
+        @NotNull PacketType type,
+        String data,
+        ByteBuffer bytes,
+        @NotNull TCPOptions options) {
+        assertHeader(sourcePort, destinationPort, sequenceNumber);
+        this.sourcePort = sourcePort;
+        this.destinationPort = destinationPort;
+        this.sequenceNumber = sequenceNumber;
+        this.headerChecksum = headerChecksum;
+        this.type = type;
+        this.data = data;
+        this.bytes = bytes;
+        this.options = options;
+    }
+
+    /**
+     * Checks the header fields like the compact constructor of {@link Header} does.
+     *
+     * @param sourcePort      the address the packet came from
+     * @param destinationPort the address the packet is going to
+     * @param sequenceNumber  the sequence number for packet ordering
+     * @throws AssertionError if either of the ports is not in the specified range or
+     *                        the sequence number is non-positive
+     */
+    @DoNotTouch
+    private static void assertHeader(int sourcePort, int destinationPort, int sequenceNumber) {
+        assert sourcePort >= 0 && sourcePort < InternetPool.MAX_PORT : "sourcePort is out of range";
+        assert destinationPort >= 0 && destinationPort < InternetPool.MAX_PORT : "destinationPort is out of range";
+        assert sequenceNumber > 0 : "sequence number must be positive";
+    }
+
+    /**
+     * Calculates the checksum of this packet using the current {@link PacketChecksum}.
      *
-     * @param seq  The sequence number of the packet
-     * @param data The data of the packet
      * @return the calculated checksum
      */
     @DoNotTouch
-    private static int calculateChecksum(int seq, String data) {
-        return seq + (data == null ? 0 : data.length());
+    private int calculateChecksum() {
+        PacketChecksum strategy = Packet.checksum;
+        if (bytes != null) {
+            return strategy.compute(sourcePort, destinationPort, sequenceNumber, bytes, options);
+        }
+        return strategy.compute(sourcePort, destinationPort, sequenceNumber, type, data, options);
+    }
+
+    /**
+     * Sets the strategy used to calculate and validate checksums of all packets.
+     * Should be set before any packets are sent, as packets constructed with a different
+     * strategy fail validation.
+     *
+     * @param checksum the new checksum strategy
+     */
+    @DoNotTouch
+    public static void setChecksum(@NotNull PacketChecksum checksum) {
+        Packet.checksum = checksum;
+    }
+
+    /**
+     * Returns the strategy used to calculate and validate checksums.
+     *
+     * @return the current checksum strategy, {@link PacketChecksum#CRC32C} by default
+     */
+    @DoNotTouch
+    public static @NotNull PacketChecksum getChecksum() {
+        return checksum;
     }
 
     /**
      * Returns the header of the packet.
+     * The record is created on the first call, prefer the accessors of the single fields.
      *
      * @return the packet header
      */
     @DoNotTouch
     public @NotNull Header getHeader() {
-        return header;
+        Header result = header;
+        if (result == null) {
+            result = new Header(sourcePort, destinationPort, sequenceNumber, headerChecksum, type);
+            header = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the port from which the packet originated, like {@link Header#sourcePort()}.
+     *
+     * @return the source port
+     */
+    @DoNotTouch
+    public int getSourcePort() {
+        return sourcePort;
+    }
+
+    /**
+     * Returns the port to which the packet is destined, like {@link Header#destinationPort()}.
+     *
+     * @return the destination port
+     */
+    @DoNotTouch
+    public int getDestinationPort() {
+        return destinationPort;
+    }
+
+    /**
+     * Returns the sequence number of the packet, like {@link Header#sequenceNumber()}.
+     *
+     * @return the sequence number
+     */
+    @DoNotTouch
+    public int getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    /**
+     * Returns the checksum sent with the packet, like {@link Header#checksum()}.
+     *
+     * @return the checksum of the header
+     */
+    @DoNotTouch
+    public int getHeaderChecksum() {
+        return headerChecksum;
+    }
+
+    /**
+     * Returns the type of the packet, like {@link Header#type()}.
+     *
+     * @return the packet type
+     */
+    @DoNotTouch
+    public @NotNull PacketType getType() {
+        return type;
     }
 
     /**
      * Returns the data of the packet.
+     * Raw bytes are decoded as UTF-8; as a character may be split between two packets,
+     * binary packets should rather be read with {@link #getBytes()}.
      *
      * @return the packet data
      * @throws NoDataException when there's no data in this packet
@@ -105,11 +373,85 @@ public class Packet {
     public String getData() throws NoDataException {
         if (data != null) {
             return data;
+        } else if (bytes != null) {
+            return StandardCharsets.UTF_8.decode(bytes.duplicate()).toString();
         } else {
             throw new NoDataException(this);
         }
     }
 
+    /**
+     * Returns the data of the packet as bytes.
+     * Text is encoded as UTF-8.
+     *
+     * @return a read-only buffer containing the packet data
+     * @throws NoDataException when there's no data in this packet
+     */
+    @DoNotTouch
+    public ByteBuffer getBytes() throws NoDataException {
+        if (bytes != null) {
+            return bytes.duplicate();
+        } else if (data != null) {
+            return ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+        } else {
+            throw new NoDataException(this);
+        }
+    }
+
+    /**
+     * Returns the text of the packet without copying it.
+     *
+     * @return the text or null if the packet carries bytes or no data
+     */
+    @DoNotTouch
+    String rawData() {
+        return data;
+    }
+
+    /**
+     * Returns the bytes of the packet without duplicating the buffer, so its position must not be changed.
+     *
+     * @return the read-only bytes or null if the packet carries text or no data
+     */
+    @DoNotTouch
+    ByteBuffer rawBytes() {
+        return bytes;
+    }
+
+    /**
+     * Checks whether the data of this packet consists of raw bytes.
+     *
+     * @return true if the packet carries bytes, false if it carries text or no data
+     */
+    @DoNotTouch
+    public boolean isBinary() {
+        return bytes != null;
+    }
+
+    /**
+     * Returns the length of the data, i.e. the number of characters of text
+     * or the number of bytes of binary data. Sequence numbers advance by this length.
+     *
+     * @return the length of the data or 0 if the packet has no data
+     */
+    @DoNotTouch
+    public int getPayloadLength() {
+        if (data != null) {
+            return data.length();
+        }
+        return bytes == null ? 0 : bytes.remaining();
+    }
+
+    /**
+     * Returns the protocol options of the packet.
+     *
+     * @return the packet options, empty if the packet has none
+     */
+    @DoNotTouch
+    public @NotNull TCPOptions getOptions() {
+        return options;
+    }
+
     /**
      * Validates that the {@link PacketType type} of the header of this packet is
      * the expected type. Else throws an exception.
@@ -118,7 +460,7 @@ public class Packet {
      */
     @StudentImplementationRequired("H9.3")
     public void expectType(PacketType type) throws PacketTypeException {
-        PacketType packetType = this.header.type();
+        PacketType packetType = this.type;
         if(packetType != type){
             throw new PacketTypeException(type,packetType);
         }
@@ -133,7 +475,7 @@ public class Packet {
      */
     @StudentImplementationRequired("H9.3")
     public void expectSequenceNumber(int seq) throws PacketSequenceException {
-        int sequenceNumber = this.header.sequenceNumber();
+        int sequenceNumber = this.sequenceNumber;
         if(seq != sequenceNumber){
             throw new PacketSequenceException(seq,sequenceNumber);
         }
@@ -142,12 +484,12 @@ public class Packet {
 
     /**
      * Validates the checksum of the packet.
-     * Compares the checksum in the header with a calculated checksum based on sequence number and data.
+     * Compares the checksum in the header with a checksum calculated from the header fields and data.
      */
     @StudentImplementationRequired("H9.3")
     public void validateChecksum()  throws PacketChecksumException {
-        int checksum = calculateChecksum(this.header.sequenceNumber(),this.data);
-        int actualChecksum = this.header.checksum();
+        int checksum = calculateChecksum();
+        int actualChecksum = this.headerChecksum;
         if(checksum != actualChecksum){
             throw new PacketChecksumException(checksum,actualChecksum);
         }
@@ -164,8 +506,9 @@ public class Packet {
     @DoNotTouch
     public String toString() {
         return "Packet{" +
-            "header=" + header +
-            ", data='" + data + '\'' +
+            "header=" + getHeader() +
+            (bytes == null ? ", data='" + data + '\'' : ", bytes=" + bytes.remaining()) +
+            (options.isEmpty() ? "" : ", options=" + options) +
             '}';
     }
 }
@@ -0,0 +1,103 @@
+package h09.packet;
+
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Strategy for calculating the checksum stored in the {@link Header} of a {@link Packet}.
+ * The checksum is calculated once when a packet is constructed and again when it is validated
+ * with {@link Packet#validateChecksum()}, so implementations should be cheap and must not allocate.
+ * Checksums covering the data also cover the {@link TCPOptions} of the packet, empty options add nothing.
+ * <p>
+ * The strategy in use is selected with {@link Packet#setChecksum(PacketChecksum)}.
+ */
+@DoNotTouch
+public interface PacketChecksum {
+
+    /**
+     * Calculates no checksum at all. Suited for trusted channels where validation would only cost time.
+     */
+    @DoNotTouch
+    PacketChecksum NONE = new PacketChecksum() {
+        @Override
+        public int compute(int sourcePort, int destinationPort, int sequenceNumber, PacketType type, String data,
+                           TCPOptions options) {
+            return 0;
+        }
+
+        @Override
+        public int compute(int sourcePort, int destinationPort, int sequenceNumber, ByteBuffer bytes,
+                           TCPOptions options) {
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "NONE";
+        }
+    };
+
+    /**
+     * The original checksum: the sequence number plus the length of the data.
+     * Only detects changes of the sequence number or of the data length, the options are ignored.
+     */
+    @DoNotTouch
+    PacketChecksum LEGACY = new PacketChecksum() {
+        @Override
+        public int compute(int sourcePort, int destinationPort, int sequenceNumber, PacketType type, String data,
+                           TCPOptions options) {
+            return sequenceNumber + (data == null ? 0 : data.length());
+        }
+
+        @Override
+        public int compute(int sourcePort, int destinationPort, int sequenceNumber, ByteBuffer bytes,
+                           TCPOptions options) {
+            return sequenceNumber + bytes.remaining();
+        }
+
+        @Override
+        public String toString() {
+            return "LEGACY";
+        }
+    };
+
+    /**
+     * CRC-32C over all header fields, the options and the data. Intrinsified on common platforms.
+     */
+    @DoNotTouch
+    PacketChecksum CRC32C = new ZipPacketChecksum("CRC32C", java.util.zip.CRC32C::new);
+
+    /**
+     * Adler-32 over all header fields, the options and the data. Faster than a CRC in software but weaker on short data.
+     */
+    @DoNotTouch
+    PacketChecksum ADLER32 = new ZipPacketChecksum("ADLER32", java.util.zip.Adler32::new);
+
+    /**
+     * Calculates the checksum of a packet carrying text or no data.
+     *
+     * @param sourcePort      the address the packet came from
+     * @param destinationPort the address the packet is going to
+     * @param sequenceNumber  the sequence number of the packet
+     * @param type            the packet type
+     * @param data            the data of the packet or null if the packet has no data
+     * @param options         the options of the packet, empty if it has none
+     * @return the checksum
+     */
+    int compute(int sourcePort, int destinationPort, int sequenceNumber, PacketType type, String data,
+                TCPOptions options);
+
+    /**
+     * Calculates the checksum of a DATA packet carrying raw bytes.
+     * The position of the buffer is not changed.
+     *
+     * @param sourcePort      the address the packet came from
+     * @param destinationPort the address the packet is going to
+     * @param sequenceNumber  the sequence number of the packet
+     * @param bytes           the remaining bytes of the buffer are the data of the packet
+     * @param options         the options of the packet, empty if it has none
+     * @return the checksum
+     */
+    int compute(int sourcePort, int destinationPort, int sequenceNumber, ByteBuffer bytes, TCPOptions options);
+}
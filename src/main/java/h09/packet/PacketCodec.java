@@ -0,0 +1,412 @@
+package h09.packet;
+
+import h09.exceptions.packet.PacketFormatException;
+import org.jetbrains.annotations.NotNull;
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Binary wire format of {@link Header Headers} and {@link Packet Packets}, e.g. to store, replay or
+ * ship packets between JVMs. All numbers are big-endian, the default order of a {@link ByteBuffer}.
+ * <p>
+ * A header takes {@value #HEADER_BYTES} bytes:
+ * <pre>
+ *  0  source port       unsigned 16 bit
+ *  2  destination port  unsigned 16 bit
+ *  4  sequence number   32 bit
+ *  8  checksum          32 bit
+ * 12  type              8 bit, ordinal of the {@link PacketType}
+ * </pre>
+ * A packet follows its header with a payload kind (0 none, 1 text, 2 bytes), the 16 bit length of its
+ * options, the 32 bit length of its payload, the options in their string form and the payload.
+ * Text is stored as UTF-8, an unpaired surrogate is replaced by {@code '?'} like {@link String#getBytes} does.
+ * <p>
+ * The codec works on heap and direct buffers alike. Encoding does not copy through intermediate arrays,
+ * text is encoded character by character into the target. The bytes of a binary packet are decoded
+ * as a read-only view of the source buffer, so the region of such a source must not be overwritten
+ * while decoded packets are still in use; only text is copied, into its {@link String}. The checksum is stored as it was sent, so a
+ * packet corrupted on its way still fails {@link Packet#validateChecksum()} after decoding.
+ * <p>
+ * The codec has no state and may be used by any number of threads at once.
+ */
+@DoNotTouch
+public final class PacketCodec {
+
+    /**
+     * The number of bytes of an encoded {@link Header}.
+     */
+    @DoNotTouch
+    public static final int HEADER_BYTES = 13;
+
+    /**
+     * The number of bytes of an encoded {@link Packet} without its options and payload.
+     */
+    @DoNotTouch
+    public static final int FIXED_BYTES = HEADER_BYTES + 7;
+
+    /**
+     * The largest number of bytes the options of an encoded {@link Packet} may take, the limit of their 16 bit length.
+     */
+    @DoNotTouch
+    public static final int MAX_OPTIONS_BYTES = 0xFFFF;
+
+    /**
+     * Payload kind of a packet without data.
+     */
+    @DoNotTouch
+    private static final byte NO_PAYLOAD = 0;
+
+    /**
+     * Payload kind of a packet carrying text.
+     */
+    @DoNotTouch
+    private static final byte TEXT_PAYLOAD = 1;
+
+    /**
+     * Payload kind of a packet carrying raw bytes.
+     */
+    @DoNotTouch
+    private static final byte BINARY_PAYLOAD = 2;
+
+    /**
+     * The packet types by ordinal.
+     */
+    @DoNotTouch
+    private static final PacketType[] TYPES = PacketType.values();
+
+    @DoNotTouch
+    private PacketCodec() {
+    }
+
+    /**
+     * Returns the number of bytes the given packet takes when encoded.
+     *
+     * @param packet the packet
+     * @return the encoded size in bytes
+     */
+    @DoNotTouch
+    public static int encodedSize(@NotNull Packet packet) {
+        return FIXED_BYTES + utf8Length(optionsText(packet)) + payloadSize(packet);
+    }
+
+    /**
+     * Writes the given header at the position of the buffer and advances it by {@value #HEADER_BYTES}.
+     *
+     * @param header the header to encode
+     * @param dst    the target buffer
+     * @throws BufferOverflowException if the buffer has not enough space left, the buffer is unchanged then
+     */
+    @DoNotTouch
+    public static void encodeHeader(@NotNull Header header, @NotNull ByteBuffer dst) {
+        checkOrder(dst);
+        if (dst.remaining() < HEADER_BYTES) {
+            throw new BufferOverflowException();
+        }
+        putHeader(dst, header.sourcePort(), header.destinationPort(), header.sequenceNumber(), header.checksum(), header.type());
+    }
+
+    /**
+     * Reads a header at the position of the buffer and advances it by {@value #HEADER_BYTES}.
+     *
+     * @param src the source buffer
+     * @return the decoded header or null if the buffer does not contain a complete header, the buffer is unchanged then
+     * @throws PacketFormatException if the bytes are no valid header
+     */
+    @DoNotTouch
+    public static Header decodeHeader(@NotNull ByteBuffer src) throws PacketFormatException {
+        checkOrder(src);
+        if (src.remaining() < HEADER_BYTES) {
+            return null;
+        }
+        int position = src.position();
+        int sequenceNumber = src.getInt(position + 4);
+        PacketType type = typeAt(src, position + 12);
+        checkSequenceNumber(sequenceNumber);
+        src.position(position + HEADER_BYTES);
+        return new Header(Short.toUnsignedInt(src.getShort(position)), Short.toUnsignedInt(src.getShort(position + 2)),
+            sequenceNumber, src.getInt(position + 8), type);
+    }
+
+    /**
+     * Writes the given packet at the position of the buffer and advances it by {@link #encodedSize(Packet)}.
+     *
+     * @param packet the packet to encode
+     * @param dst    the target buffer
+     * @throws BufferOverflowException  if the buffer has not enough space left, the buffer is unchanged then
+     * @throws IllegalArgumentException if the options take more than {@value #MAX_OPTIONS_BYTES} bytes,
+     *                                  the buffer is unchanged then
+     */
+    @DoNotTouch
+    public static void encode(@NotNull Packet packet, @NotNull ByteBuffer dst) {
+        checkOrder(dst);
+        if (!tryEncode(packet, dst)) {
+            throw new BufferOverflowException();
+        }
+    }
+
+    /**
+     * Writes the given packet like {@link #encode} if it fits into the buffer.
+     *
+     * @return false if the buffer has not enough space left, the buffer is unchanged then
+     * @throws IllegalArgumentException if the options are too long to encode, the buffer is unchanged then
+     */
+    @DoNotTouch
+    private static boolean tryEncode(Packet packet, ByteBuffer dst) {
+        String options = optionsText(packet);
+        int optionsLength = utf8Length(options);
+        if (optionsLength > MAX_OPTIONS_BYTES) {
+            // the 16 bit length would silently wrap and the options would swallow the payload
+            throw new IllegalArgumentException("options of " + optionsLength + " bytes, at most "
+                + MAX_OPTIONS_BYTES + " can be encoded");
+        }
+        int payloadSize = payloadSize(packet);
+        if (dst.remaining() < FIXED_BYTES + optionsLength + payloadSize) {
+            return false;
+        }
+        putHeader(dst, packet.getSourcePort(), packet.getDestinationPort(), packet.getSequenceNumber(),
+            packet.getHeaderChecksum(), packet.getType());
+        ByteBuffer bytes = packet.rawBytes();
+        String data = packet.rawData();
+        dst.put(bytes != null ? BINARY_PAYLOAD : data != null ? TEXT_PAYLOAD : NO_PAYLOAD);
+        dst.putShort((short) optionsLength);
+        dst.putInt(payloadSize);
+        putUtf8(dst, options);
+        if (bytes != null) {
+            // absolute bulk copy, neither the packet nor a view of it is changed
+            dst.put(dst.position(), bytes, bytes.position(), payloadSize);
+            dst.position(dst.position() + payloadSize);
+        } else if (data != null) {
+            putUtf8(dst, data);
+        }
+        return true;
+    }
+
+    /**
+     * Reads a packet at the position of the buffer and advances the buffer behind it.
+     * The bytes of a binary packet remain a view of the buffer.
+     *
+     * @param src the source buffer
+     * @return the decoded packet or null if the buffer does not contain a complete packet, the buffer is unchanged then
+     * @throws PacketFormatException if the bytes are no valid packet, the buffer is unchanged then
+     */
+    @DoNotTouch
+    public static Packet decode(@NotNull ByteBuffer src) throws PacketFormatException {
+        checkOrder(src);
+        int position = src.position();
+        if (src.remaining() < FIXED_BYTES) {
+            return null;
+        }
+        int sequenceNumber = src.getInt(position + 4);
+        PacketType type = typeAt(src, position + 12);
+        byte kind = src.get(position + HEADER_BYTES);
+        int optionsLength = Short.toUnsignedInt(src.getShort(position + HEADER_BYTES + 1));
+        int payloadSize = src.getInt(position + HEADER_BYTES + 3);
+        checkSequenceNumber(sequenceNumber);
+        checkPayload(type, kind, payloadSize);
+        if (src.remaining() < FIXED_BYTES + optionsLength + payloadSize) {
+            return null;
+        }
+
+        int optionsStart = position + FIXED_BYTES;
+        int payloadStart = optionsStart + optionsLength;
+        TCPOptions options = optionsLength == 0 ? TCPOptions.EMPTY : TCPOptions.parse(getUtf8(src, optionsStart, optionsLength));
+        String data = kind == TEXT_PAYLOAD ? getUtf8(src, payloadStart, payloadSize) : null;
+        ByteBuffer bytes = kind == BINARY_PAYLOAD ? src.slice(payloadStart, payloadSize).asReadOnlyBuffer() : null;
+        src.position(payloadStart + payloadSize);
+        return new Packet(Short.toUnsignedInt(src.getShort(position)), Short.toUnsignedInt(src.getShort(position + 2)),
+            sequenceNumber, src.getInt(position + 8), type, data, bytes, options);
+    }
+
+    /**
+     * Writes as many of the given packets as fit into the buffer, in order.
+     *
+     * @param packets the packets to encode
+     * @param dst     the target buffer
+     * @return the number of packets written, the remaining ones did not fit
+     * @throws IllegalArgumentException if the options of a packet are too long to encode, the packets before it were written
+     */
+    @DoNotTouch
+    public static int encodeAll(@NotNull List<Packet> packets, @NotNull ByteBuffer dst) {
+        checkOrder(dst);
+        int count = 0;
+        for (Packet packet : packets) {
+            if (!tryEncode(packet, dst)) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Reads all complete packets from the buffer and adds them to the given collection.
+     * An incomplete packet at the end is left in the buffer, e.g. to be completed by the next read
+     * from a stream after {@link ByteBuffer#compact()}.
+     *
+     * @param src     the source buffer
+     * @param packets the collection to add the decoded packets to
+     * @return the number of packets read
+     * @throws PacketFormatException if the bytes are no valid packet, the packets before it were added
+     */
+    @DoNotTouch
+    public static int decodeAll(@NotNull ByteBuffer src, @NotNull Collection<? super Packet> packets) throws PacketFormatException {
+        int count = 0;
+        Packet packet;
+        while ((packet = decode(src)) != null) {
+            packets.add(packet);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Writes the header fields at the position of the buffer.
+     */
+    @DoNotTouch
+    private static void putHeader(ByteBuffer dst, int sourcePort, int destinationPort, int sequenceNumber, int checksum, PacketType type) {
+        dst.putShort((short) sourcePort);
+        dst.putShort((short) destinationPort);
+        dst.putInt(sequenceNumber);
+        dst.putInt(checksum);
+        dst.put((byte) type.ordinal());
+    }
+
+    @DoNotTouch
+    private static void checkOrder(ByteBuffer buffer) {
+        if (buffer.order() != ByteOrder.BIG_ENDIAN) {
+            throw new IllegalArgumentException("the wire format is big-endian, got a " + buffer.order() + " buffer");
+        }
+    }
+
+    @DoNotTouch
+    private static PacketType typeAt(ByteBuffer src, int index) throws PacketFormatException {
+        int ordinal = Byte.toUnsignedInt(src.get(index));
+        if (ordinal >= TYPES.length) {
+            throw new PacketFormatException("unknown packet type " + ordinal);
+        }
+        return TYPES[ordinal];
+    }
+
+    @DoNotTouch
+    private static void checkSequenceNumber(int sequenceNumber) throws PacketFormatException {
+        if (sequenceNumber <= 0) {
+            throw new PacketFormatException("sequence number " + sequenceNumber + " is not positive");
+        }
+    }
+
+    @DoNotTouch
+    private static void checkPayload(PacketType type, byte kind, int size) throws PacketFormatException {
+        if (kind != NO_PAYLOAD && kind != TEXT_PAYLOAD && kind != BINARY_PAYLOAD) {
+            throw new PacketFormatException("unknown payload kind " + kind);
+        }
+        if (type != PacketType.DATA && kind != NO_PAYLOAD) {
+            throw new PacketFormatException("a " + type + " packet cannot have payload kind " + kind);
+        }
+        if (type == PacketType.DATA && kind == NO_PAYLOAD) {
+            // a DATA packet always carries text or bytes, even if empty
+            throw new PacketFormatException("a DATA packet must have a payload");
+        }
+        // text takes at most three bytes per character
+        int limit = kind == TEXT_PAYLOAD ? 3 * Packet.MAX_SEGMENT_SIZE : kind == BINARY_PAYLOAD ? Packet.MAX_SEGMENT_SIZE : 0;
+        if (size < 0 || size > limit) {
+            throw new PacketFormatException("payload of " + size + " bytes");
+        }
+    }
+
+    @DoNotTouch
+    private static String optionsText(Packet packet) {
+        TCPOptions options = packet.getOptions();
+        return options.isEmpty() ? "" : options.toString();
+    }
+
+    @DoNotTouch
+    private static int payloadSize(Packet packet) {
+        ByteBuffer bytes = packet.rawBytes();
+        if (bytes != null) {
+            return bytes.remaining();
+        }
+        String data = packet.rawData();
+        return data == null ? 0 : utf8Length(data);
+    }
+
+    /**
+     * Returns the number of bytes the given text takes as UTF-8, see {@link #putUtf8}.
+     */
+    @DoNotTouch
+    private static int utf8Length(String text) {
+        int length = text.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                // four bytes for two characters
+                bytes += 2;
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the given text as UTF-8 directly into the buffer, which must have enough space left.
+     */
+    @DoNotTouch
+    private static void putUtf8(ByteBuffer dst, String text) {
+        int length = text.length();
+        int start = dst.position();
+        int i = 0;
+        // the leading ASCII characters, usually all of them, are written without moving the position each time
+        for (char c; i < length && (c = text.charAt(i)) < 0x80; i++) {
+            dst.put(start + i, (byte) c);
+        }
+        dst.position(start + i);
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                dst.put((byte) c);
+            } else if (c < 0x800) {
+                dst.put((byte) (0xC0 | c >> 6));
+                dst.put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                dst.put((byte) (0xF0 | codePoint >> 18));
+                dst.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+                dst.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+                dst.put((byte) (0x80 | codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                dst.put((byte) '?');
+            } else {
+                dst.put((byte) (0xE0 | c >> 12));
+                dst.put((byte) (0x80 | c >> 6 & 0x3F));
+                dst.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Reads UTF-8 text from the given region of the buffer without moving its position.
+     */
+    @DoNotTouch
+    private static String getUtf8(ByteBuffer src, int index, int length) {
+        if (src.hasArray()) {
+            return new String(src.array(), src.arrayOffset() + index, length, StandardCharsets.UTF_8);
+        }
+        // the string copies the bytes anyway, decoding from an array is much faster than from a direct buffer
+        byte[] bytes = new byte[length];
+        src.get(index, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
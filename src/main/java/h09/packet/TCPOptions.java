@@ -0,0 +1,211 @@
+package h09.packet;
+
+import org.jetbrains.annotations.NotNull;
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable set of protocol options that can be attached to a {@link Packet}.
+ * Options are simple key/value pairs, e.g. the window size a device offers during the SYN exchange.
+ * Devices ignore options they do not know, so older peers keep working.
+ */
+@DoNotTouch
+public final class TCPOptions {
+
+    /**
+     * Options without any entries.
+     */
+    @DoNotTouch
+    public static final TCPOptions EMPTY = new TCPOptions(Collections.emptyMap());
+
+    /**
+     * Key of the window size, i.e. the number of DATA packets that may be unacknowledged at once.
+     */
+    @DoNotTouch
+    public static final String WINDOW = "win";
+
+    /**
+     * Key of the maximum segment size, i.e. the number of characters or bytes a DATA packet may carry.
+     */
+    @DoNotTouch
+    public static final String MSS = "mss";
+
+    /**
+     * Key of the keep-alive option. A client offers it to reuse the connection for several requests,
+     * the server answers with the number of milliseconds it keeps an idle connection open.
+     */
+    @DoNotTouch
+    public static final String KEEP_ALIVE = "ka";
+
+    /**
+     * Key of the option offering and agreeing to selective acknowledgements during the SYN exchange.
+     */
+    @DoNotTouch
+    public static final String SACK_PERMITTED = "sackok";
+
+    /**
+     * Key of the selective acknowledgement blocks of an ACK packet, e.g. {@code "120-131,150-161"}.
+     * Every block spans the sequence number of the first and the acknowledgement number of the last
+     * of several consecutive DATA packets the receiver holds beyond the cumulative acknowledgement.
+     */
+    @DoNotTouch
+    public static final String SACK = "sack";
+
+    /**
+     * Key of the receive window of an ACK packet, i.e. the number of further packets the receiver can queue.
+     * The sender keeps at most that many DATA packets unacknowledged, but always at least one.
+     * An ACK without it does not limit the sender beyond the window agreed on in the SYN exchange.
+     */
+    @DoNotTouch
+    public static final String RECEIVE_WINDOW = "rwnd";
+
+    /**
+     * The entries of these options in insertion order.
+     */
+    @DoNotTouch
+    private final Map<String, String> entries;
+
+    /**
+     * The string form, created on the first call of {@link #toString()}. Checksums read it for every packet.
+     */
+    @DoNotTouch
+    private String text;
+
+    /**
+     * Constructs new options from the given entries.
+     *
+     * @param entries the entries, not copied
+     */
+    @DoNotTouch
+    private TCPOptions(Map<String, String> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Returns a copy of these options with the given entry added or replaced.
+     *
+     * @param key   the key of the entry
+     * @param value the value of the entry
+     * @return the new options
+     */
+    @DoNotTouch
+    public TCPOptions with(String key, Object value) {
+        assert key.indexOf('=') < 0 && key.indexOf(';') < 0;
+        Map<String, String> copy = new LinkedHashMap<>(entries);
+        copy.put(key, String.valueOf(value));
+        return new TCPOptions(copy);
+    }
+
+    /**
+     * Checks whether an entry with the given key exists.
+     *
+     * @param key the key to look up
+     * @return true if the entry exists
+     */
+    @DoNotTouch
+    public boolean has(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Returns the value of the given key.
+     *
+     * @param key the key to look up
+     * @return the value or null if there is no such entry
+     */
+    @DoNotTouch
+    public String get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Returns the value of the given key as an integer.
+     *
+     * @param key          the key to look up
+     * @param defaultValue the value to return if there is no valid entry
+     * @return the value or the default value
+     */
+    @DoNotTouch
+    public int getInt(String key, int defaultValue) {
+        String value = entries.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Checks whether these options have no entries.
+     *
+     * @return true if there are no entries
+     */
+    @DoNotTouch
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Parses options from their string form as returned by {@link #toString()}.
+     *
+     * @param text the string form, may be null
+     * @return the parsed options
+     */
+    @DoNotTouch
+    public static TCPOptions parse(String text) {
+        if (text == null || text.isEmpty()) {
+            return EMPTY;
+        }
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (String entry : text.split(";")) {
+            int split = entry.indexOf('=');
+            if (split < 0) {
+                entries.put(entry, "");
+            } else {
+                entries.put(entry.substring(0, split), entry.substring(split + 1));
+            }
+        }
+        return new TCPOptions(entries);
+    }
+
+    /**
+     * Returns the string form of these options, e.g. {@code "win=8;mss=512"}.
+     *
+     * @return the string form
+     */
+    @Override
+    @DoNotTouch
+    public @NotNull String toString() {
+        String text = this.text;
+        if (text == null) {
+            StringBuilder builder = new StringBuilder();
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                if (!builder.isEmpty()) {
+                    builder.append(';');
+                }
+                builder.append(entry.getKey()).append('=').append(entry.getValue());
+            }
+            // immutable, so threads racing to create it create equal strings
+            this.text = text = builder.toString();
+        }
+        return text;
+    }
+
+    @Override
+    @DoNotTouch
+    public boolean equals(Object o) {
+        return o instanceof TCPOptions other && entries.equals(other.entries);
+    }
+
+    @Override
+    @DoNotTouch
+    public int hashCode() {
+        return entries.hashCode();
+    }
+}
@@ -0,0 +1,197 @@
+package h09.packet;
+
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+import java.util.zip.Checksum;
+
+/**
+ * A {@link PacketChecksum} backed by a {@link Checksum} of {@code java.util.zip}.
+ * <p>
+ * The checksums and the small scratch arrays the header fields, the options and the data are copied through
+ * are kept in a pool of a few slots per processor. A thread takes the state of its slot and puts it back
+ * afterwards, so in the steady state calculating a checksum does not allocate, while the number of states
+ * stays bounded no matter how many (virtual) threads send packets. A thread finding its slot empty uses
+ * a new state. Text is checksummed as UTF-16 code units, which keeps it allocation-free without encoding it.
+ */
+@DoNotTouch
+final class ZipPacketChecksum implements PacketChecksum {
+
+    /**
+     * The size of the scratch array. Longer data is checksummed in several steps.
+     */
+    @DoNotTouch
+    private static final int SCRATCH_SIZE = 256;
+
+    /**
+     * The number of pooled states, a power of two.
+     */
+    @DoNotTouch
+    private static final int POOL_SIZE = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+
+    /**
+     * The name of the algorithm.
+     */
+    @DoNotTouch
+    private final String name;
+
+    /**
+     * Creates the checksum of a new state.
+     */
+    @DoNotTouch
+    private final Supplier<Checksum> factory;
+
+    /**
+     * The idle states, a slot is null while its state is in use.
+     */
+    @DoNotTouch
+    private final AtomicReferenceArray<State> pool = new AtomicReferenceArray<>(POOL_SIZE);
+
+    /**
+     * Creates a new packet checksum using checksums of the given factory.
+     *
+     * @param name    the name of the algorithm
+     * @param factory creates the checksum of a pooled state
+     */
+    @DoNotTouch
+    ZipPacketChecksum(String name, Supplier<Checksum> factory) {
+        this.name = name;
+        this.factory = factory;
+    }
+
+    @Override
+    @DoNotTouch
+    public int compute(int sourcePort, int destinationPort, int sequenceNumber, PacketType type, String data,
+                       TCPOptions options) {
+        int slot = slot();
+        State s = acquire(slot);
+        int length = s.header(sourcePort, destinationPort, sequenceNumber, type);
+        length = s.text(length, options.isEmpty() ? null : options.toString());
+        length = s.text(length, data);
+        s.checksum.update(s.scratch, 0, length);
+        int value = (int) s.checksum.getValue();
+        release(slot, s);
+        return value;
+    }
+
+    @Override
+    @DoNotTouch
+    public int compute(int sourcePort, int destinationPort, int sequenceNumber, ByteBuffer bytes, TCPOptions options) {
+        int slot = slot();
+        State s = acquire(slot);
+        int length = s.header(sourcePort, destinationPort, sequenceNumber, PacketType.DATA);
+        length = s.text(length, options.isEmpty() ? null : options.toString());
+        s.checksum.update(s.scratch, 0, length);
+        // read-only buffers have no accessible array, absolute reads keep the buffer untouched
+        for (int i = bytes.position(); i < bytes.limit(); i += SCRATCH_SIZE) {
+            int n = Math.min(SCRATCH_SIZE, bytes.limit() - i);
+            bytes.get(i, s.scratch, 0, n);
+            s.checksum.update(s.scratch, 0, n);
+        }
+        int value = (int) s.checksum.getValue();
+        release(slot, s);
+        return value;
+    }
+
+    /**
+     * Returns the pool slot of the current thread.
+     *
+     * @return the index of the slot
+     */
+    @DoNotTouch
+    private static int slot() {
+        long id = Thread.currentThread().threadId();
+        return (int) (id ^ id >>> 16) & (POOL_SIZE - 1);
+    }
+
+    /**
+     * Takes the state of the given slot or creates a new one if another thread uses it.
+     *
+     * @param slot the slot of the current thread
+     * @return the state, reset and owned by the current thread until released
+     */
+    @DoNotTouch
+    private State acquire(int slot) {
+        State s = pool.getAndSet(slot, null);
+        if (s == null) {
+            s = new State(factory.get());
+        }
+        s.checksum.reset();
+        return s;
+    }
+
+    /**
+     * Puts a state back into the given slot, unless another thread already filled it.
+     *
+     * @param slot the slot of the current thread
+     * @param s    the state to put back
+     */
+    @DoNotTouch
+    private void release(int slot, State s) {
+        pool.compareAndSet(slot, null, s);
+    }
+
+    @Override
+    @DoNotTouch
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * A checksum and its scratch array.
+     */
+    @DoNotTouch
+    private static final class State {
+
+        private final Checksum checksum;
+        private final byte[] scratch = new byte[SCRATCH_SIZE];
+
+        State(Checksum checksum) {
+            this.checksum = checksum;
+        }
+
+        /**
+         * Writes the header fields to the start of the scratch array.
+         *
+         * @return the number of bytes written
+         */
+        int header(int sourcePort, int destinationPort, int sequenceNumber, PacketType type) {
+            scratch[0] = (byte) (sourcePort >>> 8);
+            scratch[1] = (byte) sourcePort;
+            scratch[2] = (byte) (destinationPort >>> 8);
+            scratch[3] = (byte) destinationPort;
+            scratch[4] = (byte) (sequenceNumber >>> 24);
+            scratch[5] = (byte) (sequenceNumber >>> 16);
+            scratch[6] = (byte) (sequenceNumber >>> 8);
+            scratch[7] = (byte) sequenceNumber;
+            scratch[8] = (byte) type.ordinal();
+            return 9;
+        }
+
+        /**
+         * Appends the UTF-16 code units of the given text to the scratch array,
+         * passing the array to the checksum whenever it is full.
+         *
+         * @param length the number of bytes already in the scratch array
+         * @param text   the text to append or null
+         * @return the number of bytes in the scratch array afterwards
+         */
+        int text(int length, String text) {
+            if (text == null) {
+                return length;
+            }
+            for (int i = 0; i < text.length(); i++) {
+                if (length > SCRATCH_SIZE - 2) {
+                    checksum.update(scratch, 0, length);
+                    length = 0;
+                }
+                char c = text.charAt(i);
+                scratch[length++] = (byte) (c >>> 8);
+                scratch[length++] = (byte) c;
+            }
+            return length;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package h09.tools;
 
+import h09.device.AsyncTCPClient;
 import h09.device.TCPClient;
 import h09.exceptions.InternetException;
 import h09.exceptions.packet.PacketException;
@@ -8,14 +9,45 @@ import h09.exceptions.tcp.TCPException;
 import org.tudalgo.algoutils.student.annotation.DoNotTouch;
 import org.tudalgo.algoutils.student.annotation.StudentImplementationRequired;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Helper for simple TCP request/response calls.
  * Creates a client, connects, sends a string, reads the reply, then closes.
+ * Callers sending many requests can reuse kept-alive connections of their own {@link TCPClientPool} instead.
  * Prints short error messages on failure.
  */
 @DoNotTouch
 public class Requests {
 
+    /**
+     * Like {@link #fetch(int, String)}, but uses a kept-alive connection of the given pool.
+     * The pool belongs to the caller, who closes it once done, e.g. before switching the {@link h09.connection.Clock}.
+     *
+     * @param pool    the pool providing the connection
+     * @param from    the server port to connect to
+     * @param request the text to send
+     * @return the server reply, or null on error
+     */
+    @DoNotTouch
+    public static String fetch(TCPClientPool pool, int from, String request) {
+        try {
+            return pool.fetch(from, request);
+        } catch (NoFreePortException e) {
+            printNoFreePort();
+            return null;
+        } catch (TCPException e) {
+            printTCPExc(e);
+            return null;
+        } catch (PacketException e) {
+            printPacketExc(e);
+            return null;
+        } catch (InternetException e) {
+            printInternetExc(e);
+            return null;
+        }
+    }
+
     /**
      * Sends the given request to the server at the given port using a new client.
      * The reply from the server is returned. If an error occurs during transport
@@ -56,6 +88,28 @@ public class Requests {
         }
     }
 
+    /**
+     * Sends the given request to the server at the given port using a new {@link AsyncTCPClient}
+     * without blocking the calling thread. The client is closed once the reply arrived or the exchange failed.
+     *
+     * @param from    the server port to connect to
+     * @param request the text to send
+     * @return a future completed with the server reply, or completed exceptionally on error
+     */
+    @DoNotTouch
+    public static CompletableFuture<String> fetchAsync(int from, String request) {
+        AsyncTCPClient client;
+        try {
+            client = new AsyncTCPClient(from);
+        } catch (InternetException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return client.connect()
+            .thenCompose(ignored -> client.send(request))
+            .thenCompose(ignored -> client.receive())
+            .whenComplete((reply, e) -> client.close());
+    }
+
     @DoNotTouch
     private static void printInternetExc(InternetException e) {
         System.out.println("Some other InternetException occurred: " + e.getMessage());
@@ -0,0 +1,367 @@
+package h09.tools;
+
+import h09.connection.Clock;
+import h09.connection.InternetPool;
+import h09.device.TCPClient;
+import h09.exceptions.InternetException;
+import h09.exceptions.packet.PacketException;
+import h09.packet.Packet;
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of kept-alive {@link TCPClient TCPClients}, keyed by server port.
+ * <p>
+ * Instead of connecting a new client for every request, {@link #fetch(int, String)} reuses an idle
+ * connection to the same server, which saves the SYN handshake and the port allocation.
+ * At most {@code maxPerServer} connections to a server exist at once, further requests wait for one
+ * to become idle. Before a connection is reused it is health checked: connections closed by the server
+ * and connections idle for longer than the idle timeout or half of the server's keep-alive timeout
+ * are closed instead. An exchange that fails is not retried: the failure may have happened after the server
+ * received and handled the request, so a retry could run a request twice.
+ */
+@DoNotTouch
+public class TCPClientPool implements AutoCloseable {
+
+    /**
+     * The default maximum number of connections to a single server.
+     */
+    @DoNotTouch
+    public static final int DEFAULT_MAX_PER_SERVER = 64;
+
+    /**
+     * The default number of milliseconds an idle connection is kept in the pool.
+     */
+    @DoNotTouch
+    public static final long DEFAULT_IDLE_TIMEOUT = 10_000;
+
+    /**
+     * The window pooled connections offer the server. Windowed connections also offer selective
+     * acknowledgements, so a lost packet of a longer request or response is resent without waiting for a timeout.
+     */
+    @DoNotTouch
+    public static final int DEFAULT_WINDOW = 8;
+
+    /**
+     * The maximum number of connections to a single server.
+     */
+    @DoNotTouch
+    private final int maxPerServer;
+
+    /**
+     * The number of milliseconds an idle connection is kept in the pool.
+     */
+    @DoNotTouch
+    private final long idleTimeout;
+
+    /**
+     * The connections of every server port.
+     */
+    @DoNotTouch
+    private final Map<Integer, ServerConnections> servers = new ConcurrentHashMap<>();
+
+    @DoNotTouch
+    private final LongAdder created = new LongAdder();
+
+    @DoNotTouch
+    private final LongAdder reused = new LongAdder();
+
+    @DoNotTouch
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * Constructs a pool with {@link #DEFAULT_MAX_PER_SERVER} connections per server
+     * and an idle timeout of {@link #DEFAULT_IDLE_TIMEOUT} milliseconds.
+     */
+    @DoNotTouch
+    public TCPClientPool() {
+        this(DEFAULT_MAX_PER_SERVER, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Constructs a pool with the given limits.
+     *
+     * @param maxPerServer the maximum number of connections to a single server
+     * @param idleTimeout  the number of milliseconds an idle connection is kept in the pool
+     */
+    @DoNotTouch
+    public TCPClientPool(int maxPerServer, long idleTimeout) {
+        assert maxPerServer > 0 && idleTimeout > 0;
+        this.maxPerServer = maxPerServer;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Sends the given request to the server at the given port using a pooled connection
+     * and returns the reply of the server.
+     *
+     * @param serverPort the server port to connect to
+     * @param request    the text to send
+     * @return the server reply
+     * @throws InternetException If there is an error with the network connection
+     * @throws PacketException   If there is an error with packet handling
+     */
+    @DoNotTouch
+    public String fetch(int serverPort, String request) throws InternetException, PacketException {
+        ServerConnections connections = servers.computeIfAbsent(serverPort, p -> new ServerConnections(maxPerServer));
+        try {
+            connections.permits.acquire();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e); // mitigate to handler
+        }
+        try {
+            // only connections found unhealthy before anything was sent are replaced
+            TCPClient client = connections.pollHealthy();
+            if (client != null) {
+                reused.increment();
+            } else {
+                client = connect(serverPort);
+            }
+            return exchange(connections, client, request);
+        } finally {
+            connections.permits.release();
+        }
+    }
+
+    /**
+     * Connects a new client asking for keep-alive and a window of {@link #DEFAULT_WINDOW}.
+     *
+     * @param serverPort the server port to connect to
+     * @return the connected client
+     * @throws InternetException If there is an error with the network connection
+     * @throws PacketException   If there is an error with packet handling
+     */
+    @DoNotTouch
+    private TCPClient connect(int serverPort) throws InternetException, PacketException {
+        TCPClient client = new TCPClient(serverPort, DEFAULT_WINDOW, Packet.DEFAULT_SEGMENT_SIZE, true);
+        try {
+            client.connect();
+        } catch (InternetException | PacketException | RuntimeException e) {
+            client.close();
+            throw e;
+        }
+        created.increment();
+        return client;
+    }
+
+    /**
+     * Sends the request and receives the reply, then returns the client to the pool if it can be reused
+     * and closes it otherwise.
+     *
+     * @param connections the connections of the server
+     * @param client      the connected client
+     * @param request     the text to send
+     * @return the server reply
+     * @throws InternetException If there is an error with the network connection
+     * @throws PacketException   If there is an error with packet handling
+     */
+    @DoNotTouch
+    private String exchange(ServerConnections connections, TCPClient client, String request)
+        throws InternetException, PacketException {
+        String reply;
+        try {
+            client.send(request);
+            reply = client.receive();
+        } catch (InternetException | PacketException | RuntimeException e) {
+            client.close();
+            throw e;
+        }
+        if (client.isKeepAlive() && client.isOpen()) {
+            connections.offer(new IdleClient(client, InternetPool.getClock().nanoTime()));
+        } else {
+            client.close();
+        }
+        return reply;
+    }
+
+    /**
+     * Closes all idle connections that are no longer healthy.
+     */
+    @DoNotTouch
+    public void evictIdle() {
+        for (ServerConnections connections : servers.values()) {
+            connections.evictExpired();
+        }
+    }
+
+    /**
+     * Returns the number of connections this pool has established.
+     *
+     * @return the number of created connections
+     */
+    @DoNotTouch
+    public long getCreatedConnections() {
+        return created.sum();
+    }
+
+    /**
+     * Returns the number of requests that were sent on a reused connection.
+     *
+     * @return the number of reuses
+     */
+    @DoNotTouch
+    public long getReusedConnections() {
+        return reused.sum();
+    }
+
+    /**
+     * Returns the number of idle connections closed because they were unhealthy or expired.
+     *
+     * @return the number of evicted connections
+     */
+    @DoNotTouch
+    public long getEvictedConnections() {
+        return evicted.sum();
+    }
+
+    /**
+     * Returns the number of idle connections currently kept in the pool.
+     *
+     * @return the number of idle connections
+     */
+    @DoNotTouch
+    public int getIdleConnections() {
+        int idle = 0;
+        for (ServerConnections connections : servers.values()) {
+            synchronized (connections) {
+                idle += connections.idle.size();
+            }
+        }
+        return idle;
+    }
+
+    /**
+     * Closes all idle connections. Connections in use are closed when their exchange finishes
+     * only if they cannot be reused, so the pool should not be used anymore afterwards.
+     */
+    @Override
+    @DoNotTouch
+    public void close() {
+        for (ServerConnections connections : servers.values()) {
+            connections.closeAll();
+        }
+        servers.clear();
+    }
+
+    @Override
+    @DoNotTouch
+    public String toString() {
+        return "TCPClientPool{" +
+            "created=" + created.sum() +
+            ", reused=" + reused.sum() +
+            ", evicted=" + evicted.sum() +
+            ", idle=" + getIdleConnections() +
+            '}';
+    }
+
+    /**
+     * An idle client and the time it was returned to the pool.
+     *
+     * @param client   the kept-alive client
+     * @param idleFrom the {@link Clock#nanoTime()} the client became idle
+     */
+    @DoNotTouch
+    private record IdleClient(TCPClient client, long idleFrom) {
+    }
+
+    /**
+     * The connections to a single server. Idle connections are reused most recently used first,
+     * so the least recently used ones expire at the other end of the deque.
+     */
+    @DoNotTouch
+    private final class ServerConnections {
+
+        private final Semaphore permits;
+        private final Deque<IdleClient> idle = new ArrayDeque<>();
+
+        ServerConnections(int maxConnections) {
+            this.permits = new Semaphore(maxConnections, true);
+        }
+
+        /**
+         * Removes and returns the most recently used healthy idle client, closing unhealthy ones.
+         *
+         * @return a healthy client or null if there is none
+         */
+        TCPClient pollHealthy() {
+            long now = InternetPool.getClock().nanoTime();
+            while (true) {
+                IdleClient candidate;
+                synchronized (this) {
+                    candidate = idle.pollFirst();
+                }
+                if (candidate == null) {
+                    return null;
+                }
+                if (isHealthy(candidate, now)) {
+                    return candidate.client();
+                }
+                evict(candidate);
+            }
+        }
+
+        /**
+         * Returns an idle client to the pool and evicts expired ones.
+         *
+         * @param client the idle client
+         */
+        void offer(IdleClient client) {
+            synchronized (this) {
+                idle.addFirst(client);
+            }
+            evictExpired();
+        }
+
+        /**
+         * Closes the least recently used idle clients as long as they are unhealthy.
+         */
+        void evictExpired() {
+            long now = InternetPool.getClock().nanoTime();
+            while (true) {
+                IdleClient candidate;
+                synchronized (this) {
+                    candidate = idle.peekLast();
+                    if (candidate == null || isHealthy(candidate, now)) {
+                        return;
+                    }
+                    idle.pollLast();
+                }
+                evict(candidate);
+            }
+        }
+
+        /**
+         * Closes all idle clients.
+         */
+        void closeAll() {
+            while (true) {
+                IdleClient candidate;
+                synchronized (this) {
+                    candidate = idle.pollFirst();
+                }
+                if (candidate == null) {
+                    return;
+                }
+                candidate.client().close();
+            }
+        }
+
+        private boolean isHealthy(IdleClient candidate, long now) {
+            long idleMillis = (now - candidate.idleFrom()) / 1_000_000;
+            // half of the server's timeout leaves room for the request to reach the server in time
+            long limit = Math.min(idleTimeout, candidate.client().getKeepAliveTimeout() / 2);
+            return candidate.client().isOpen() && idleMillis < limit;
+        }
+
+        private void evict(IdleClient candidate) {
+            evicted.increment();
+            candidate.client().close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package h09.utils;
+
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe accumulator for latency samples.
+ * Keeps count, total and maximum of all recorded samples in nanoseconds.
+ */
+@DoNotTouch
+public class LatencyStats {
+
+    /**
+     * Number of recorded samples.
+     */
+    @DoNotTouch
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * Sum of all recorded samples in nanoseconds.
+     */
+    @DoNotTouch
+    private final LongAdder totalNanos = new LongAdder();
+
+    /**
+     * Largest recorded sample in nanoseconds.
+     */
+    @DoNotTouch
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records a single latency sample.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    @DoNotTouch
+    public void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Returns the number of recorded samples.
+     *
+     * @return the number of samples
+     */
+    @DoNotTouch
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the sum of all recorded samples.
+     *
+     * @return the total latency in nanoseconds
+     */
+    @DoNotTouch
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * Returns the largest recorded sample.
+     *
+     * @return the maximum latency in nanoseconds
+     */
+    @DoNotTouch
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Returns the mean of all recorded samples.
+     *
+     * @return the mean latency in nanoseconds or 0 if nothing was recorded
+     */
+    @DoNotTouch
+    public double getMeanNanos() {
+        long n = getCount();
+        return n == 0 ? 0 : (double) getTotalNanos() / n;
+    }
+
+    /**
+     * Discards all recorded samples.
+     */
+    @DoNotTouch
+    public void reset() {
+        count.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+
+    @Override
+    @DoNotTouch
+    public String toString() {
+        return "LatencyStats{" +
+            "count=" + getCount() +
+            ", meanNanos=" + (long) getMeanNanos() +
+            ", maxNanos=" + getMaxNanos() +
+            '}';
+    }
+}
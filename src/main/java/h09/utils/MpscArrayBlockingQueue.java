@@ -0,0 +1,326 @@
+package h09.utils;
+
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free {@link BlockingQueue} for many producers and a single consumer, backed by a ring buffer.
+ * Producers claim a slot with one compare-and-set and neither lock nor allocate; the consumer waits for
+ * elements with the given {@link WaitStrategy} and only needs a wake-up from the producers when it parks.
+ * <p>
+ * All removing operations, including {@link #iterator()}, must only be called by one consumer thread at a time.
+ * Offering to a full queue fails, {@link #add(Object)} throws an {@link IllegalStateException} and
+ * {@link #put(Object)} yields until there is space. An element whose producer has not finished offering
+ * yet is not visible to the consumer.
+ *
+ * @param <E> the type of the elements
+ */
+@DoNotTouch
+public class MpscArrayBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    /**
+     * The capacity of queues constructed without one.
+     */
+    @DoNotTouch
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * How often a waiting consumer spins before it yields or parks. Spinning on a single processor only
+     * delays the producer, like in {@link java.util.concurrent.SynchronousQueue}.
+     */
+    @DoNotTouch
+    private static final int SPIN_TRIES = Runtime.getRuntime().availableProcessors() < 2 ? 0 : 100;
+
+    /**
+     * How often a waiting consumer yields after spinning before it parks.
+     */
+    @DoNotTouch
+    private static final int YIELD_TRIES = 50;
+
+    /**
+     * The slots of the ring buffer, an empty slot is null.
+     */
+    @DoNotTouch
+    private final AtomicReferenceArray<E> buffer;
+
+    /**
+     * The index mask of the buffer, its length is a power of two.
+     */
+    @DoNotTouch
+    private final int mask;
+
+    /**
+     * How the consumer waits for elements.
+     */
+    @DoNotTouch
+    private final WaitStrategy waitStrategy;
+
+    /**
+     * The number of slots claimed by producers so far.
+     */
+    @DoNotTouch
+    private final AtomicLong producerIndex = new AtomicLong();
+
+    /**
+     * The number of elements removed by the consumer so far, only written by the consumer.
+     */
+    @DoNotTouch
+    private final AtomicLong consumerIndex = new AtomicLong();
+
+    /**
+     * A producer index below which the queue is known to have space, saves producers reading {@link #consumerIndex}.
+     */
+    @DoNotTouch
+    private volatile long producerLimit;
+
+    /**
+     * The parked consumer or null if the consumer does not park.
+     */
+    @DoNotTouch
+    private volatile Thread waiter;
+
+    /**
+     * Constructs a new empty queue.
+     *
+     * @param capacity     the minimum capacity, rounded up to a power of two
+     * @param waitStrategy how the consumer waits for elements
+     */
+    @DoNotTouch
+    public MpscArrayBlockingQueue(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("invalid capacity: " + capacity);
+        }
+        int length = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.buffer = new AtomicReferenceArray<>(length);
+        this.mask = length - 1;
+        this.waitStrategy = Objects.requireNonNull(waitStrategy);
+        this.producerLimit = length;
+    }
+
+    /**
+     * Constructs a new empty queue with {@link #DEFAULT_CAPACITY}.
+     *
+     * @param waitStrategy how the consumer waits for elements
+     */
+    @DoNotTouch
+    public MpscArrayBlockingQueue(WaitStrategy waitStrategy) {
+        this(DEFAULT_CAPACITY, waitStrategy);
+    }
+
+    /**
+     * Returns how the consumer waits for elements.
+     *
+     * @return the wait strategy
+     */
+    @DoNotTouch
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * Returns the number of elements the queue can hold.
+     *
+     * @return the capacity
+     */
+    @DoNotTouch
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    @Override
+    @DoNotTouch
+    public boolean offer(E element) {
+        Objects.requireNonNull(element);
+        long index;
+        do {
+            index = producerIndex.get();
+            if (index >= producerLimit) {
+                long limit = consumerIndex.get() + getCapacity();
+                if (index >= limit) {
+                    return false;
+                }
+                producerLimit = limit;
+            }
+        } while (!producerIndex.compareAndSet(index, index + 1));
+        buffer.setRelease((int) index & mask, element);
+        if (waitStrategy == WaitStrategy.PARKING) {
+            // the consumer checks the producer index after announcing itself, so one of both sees the other
+            Thread consumer = waiter;
+            if (consumer != null) {
+                LockSupport.unpark(consumer);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    @DoNotTouch
+    public void put(E element) throws InterruptedException {
+        while (!offer(element)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            Thread.yield();
+        }
+    }
+
+    @Override
+    @DoNotTouch
+    public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(element)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (deadline - System.nanoTime() <= 0) {
+                return false;
+            }
+            Thread.yield();
+        }
+        return true;
+    }
+
+    @Override
+    @DoNotTouch
+    public E poll() {
+        long index = consumerIndex.getPlain();
+        int slot = (int) index & mask;
+        E element = buffer.getAcquire(slot);
+        if (element == null) {
+            return null;
+        }
+        buffer.setPlain(slot, null);
+        // publishes the emptied slot to the producers
+        consumerIndex.setRelease(index + 1);
+        return element;
+    }
+
+    @Override
+    @DoNotTouch
+    public E take() throws InterruptedException {
+        E element = poll();
+        return element != null ? element : await(false, 0);
+    }
+
+    @Override
+    @DoNotTouch
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E element = poll();
+        return element != null ? element : await(true, unit.toNanos(timeout));
+    }
+
+    /**
+     * Waits with the {@link WaitStrategy} until an element can be removed.
+     *
+     * @param timed whether to give up after the given time
+     * @param nanos the time to wait in nanoseconds if timed
+     * @return the removed element or null if the time ran out
+     * @throws InterruptedException if the consumer is interrupted while waiting
+     */
+    @DoNotTouch
+    private E await(boolean timed, long nanos) throws InterruptedException {
+        long deadline = System.nanoTime() + nanos;
+        for (int tries = 0; ; tries++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            long remaining = deadline - System.nanoTime();
+            if (timed && remaining <= 0) {
+                return null;
+            }
+            if (waitStrategy == WaitStrategy.BUSY_SPIN || tries < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else if (waitStrategy == WaitStrategy.YIELDING || tries < SPIN_TRIES + YIELD_TRIES) {
+                Thread.yield();
+            } else {
+                waiter = Thread.currentThread();
+                // a producer that missed the waiter has already claimed its slot
+                if (producerIndex.get() == consumerIndex.getPlain()) {
+                    if (timed) {
+                        LockSupport.parkNanos(this, remaining);
+                    } else {
+                        LockSupport.park(this);
+                    }
+                }
+                waiter = null;
+            }
+            E element = poll();
+            if (element != null) {
+                return element;
+            }
+        }
+    }
+
+    @Override
+    @DoNotTouch
+    public E peek() {
+        return buffer.getAcquire((int) consumerIndex.getPlain() & mask);
+    }
+
+    @Override
+    @DoNotTouch
+    public int size() {
+        long consumed = consumerIndex.get();
+        long produced = producerIndex.get();
+        return (int) Math.max(0, Math.min(produced - consumed, getCapacity()));
+    }
+
+    @Override
+    @DoNotTouch
+    public int remainingCapacity() {
+        return getCapacity() - size();
+    }
+
+    @Override
+    @DoNotTouch
+    public int drainTo(Collection<? super E> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    @DoNotTouch
+    public int drainTo(Collection<? super E> collection, int maxElements) {
+        if (collection == this) {
+            throw new IllegalArgumentException();
+        }
+        int drained = 0;
+        E element;
+        while (drained < maxElements && (element = poll()) != null) {
+            collection.add(element);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the visible elements, it does not support removing.
+     *
+     * @return the iterator
+     */
+    @Override
+    @DoNotTouch
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<>();
+        long end = producerIndex.get();
+        for (long index = consumerIndex.getPlain(); index < end; index++) {
+            E element = buffer.getAcquire((int) index & mask);
+            if (element == null) {
+                break;
+            }
+            snapshot.add(element);
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+}
@@ -0,0 +1,95 @@
+package h09.utils;
+
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unbounded lock-free queue for many producers and a single consumer.
+ * Producers only swap the tail, so offering never blocks or retries.
+ * {@link #poll()} and {@link #isEmpty()} must only be called by the one consumer thread at a time.
+ *
+ * @param <E> the type of the elements
+ */
+@DoNotTouch
+public class MpscQueue<E> {
+
+    /**
+     * The last node of the queue, shared by all producers.
+     */
+    @DoNotTouch
+    private final AtomicReference<Node<E>> tail;
+
+    /**
+     * The node before the first element, only accessed by the consumer.
+     */
+    @DoNotTouch
+    private Node<E> head;
+
+    /**
+     * Constructs a new empty queue.
+     */
+    @DoNotTouch
+    public MpscQueue() {
+        Node<E> stub = new Node<>(null);
+        this.head = stub;
+        this.tail = new AtomicReference<>(stub);
+    }
+
+    /**
+     * Appends an element to the queue. May be called by any thread.
+     *
+     * @param element the element to append, must not be null
+     */
+    @DoNotTouch
+    public void offer(E element) {
+        assert element != null;
+        Node<E> node = new Node<>(element);
+        tail.getAndSet(node).next = node;
+    }
+
+    /**
+     * Removes the first element of the queue. Must only be called by the consumer.
+     * An element whose producer has not finished {@link #offer(Object)} yet is not visible.
+     *
+     * @return the first element or null if the queue is empty
+     */
+    @DoNotTouch
+    public E poll() {
+        Node<E> next = head.next;
+        if (next == null) {
+            return null;
+        }
+        E element = next.element;
+        next.element = null;
+        head = next;
+        return element;
+    }
+
+    /**
+     * Checks whether the queue contains a visible element. Must only be called by the consumer.
+     *
+     * @return true if {@link #poll()} would return null
+     */
+    @DoNotTouch
+    public boolean isEmpty() {
+        return head.next == null;
+    }
+
+    /**
+     * A single node of the linked queue.
+     *
+     * @param <E> the type of the element
+     */
+    @DoNotTouch
+    private static class Node<E> {
+
+        private E element;
+        private volatile Node<E> next;
+
+        Node(E element) {
+            this.element = element;
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+package h09.utils;
+
+import h09.packet.Packet;
+import h09.packet.PacketType;
+import h09.packet.TCPOptions;
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Holds DATA packets a receiver of a windowed transfer got ahead of the packet it expects next,
+ * so they do not have to be sent again once the missing packet arrives.
+ * The held packets are reported to the sender as selective acknowledgement blocks, see {@link TCPOptions#SACK}.
+ * <p>
+ * Sequence numbers follow the scheme of {@link TCPUtils#sendWindowed}: the packet after a DATA packet with
+ * sequence number {@code s} and payload length {@code n} has the sequence number {@code s + n + 2}.
+ */
+@DoNotTouch
+public class ReassemblyBuffer {
+
+    /**
+     * The default maximum number of held packets.
+     */
+    @DoNotTouch
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * The maximum number of blocks reported in one acknowledgement.
+     */
+    @DoNotTouch
+    public static final int MAX_SACK_BLOCKS = 8;
+
+    /**
+     * The held packets by sequence number.
+     */
+    @DoNotTouch
+    private final TreeMap<Integer, Packet> packets = new TreeMap<>();
+
+    /**
+     * The maximum number of held packets.
+     */
+    @DoNotTouch
+    private final int capacity;
+
+    /**
+     * Constructs a buffer holding up to {@value #DEFAULT_CAPACITY} packets.
+     */
+    @DoNotTouch
+    public ReassemblyBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a buffer holding up to the given number of packets.
+     *
+     * @param capacity the maximum number of held packets
+     */
+    @DoNotTouch
+    public ReassemblyBuffer(int capacity) {
+        assert capacity > 0;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Holds a DATA packet that arrived ahead of the expected one.
+     *
+     * @param packet the packet
+     * @return true if the packet is held, false if it is no DATA packet, a duplicate or the buffer is full
+     */
+    @DoNotTouch
+    public boolean add(Packet packet) {
+        if (packet.getType() != PacketType.DATA || packets.size() >= capacity) {
+            return false;
+        }
+        return packets.putIfAbsent(packet.getSequenceNumber(), packet) == null;
+    }
+
+    /**
+     * Removes and returns the held packet with the given sequence number.
+     * Held packets before it are outdated and discarded.
+     *
+     * @param sequenceNumber the expected sequence number
+     * @return the packet or null if it is not held
+     */
+    @DoNotTouch
+    public Packet poll(int sequenceNumber) {
+        packets.headMap(sequenceNumber).clear();
+        return packets.remove(sequenceNumber);
+    }
+
+    /**
+     * Returns the number of held packets.
+     *
+     * @return the number of held packets
+     */
+    @DoNotTouch
+    public int size() {
+        return packets.size();
+    }
+
+    /**
+     * Returns the given options extended by the selective acknowledgement blocks of the held packets.
+     *
+     * @param options the options of the acknowledgement, may be null
+     * @return the options, unchanged if no packets are held
+     */
+    @DoNotTouch
+    public TCPOptions withSack(TCPOptions options) {
+        TCPOptions result = options == null ? TCPOptions.EMPTY : options;
+        if (packets.isEmpty()) {
+            return result;
+        }
+        StringBuilder blocks = new StringBuilder();
+        int count = 0;
+        int start = -1;
+        int end = -1;
+        for (Map.Entry<Integer, Packet> entry : packets.entrySet()) {
+            int sequence = entry.getKey();
+            if (start >= 0 && sequence != end + 1) {
+                if (++count > MAX_SACK_BLOCKS) {
+                    break;
+                }
+                appendBlock(blocks, start, end);
+                start = -1;
+            }
+            if (start < 0) {
+                start = sequence;
+            }
+            // the acknowledgement number of the packet, the next packet follows one after it
+            end = sequence + entry.getValue().getPayloadLength() + 1;
+        }
+        if (count < MAX_SACK_BLOCKS) {
+            appendBlock(blocks, start, end);
+        }
+        return result.with(TCPOptions.SACK, blocks);
+    }
+
+    @DoNotTouch
+    private static void appendBlock(StringBuilder blocks, int start, int end) {
+        if (!blocks.isEmpty()) {
+            blocks.append(',');
+        }
+        blocks.append(start).append('-').append(end);
+    }
+}
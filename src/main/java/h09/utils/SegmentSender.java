@@ -0,0 +1,24 @@
+package h09.utils;
+
+import h09.exceptions.InternetException;
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+/**
+ * Functional interface for components that send the DATA packets of a transfer.
+ * Used by {@link TCPUtils#sendWindowed} to (re)send a packet without knowing its payload.
+ */
+@FunctionalInterface
+@DoNotTouch
+public interface SegmentSender {
+
+    /**
+     * Sends the DATA packet with the given index of the transfer.
+     *
+     * @param sequenceNumber the sequence number to send the packet with
+     * @param index          the index of the packet within the transfer
+     * @throws InternetException if an error occurs while sending
+     */
+    @DoNotTouch
+    void send(int sequenceNumber, int index) throws InternetException;
+
+}
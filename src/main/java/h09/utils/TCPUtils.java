@@ -1,14 +1,28 @@
 package h09.utils;
 
+import h09.connection.Clock;
+import h09.connection.CongestionControl;
+import h09.connection.Connection;
+import h09.connection.RetransmissionTimer;
+import h09.exceptions.ConnectionClosedException;
 import h09.exceptions.InternetException;
+import h09.exceptions.packet.PacketException;
 import h09.exceptions.tcp.TCPException;
 import h09.exceptions.TimeoutException;
 import h09.packet.Packet;
+import h09.packet.PacketType;
+import h09.packet.TCPOptions;
 import org.tudalgo.algoutils.student.annotation.DoNotTouch;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
 /**
  * Utility class providing helper methods for TCP communication.
- * Contains methods for handling packet retrieval with retry logic.
+ * Contains methods for handling packet retrieval with retry logic and windowed sending.
  */
 @DoNotTouch
 public class TCPUtils {
@@ -40,8 +54,8 @@ public class TCPUtils {
         while (tries < 3) {
             try {
                 Packet p = func.tryGet();
-                if (p.getHeader().sequenceNumber() < nextSequence) {
-                    Verbose.out.println(Thread.currentThread().getName() + ": received old packet " + p.getHeader().sequenceNumber() + " < " + nextSequence);
+                if (p.getSequenceNumber() < nextSequence) {
+                    Verbose.out.println(Thread.currentThread().getName() + ": received old packet " + p.getSequenceNumber() + " < " + nextSequence);
                     continue;
                 }
                 return p;
@@ -53,4 +67,458 @@ public class TCPUtils {
         throw new TCPException("unstable connection, too many timeouts!");
     }
 
+    /**
+     * Like {@link #try3Times(ThrowingPacketWaiter, int)}, but driven by the
+     * {@link RetransmissionTimer} of the given connection: {@code func} should wait with
+     * {@link Connection#waitForPacketTimeout()}, every timeout backs the timer off and restarts the
+     * {@link CongestionControl congestion window} of the connection,
+     * the number of tries is {@link RetransmissionTimer#getMaxRetries()} and the round-trip
+     * time of an exchange that needed no resend is reported as a sample. An exchange that
+     * only succeeded after a resend resets the backoff instead. Packets older than {@code nextSequence}
+     * are coalesced by the connection, see {@link Connection#expectSequenceNumber(int)}, so a burst of
+     * retransmits causes a single resend.
+     *
+     * @param conn         the connection whose retransmission timer is used
+     * @param func         the function that attempts to retrieve a packet. may optionally also send a packet.
+     * @param nextSequence the expected sequence number for the packet
+     * @return the retrieved packet if successful
+     * @throws InternetException if an error occurs during packet retrieval
+     * @throws TCPException      if the maximum number of retries is exceeded
+     */
+    @DoNotTouch
+    public static Packet try3Times(Connection conn, ThrowingPacketWaiter func, int nextSequence) throws InternetException {
+        RetransmissionTimer timer = conn.getRetransmissionTimer();
+        Clock clock = conn.getClock();
+        conn.expectSequenceNumber(nextSequence);
+        int tries = 0;
+        boolean resent = false;
+        while (tries < timer.getMaxRetries()) {
+            if (resent) {
+                timer.onRetransmit();
+            }
+            long start = clock.nanoTime();
+            try {
+                Packet p = func.tryGet();
+                if (p.getSequenceNumber() < nextSequence) {
+                    Verbose.out.println(Thread.currentThread().getName() + ": received old packet " + p.getSequenceNumber() + " < " + nextSequence);
+                    resent = true;
+                    continue;
+                }
+                if (resent) {
+                    timer.onProgress();
+                } else {
+                    timer.onSample(clock.nanoTime() - start);
+                }
+                return p;
+            } catch (TimeoutException e) {
+                Verbose.out.println(Thread.currentThread().getName() + ": timeout after " + timer.getRto() + " ms");
+                timer.onTimeout();
+                conn.getCongestionControl().onTimeout();
+                tries++;
+                resent = true;
+            }
+        }
+        throw new TCPException("unstable connection, too many timeouts!");
+    }
+
+    /**
+     * Like {@link #try3Times(ThrowingPacketWaiter, int)}, but also skips packets that
+     * are ahead of the expected sequence number. Used by receivers of a windowed transfer,
+     * where a lost packet lets the following packets of the window arrive early.
+     * Skipped packets cause {@code func} to be called again, so the receiver re-sends
+     * its last acknowledgement and the sender learns which packet is missing.
+     *
+     * @param func         the function that attempts to retrieve a packet. may optionally also send a packet.
+     * @param nextSequence the expected sequence number for the packet
+     * @return the retrieved packet with exactly the expected sequence number
+     * @throws InternetException if an error occurs during packet retrieval
+     * @throws TCPException      if the maximum number of retries is exceeded
+     */
+    @DoNotTouch
+    public static Packet tryInOrder(ThrowingPacketWaiter func, int nextSequence) throws InternetException {
+        while (true) {
+            Packet p = try3Times(func, nextSequence);
+            expectNotClosed(p);
+            if (p.getSequenceNumber() == nextSequence) {
+                return p;
+            }
+            Verbose.out.println(Thread.currentThread().getName() + ": received early packet " + p.getSequenceNumber() + " > " + nextSequence);
+        }
+    }
+
+    /**
+     * Like {@link #tryInOrder(ThrowingPacketWaiter, int)}, but driven by the
+     * {@link RetransmissionTimer} of the given connection as described in
+     * {@link #try3Times(Connection, ThrowingPacketWaiter, int)}.
+     *
+     * @param conn         the connection whose retransmission timer is used
+     * @param func         the function that attempts to retrieve a packet. may optionally also send a packet.
+     * @param nextSequence the expected sequence number for the packet
+     * @return the retrieved packet with exactly the expected sequence number
+     * @throws InternetException if an error occurs during packet retrieval
+     * @throws TCPException      if the maximum number of retries is exceeded
+     */
+    @DoNotTouch
+    public static Packet tryInOrder(Connection conn, ThrowingPacketWaiter func, int nextSequence) throws InternetException {
+        while (true) {
+            Packet p = try3Times(conn, func, nextSequence);
+            expectNotClosed(p);
+            if (p.getSequenceNumber() == nextSequence) {
+                return p;
+            }
+            Verbose.out.println(Thread.currentThread().getName() + ": received early packet " + p.getSequenceNumber() + " > " + nextSequence);
+        }
+    }
+
+    /**
+     * Like {@link #tryInOrder(Connection, ThrowingPacketWaiter, int)}, but holds valid DATA packets that
+     * arrive early in the given buffer instead of dropping them. If the expected packet is already held,
+     * it is returned without calling {@code func}, so the acknowledgement of packets taken from the
+     * buffer is left to the next call of {@code func}, which acknowledges all of them at once.
+     *
+     * @param conn         the connection whose retransmission timer is used
+     * @param buffer       the buffer holding early packets
+     * @param func         the function that attempts to retrieve a packet. may optionally also send a packet.
+     * @param nextSequence the expected sequence number for the packet
+     * @return the retrieved packet with exactly the expected sequence number
+     * @throws InternetException if an error occurs during packet retrieval
+     * @throws TCPException      if the maximum number of retries is exceeded
+     */
+    @DoNotTouch
+    public static Packet tryInOrder(Connection conn, ReassemblyBuffer buffer, ThrowingPacketWaiter func, int nextSequence)
+        throws InternetException {
+        Packet held = buffer.poll(nextSequence);
+        if (held != null) {
+            return held;
+        }
+        while (true) {
+            Packet p = try3Times(conn, func, nextSequence);
+            expectNotClosed(p);
+            if (p.getSequenceNumber() == nextSequence) {
+                return p;
+            }
+            if (hasValidChecksum(p) && buffer.add(p)) {
+                Verbose.out.println(Thread.currentThread().getName() + ": holding early packet " + p.getSequenceNumber() + " > " + nextSequence);
+            } else {
+                Verbose.out.println(Thread.currentThread().getName() + ": received early packet " + p.getSequenceNumber() + " > " + nextSequence);
+            }
+        }
+    }
+
+    /**
+     * Checks that the given packet is not a CLOSE packet, with which the peer closed the connection
+     * or, in answer to a SYN packet or a request, rejected it. A CLOSE packet is never early,
+     * so receivers waiting for the next packet in order must not skip it.
+     *
+     * @param packet the received packet
+     * @throws ConnectionClosedException if the packet is a CLOSE packet
+     */
+    @DoNotTouch
+    public static void expectNotClosed(Packet packet) throws ConnectionClosedException {
+        if (packet.getType() == PacketType.CLOSE) {
+            throw new ConnectionClosedException("The connection was closed or rejected by the peer!");
+        }
+    }
+
+    /**
+     * Splits data into chunks of at most the given length.
+     *
+     * @param data      the data to split
+     * @param chunkSize the maximum length of a chunk
+     * @return the chunks in order, empty if the data is empty
+     */
+    @DoNotTouch
+    public static List<String> split(String data, int chunkSize) {
+        List<String> chunks = new ArrayList<>((data.length() + chunkSize - 1) / chunkSize + 1);
+        for (int i = 0; i < data.length(); i += chunkSize) {
+            chunks.add(data.substring(i, Math.min(data.length(), i + chunkSize)));
+        }
+        return chunks;
+    }
+
+    /**
+     * Splits bytes into read-only slices of at most the given length without copying them.
+     *
+     * @param data      the bytes to split
+     * @param chunkSize the maximum length of a slice
+     * @return the slices in order, empty if there are no bytes
+     */
+    @DoNotTouch
+    public static List<ByteBuffer> split(byte[] data, int chunkSize) {
+        List<ByteBuffer> chunks = new ArrayList<>((data.length + chunkSize - 1) / chunkSize);
+        for (int i = 0; i < data.length; i += chunkSize) {
+            chunks.add(ByteBuffer.wrap(data, i, Math.min(chunkSize, data.length - i)).slice().asReadOnlyBuffer());
+        }
+        return chunks;
+    }
+
+    /**
+     * Sends DATA packets using a sliding window and waits until all of them are acknowledged.
+     * <p>
+     * Up to {@code window} packets may be unacknowledged at once. Sequence numbers follow the
+     * stop-and-wait scheme: a DATA packet with sequence number {@code s} and a payload of length {@code n}
+     * is acknowledged with {@code s + 1 + n} and the next DATA packet uses {@code s + 2 + n}.
+     * Acknowledgements are cumulative, i.e. an ACK confirms its DATA packet and all before it.
+     * <p>
+     * Losses are repaired without waiting for the retransmission timeout where possible:
+     * the third duplicate acknowledgement of the same packet resends the first unacknowledged packet,
+     * and if the receiver reports held packets with {@link TCPOptions#SACK} blocks, every missing packet
+     * with at least three held packets after it is resent once. If no acknowledgement arrives within the
+     * retransmission timeout of the connection, all unacknowledged packets the receiver does not hold are
+     * sent again. At most as many packets as the {@link CongestionControl congestion window} of the connection
+     * are unacknowledged; it grows with every acknowledged packet and shrinks on losses, once per window
+     * of packets, and timeouts. While the receiver advertises a {@link TCPOptions#RECEIVE_WINDOW} smaller than the window,
+     * at most that many packets, but at least one, are unacknowledged. The packets that fill the window are sent together as one batch, see
+     * {@link Connection#beginBatch()}. Round-trip times of packets that were not resent are reported to the connection's
+     * {@link RetransmissionTimer}. With a window of 1 this behaves like sending every packet with
+     * {@link #try3Times(Connection, ThrowingPacketWaiter, int)}.
+     *
+     * @param conn          the connection to send on
+     * @param firstSequence the sequence number of the first DATA packet
+     * @param chunks        the text of the packets in sending order
+     * @param window        the maximum number of unacknowledged packets
+     * @return the sequence number of the acknowledgement of the last packet
+     * @throws InternetException         if an error occurs while sending
+     * @throws TCPException              if no progress is made for too many timeouts in a row
+     * @throws PacketException           if an acknowledgement is invalid
+     * @throws ConnectionClosedException if the receiver closed the connection
+     */
+    @DoNotTouch
+    public static int sendWindowed(Connection conn, int firstSequence, List<String> chunks, int window)
+        throws InternetException, PacketException {
+        return sendWindowed(conn, firstSequence, chunks.size(), i -> chunks.get(i).length(),
+            (sequence, i) -> conn.sendPacket(sequence, PacketType.DATA, chunks.get(i)), window);
+    }
+
+    /**
+     * Sends DATA packets of arbitrary payloads using a sliding window, as described in
+     * {@link #sendWindowed(Connection, int, List, int)}.
+     *
+     * @param conn          the connection to send on
+     * @param firstSequence the sequence number of the first DATA packet
+     * @param count         the number of DATA packets, at least one
+     * @param lengthOf      the payload length of the packet with the given index
+     * @param sender        sends the packet with the given index and sequence number
+     * @param window        the maximum number of unacknowledged packets
+     * @return the sequence number of the acknowledgement of the last packet
+     * @throws InternetException         if an error occurs while sending
+     * @throws TCPException              if no progress is made for too many timeouts in a row
+     * @throws PacketException           if an acknowledgement is invalid
+     * @throws ConnectionClosedException if the receiver closed the connection
+     */
+    @DoNotTouch
+    public static int sendWindowed(Connection conn, int firstSequence, int count, IntUnaryOperator lengthOf,
+                                   SegmentSender sender, int window) throws InternetException, PacketException {
+        assert window > 0 && count > 0;
+        int[] sequences = new int[count + 1];
+        sequences[0] = firstSequence;
+        for (int i = 0; i < count; i++) {
+            sequences[i + 1] = sequences[i] + lengthOf.applyAsInt(i) + 2;
+        }
+        // the ACK of packet i is one less than the sequence number of packet i + 1
+
+        RetransmissionTimer timer = conn.getRetransmissionTimer();
+        CongestionControl congestion = conn.getCongestionControl();
+        Clock clock = conn.getClock();
+        // every duplicate acknowledgement counts for the fast retransmit
+        conn.expectSequenceNumber(Integer.MIN_VALUE);
+        long[] sentAt = new long[count];
+        boolean[] resent = new boolean[count];
+        // packets the receiver reported to hold, they are skipped when resending
+        boolean[] sacked = new boolean[count];
+        // packets already resent without a timeout, each at most once per timeout
+        boolean[] fastResent = new boolean[count];
+        int base = 0;
+        int next = 0;
+        int sent = 0;
+        int tries = 0;
+        int duplicateAcks = 0;
+        // the window, reduced to the receive window the receiver advertised last
+        int limit = window;
+        // the congestion control already reacted to losses of the packets before this one
+        int recover = 0;
+        // old packets must not extend the wait, otherwise periodic duplicates could prevent the resend forever
+        long deadline = clock.nanoTime() + timer.getRto() * 1_000_000;
+        while (base < count) {
+            // the packets filling the window leave as one batch
+            int allowed = Math.min(limit, congestion.getWindow());
+            conn.beginBatch();
+            try {
+                while (next < count && next - base < allowed) {
+                    if (!sacked[next]) {
+                        if (next < sent) {
+                            resent[next] = true;
+                            timer.onRetransmit();
+                        }
+                        sentAt[next] = clock.nanoTime();
+                        sender.send(sequences[next], next);
+                    }
+                    sent = Math.max(sent, ++next);
+                }
+            } finally {
+                conn.flushBatch();
+            }
+            Packet ack;
+            try {
+                ack = conn.waitForPacketTimeout(Math.max(1, (deadline - clock.nanoTime()) / 1_000_000));
+            } catch (TimeoutException e) {
+                Verbose.out.println(Thread.currentThread().getName() + ": timeout, resending window from " + sequences[base]);
+                timer.onTimeout();
+                congestion.onTimeout();
+                recover = sent;
+                if (++tries >= timer.getMaxRetries()) {
+                    throw new TCPException("unstable connection, too many timeouts!");
+                }
+                next = base;
+                duplicateAcks = 0;
+                Arrays.fill(fastResent, base, count, false);
+                deadline = clock.nanoTime() + timer.getRto() * 1_000_000;
+                continue;
+            }
+            // a CLOSE carries the largest sequence number and would otherwise pass as a new acknowledgement
+            expectNotClosed(ack);
+            int acked = ack.getSequenceNumber();
+            if (acked < sequences[base + 1] - 1) {
+                Verbose.out.println(Thread.currentThread().getName() + ": received old packet " + acked + " < " + (sequences[base + 1] - 1));
+                if (ack.getType() != PacketType.ACK || !hasValidChecksum(ack)) {
+                    continue;
+                }
+                limit = sendLimit(ack, window);
+                markSacked(ack, sequences, sacked, base, next);
+                boolean lost = false;
+                if (acked == sequences[base] - 1 && ++duplicateAcks == 3 && !sacked[base] && !fastResent[base]) {
+                    Verbose.out.println(Thread.currentThread().getName() + ": fast retransmit of " + sequences[base]);
+                    fastRetransmit(base, sequences, sender, timer, resent, fastResent);
+                    lost = true;
+                }
+                lost |= retransmitHoles(base, next, sequences, sender, timer, resent, sacked, fastResent);
+                if (lost && base >= recover) {
+                    congestion.onLoss();
+                    recover = sent;
+                }
+                continue;
+            }
+            ack.expectType(PacketType.ACK);
+            ack.validateChecksum();
+            limit = sendLimit(ack, window);
+            int acknowledged = base;
+            while (base < count && sequences[base + 1] - 1 <= acked) {
+                base++;
+            }
+            congestion.onAck(base - acknowledged);
+            if (resent[base - 1]) {
+                timer.onProgress();
+            } else {
+                timer.onSample(clock.nanoTime() - sentAt[base - 1]);
+            }
+            tries = 0;
+            duplicateAcks = 0;
+            deadline = clock.nanoTime() + timer.getRto() * 1_000_000;
+            if (base < count) {
+                markSacked(ack, sequences, sacked, base, next);
+                if (retransmitHoles(base, next, sequences, sender, timer, resent, sacked, fastResent) && base >= recover) {
+                    congestion.onLoss();
+                    recover = sent;
+                }
+            }
+        }
+        return sequences[count] - 1;
+    }
+
+    /**
+     * Returns how many packets may be unacknowledged after an acknowledgement: the window, reduced to the
+     * {@link TCPOptions#RECEIVE_WINDOW} of the acknowledgement, but at least one to probe a full receiver.
+     *
+     * @param ack    the valid acknowledgement
+     * @param window the agreed window
+     * @return the number of packets that may be unacknowledged
+     */
+    @DoNotTouch
+    private static int sendLimit(Packet ack, int window) {
+        return Math.max(1, Math.min(window, ack.getOptions().getInt(TCPOptions.RECEIVE_WINDOW, window)));
+    }
+
+    /**
+     * Marks the sent packets covered by the {@link TCPOptions#SACK} blocks of an acknowledgement.
+     * Malformed blocks are ignored.
+     *
+     * @param ack       the acknowledgement
+     * @param sequences the sequence numbers of the packets followed by the one after the last packet
+     * @param sacked    the marks of the packets
+     * @param base      the index of the first unacknowledged packet
+     * @param next      the index of the first packet not sent yet
+     */
+    @DoNotTouch
+    private static void markSacked(Packet ack, int[] sequences, boolean[] sacked, int base, int next) {
+        String blocks = ack.getOptions().get(TCPOptions.SACK);
+        if (blocks == null) {
+            return;
+        }
+        for (String block : blocks.split(",")) {
+            int dash = block.indexOf('-');
+            int start;
+            int end;
+            try {
+                start = Integer.parseInt(block.substring(0, dash));
+                end = Integer.parseInt(block.substring(dash + 1));
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                continue;
+            }
+            for (int i = base; i < next; i++) {
+                if (sequences[i] >= start && sequences[i + 1] - 1 <= end) {
+                    sacked[i] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Resends every unacknowledged packet that is not held by the receiver while at least three packets
+     * after it are, as it is most likely lost rather than delayed.
+     *
+     * @return true if a packet was resent
+     */
+    @DoNotTouch
+    private static boolean retransmitHoles(int base, int next, int[] sequences, SegmentSender sender,
+                                        RetransmissionTimer timer, boolean[] resent, boolean[] sacked,
+                                        boolean[] fastResent) throws InternetException {
+        int heldAfter = 0;
+        boolean lost = false;
+        for (int i = next - 1; i >= base; i--) {
+            if (sacked[i]) {
+                heldAfter++;
+            } else if (heldAfter >= 3 && !fastResent[i]) {
+                Verbose.out.println(Thread.currentThread().getName() + ": resending missing packet " + sequences[i]);
+                fastRetransmit(i, sequences, sender, timer, resent, fastResent);
+                lost = true;
+            }
+        }
+        return lost;
+    }
+
+    @DoNotTouch
+    private static void fastRetransmit(int index, int[] sequences, SegmentSender sender, RetransmissionTimer timer,
+                                       boolean[] resent, boolean[] fastResent) throws InternetException {
+        resent[index] = true;
+        fastResent[index] = true;
+        timer.onRetransmit();
+        sender.send(sequences[index], index);
+    }
+
+    /**
+     * Checks the checksum of a packet without throwing.
+     *
+     * @param packet the packet to check
+     * @return true if the checksum is valid
+     */
+    @DoNotTouch
+    private static boolean hasValidChecksum(Packet packet) {
+        try {
+            packet.validateChecksum();
+            return true;
+        } catch (PacketException e) {
+            return false;
+        }
+    }
+
 }
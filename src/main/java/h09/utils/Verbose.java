@@ -14,14 +14,32 @@ import java.io.PrintStream;
 @DoNotTouch
 public class Verbose {
 
+    /**
+     * The stream used while verbose output is turned off.
+     */
     @DoNotTouch
-    public static PrintStream out = new PrintStream(new EmptyOutputStream());
+    private static final PrintStream QUIET = new QuietPrintStream();
+
+    @DoNotTouch
+    public static PrintStream out = QUIET;
 
     @DoNotTouch
     public static void turnVerbose() {
         Verbose.out = System.out;
     }
 
+    /**
+     * Checks whether verbose output is turned on.
+     * Messages printed for every packet should only be built if it is, as even a discarded
+     * message costs its string concatenation.
+     *
+     * @return true if {@link #out} prints anywhere
+     */
+    @DoNotTouch
+    public static boolean isEnabled() {
+        return out != QUIET;
+    }
+
     @DoNotTouch
     private static class EmptyOutputStream extends OutputStream {
         @Override
@@ -29,4 +47,46 @@ public class Verbose {
         }
     }
 
+    /**
+     * Discards everything before it is formatted or encoded, unlike a plain {@link PrintStream}
+     * writing to an {@link EmptyOutputStream}.
+     */
+    @DoNotTouch
+    private static class QuietPrintStream extends PrintStream {
+
+        private QuietPrintStream() {
+            super(new EmptyOutputStream());
+        }
+
+        @Override
+        public void print(String s) {
+        }
+
+        @Override
+        public void print(Object obj) {
+        }
+
+        @Override
+        public void println() {
+        }
+
+        @Override
+        public void println(String x) {
+        }
+
+        @Override
+        public void println(Object x) {
+        }
+
+        @Override
+        public PrintStream printf(String format, Object... args) {
+            return this;
+        }
+
+        @Override
+        public PrintStream format(String format, Object... args) {
+            return this;
+        }
+    }
+
 }
@@ -0,0 +1,30 @@
+package h09.utils;
+
+import org.tudalgo.algoutils.student.annotation.DoNotTouch;
+
+/**
+ * How the consumer of a {@link MpscArrayBlockingQueue} waits for the next element.
+ * Spinning reacts fastest to a new element but occupies a processor for the whole wait,
+ * parking frees the processor but costs a wake-up by the producer.
+ */
+@DoNotTouch
+public enum WaitStrategy {
+
+    /**
+     * Spins until an element arrives. Only suited to platform threads that own a processor,
+     * a spinning virtual thread blocks its carrier thread.
+     */
+    BUSY_SPIN,
+
+    /**
+     * Spins for a short time, then yields the processor between checks. The waiting thread stays runnable,
+     * so this only suits a few waiting threads per processor, not a server with many idle connections.
+     */
+    YIELDING,
+
+    /**
+     * Spins for a short time, yields for a short time and then parks until a producer wakes it up.
+     * Suits any number of waiting threads.
+     */
+    PARKING
+}
@@ -0,0 +1,82 @@
+package h09.connection;
+
+import h09.exceptions.TimeoutException;
+import h09.packet.Packet;
+import h09.packet.PacketType;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that a {@link Connection} lets only one stale packet at a time wait in its queue.
+ */
+public class ConnectionTest {
+
+    private static final int EXPECTED = 100;
+
+    @Test
+    public void testStaleBurstIsCoalesced() throws Exception {
+        Connection conn = newConnection(8);
+        for (int i = 0; i < 5; i++) {
+            conn.addPacket(packet(EXPECTED - 1 - i, PacketType.ACK));
+        }
+        assertEquals(4L, conn.getCoalescedPackets());
+        // packets that are not stale are never coalesced
+        conn.addPacket(packet(EXPECTED, PacketType.DATA));
+        conn.addPacket(packet(EXPECTED + 2, PacketType.DATA));
+        assertEquals(EXPECTED - 1, conn.waitForPacketTimeout(10).getSequenceNumber());
+        assertEquals(EXPECTED, conn.waitForPacketTimeout(10).getSequenceNumber());
+        assertEquals(EXPECTED + 2, conn.waitForPacketTimeout(10).getSequenceNumber());
+        assertThrows(TimeoutException.class, () -> conn.waitForPacketTimeout(10));
+
+        // the next stale packet waits again once the queued one was taken
+        conn.addPacket(packet(EXPECTED - 1, PacketType.ACK));
+        conn.addPacket(packet(EXPECTED - 1, PacketType.ACK));
+        assertEquals(5L, conn.getCoalescedPackets());
+        assertEquals(EXPECTED - 1, conn.waitForPacketTimeout(10).getSequenceNumber());
+        assertEquals(0L, conn.getDroppedPackets());
+    }
+
+    @Test
+    public void testCloseIsNeverCoalesced() throws Exception {
+        Connection conn = newConnection(2);
+        conn.addPacket(packet(EXPECTED - 1, PacketType.ACK));
+        conn.addPacket(packet(EXPECTED - 1, PacketType.CLOSE));
+        // even beyond the receive capacity
+        conn.addPacket(packet(EXPECTED - 2, PacketType.CLOSE));
+        assertEquals(0L, conn.getCoalescedPackets());
+        assertEquals(0L, conn.getDroppedPackets());
+        assertEquals(PacketType.ACK, conn.waitForPacketTimeout(10).getType());
+        assertEquals(PacketType.CLOSE, conn.waitForPacketTimeout(10).getType());
+        assertEquals(PacketType.CLOSE, conn.waitForPacketTimeout(10).getType());
+    }
+
+    @Test
+    public void testRefusedStalePacketClearsSlot() throws Exception {
+        Connection conn = newConnection(1);
+        conn.addPacket(packet(EXPECTED, PacketType.DATA));
+        // the full queue refuses the stale packet, it must not block the slot for later ones
+        conn.addPacket(packet(EXPECTED - 1, PacketType.ACK));
+        assertEquals(1L, conn.getDroppedPackets());
+        assertEquals(EXPECTED, conn.waitForPacketTimeout(10).getSequenceNumber());
+
+        conn.addPacket(packet(EXPECTED - 3, PacketType.ACK));
+        assertEquals(0L, conn.getCoalescedPackets());
+        assertEquals(EXPECTED - 3, conn.waitForPacketTimeout(10).getSequenceNumber());
+    }
+
+    /**
+     * Creates a connection expecting {@link #EXPECTED} next.
+     */
+    private static Connection newConnection(int receiveCapacity) {
+        Connection conn = new Connection(4000, 443, new LinkedBlockingQueue<>(), receiveCapacity);
+        conn.expectSequenceNumber(EXPECTED);
+        return conn;
+    }
+
+    private static Packet packet(int sequenceNumber, PacketType type) {
+        return new Packet(443, 4000, sequenceNumber, type, type == PacketType.DATA ? "data" : null);
+    }
+}
@@ -0,0 +1,90 @@
+package h09.connection;
+
+import h09.device.TCPClient;
+import h09.device.TCPServer;
+import h09.exceptions.port.PortAllocatedException;
+import h09.tools.Requests;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs a {@link TCPServer} in a second JVM and talks to it over a {@link DatagramTransport} on the loopback interface.
+ */
+public class DatagramTransportTest {
+
+    private static final int BASE_PORT = 31000;
+    private static final int SERVER_PORT = 443;
+
+    private Process server;
+
+    @AfterEach
+    public void tearDown() {
+        InternetPool.setTransport(null);
+        if (server != null) {
+            server.destroyForcibly();
+        }
+    }
+
+    @Test
+    @Timeout(value = 2, unit = TimeUnit.MINUTES)
+    public void testRequestsToAnotherProcess() throws Exception {
+        server = new ProcessBuilder(
+            ProcessHandle.current().info().command().orElse("java"),
+            "-cp", System.getProperty("java.class.path"),
+            ServerProcess.class.getName(), String.valueOf(BASE_PORT))
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+        BufferedReader output = new BufferedReader(new InputStreamReader(server.getInputStream(), StandardCharsets.UTF_8));
+        assertEquals("ready", output.readLine());
+
+        DatagramTransport transport = new DatagramTransport(BASE_PORT);
+        InternetPool.setTransport(transport);
+        // the server port is bound by the other process
+        assertThrows(PortAllocatedException.class, () -> new TCPServer(SERVER_PORT));
+
+        for (int i = 0; i < 50; i++) {
+            assertEquals("Hello Client :)", Requests.fetch(SERVER_PORT, "Hello Server"));
+        }
+        TCPClient client = new TCPClient(SERVER_PORT, 8, 256, false);
+        client.connect();
+        client.send("x".repeat(10_000));
+        assertEquals("Sorry. I did not understand that.", client.receive());
+        client.close();
+
+        assertTrue(transport.getSentDatagrams() > 0);
+        assertTrue(transport.getReceivedPackets() > 0);
+    }
+
+    @Test
+    @Timeout(value = 1, unit = TimeUnit.MINUTES)
+    public void testUnmappablePortIsRejected() throws Exception {
+        InternetPool.setTransport(new DatagramTransport(BASE_PORT));
+        int unmappable = InternetPool.MAX_PORT - BASE_PORT;
+        assertThrows(IllegalArgumentException.class, () -> new TCPServer(unmappable));
+        // the port was not left registered
+        InternetPool.setTransport(null);
+        new TCPServer(unmappable).close();
+    }
+
+    /**
+     * The second JVM, serves requests until it is destroyed.
+     */
+    public static class ServerProcess {
+
+        public static void main(String[] args) throws Exception {
+            InternetPool.setTransport(new DatagramTransport(Integer.parseInt(args[0])));
+            new TCPServer(SERVER_PORT);
+            System.out.println("ready");
+            System.out.flush();
+            Thread.sleep(Long.MAX_VALUE);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package h09.connection;
+
+import h09.device.TCPClient;
+import h09.device.TCPServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the scheduling of a {@link VirtualClock} and its {@link VirtualQueue VirtualQueues}.
+ */
+public class VirtualClockTest {
+
+    @AfterEach
+    public void tearDown() {
+        InternetPool.setChannel(new Channel());
+    }
+
+    @Test
+    @Timeout(value = 1, unit = TimeUnit.MINUTES)
+    public void testSameSeedSameTrace() throws Exception {
+        List<String> first = lossyExchanges(42);
+        List<String> second = lossyExchanges(42);
+        assertEquals(10, first.size());
+        assertEquals(first, second);
+    }
+
+    /**
+     * Lets ten clients talk to a server over a lossy channel and records when which client got which reply.
+     */
+    private static List<String> lossyExchanges(long seed) throws Exception {
+        VirtualClock clock = new VirtualClock(seed);
+        return clock.run(() -> {
+            InternetPool.setChannel(new LossyChannel(new Random(seed), 0.2));
+            TCPServer server = new TCPServer(7443);
+            BlockingQueue<String> trace = clock.newQueue();
+            ThreadFactory threads = clock.newThreadFactory("client-");
+            for (int i = 0; i < 10; i++) {
+                String request = i % 2 == 0 ? "Hello Server" : "Request #" + i;
+                threads.newThread(() -> {
+                    String reply;
+                    try {
+                        TCPClient client = new TCPClient(7443);
+                        try {
+                            client.connect();
+                            client.send(request);
+                            reply = client.receive();
+                        } finally {
+                            client.close();
+                        }
+                    } catch (Exception e) {
+                        reply = e.getClass().getSimpleName();
+                    }
+                    trace.add(Thread.currentThread().getName() + "@" + clock.currentTimeMillis() + ": " + reply);
+                }).start();
+            }
+            List<String> result = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                result.add(trace.take());
+            }
+            server.close();
+            return result;
+        });
+    }
+
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    public void testSameSeedSamePorts() throws Exception {
+        assertEquals(registeredPorts(42), registeredPorts(42));
+    }
+
+    /**
+     * Registers some devices to free ports and returns the ports they got.
+     */
+    private static List<Integer> registeredPorts(long seed) throws Exception {
+        return new VirtualClock(seed).run(() -> {
+            List<Integer> ports = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                ports.add(InternetPool.registerDevice(packet -> {
+                }));
+            }
+            for (int port : ports) {
+                InternetPool.unregisterDevice(port);
+            }
+            return ports;
+        });
+    }
+
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    public void testTimeoutsAdvanceVirtualTime() throws Exception {
+        VirtualClock clock = new VirtualClock();
+        long started = System.nanoTime();
+        List<String> events = clock.run(() -> {
+            BlockingQueue<String> queue = clock.newQueue();
+            ThreadFactory threads = clock.newThreadFactory("sleeper-");
+            threads.newThread(() -> {
+                try {
+                    clock.sleep(300, TimeUnit.SECONDS);
+                    queue.add("slow@" + clock.currentTimeMillis());
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }).start();
+            threads.newThread(() -> {
+                try {
+                    clock.sleep(100, TimeUnit.SECONDS);
+                    queue.add("fast@" + clock.currentTimeMillis());
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }).start();
+            List<String> result = new ArrayList<>();
+            result.add(queue.take());
+            result.add(queue.take());
+            result.add(String.valueOf(queue.poll(5, TimeUnit.SECONDS)) + "@" + clock.currentTimeMillis());
+            return result;
+        });
+        assertEquals(List.of("fast@100000", "slow@300000", "null@305000"), events);
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    public void testStallIsDetected() throws Exception {
+        VirtualClock clock = new VirtualClock();
+        assertThrows(IllegalStateException.class, () -> clock.run(() -> clock.newQueue().take()));
+    }
+
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    public void testUnstartedThreadIsSkipped() throws Exception {
+        VirtualClock clock = new VirtualClock();
+        long now = clock.run(() -> {
+            clock.newThreadFactory("unstarted-").newThread(() -> {
+            });
+            clock.sleep(10, TimeUnit.MILLISECONDS);
+            return clock.currentTimeMillis();
+        });
+        assertEquals(10L, now);
+    }
+
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    public void testShutdownInterruptsParticipants() throws Exception {
+        VirtualClock clock = new VirtualClock();
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        Thread waiter = clock.run(() -> {
+            BlockingQueue<String> queue = clock.newQueue();
+            Thread thread = clock.newThreadFactory("waiter-").newThread(() -> {
+                try {
+                    queue.take();
+                } catch (Throwable e) {
+                    thrown.set(e);
+                }
+            });
+            thread.start();
+            // lets the waiter block on the queue
+            clock.sleep(1, TimeUnit.MILLISECONDS);
+            return thread;
+        });
+        waiter.join();
+        assertTrue(thrown.get() instanceof InterruptedException);
+    }
+}
@@ -0,0 +1,90 @@
+package h09.device;
+
+import h09.connection.Channel;
+import h09.connection.InlineDeliveryEngine;
+import h09.connection.InternetPool;
+import h09.connection.LaneDeliveryEngine;
+import h09.connection.VirtualClock;
+import h09.exceptions.ConnectionClosedException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Lets an {@link AsyncTCPClient} and an {@link EventTCPServer} exchange responses of many segments while
+ * every packet is delivered on the thread sending it, and checks that a failing request handler closes the connection.
+ */
+public class EventTCPServerTest {
+
+    private static final String RESPONSE = "x".repeat(20_000);
+
+    @AfterEach
+    public void tearDown() {
+        InternetPool.setChannel(new Channel());
+        InternetPool.setDeliveryEngine(new LaneDeliveryEngine());
+    }
+
+    @Test
+    @Timeout(value = 1, unit = TimeUnit.MINUTES)
+    public void testMultiSegmentResponseOnVirtualClock() throws Exception {
+        VirtualClock clock = new VirtualClock(7);
+        String reply = clock.run(() -> {
+            EventTCPServer server = new EventTCPServer(8443, 8, request -> RESPONSE, ForkJoinPool.commonPool());
+            BlockingQueue<String> replies = clock.newQueue();
+            exchange(8443).whenComplete((r, e) -> replies.add(e == null ? r : e.toString()));
+            String result = replies.take();
+            server.close();
+            return result;
+        });
+        assertEquals(RESPONSE, reply);
+    }
+
+    @Test
+    @Timeout(value = 1, unit = TimeUnit.MINUTES)
+    public void testMultiSegmentResponseInline() throws Exception {
+        InternetPool.setDeliveryEngine(new InlineDeliveryEngine());
+        EventTCPServer server = new EventTCPServer(8444, 8, request -> RESPONSE, null);
+        try {
+            assertEquals(RESPONSE, exchange(8444).get(30, TimeUnit.SECONDS));
+            assertEquals(0, server.getConnectionCount());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    @Timeout(value = 1, unit = TimeUnit.MINUTES)
+    public void testFailingHandlerClosesConnection() throws Exception {
+        InternetPool.setDeliveryEngine(new InlineDeliveryEngine());
+        EventTCPServer server = new EventTCPServer(8445, 8, request -> {
+            throw new AssertionError("handler failed");
+        }, null);
+        try {
+            ExecutionException thrown = assertThrows(ExecutionException.class,
+                () -> exchange(8445).get(30, TimeUnit.SECONDS));
+            assertTrue(thrown.getCause() instanceof ConnectionClosedException);
+            assertEquals(0, server.getConnectionCount());
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Sends a request of many segments and receives the reply with a new client.
+     */
+    private static CompletableFuture<String> exchange(int port) throws Exception {
+        AsyncTCPClient client = new AsyncTCPClient(port);
+        return client.connect()
+            .thenCompose(v -> client.send("y".repeat(5_000)))
+            .thenCompose(v -> client.receive())
+            .whenComplete((r, e) -> client.close());
+    }
+}
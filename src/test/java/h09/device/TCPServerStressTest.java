@@ -0,0 +1,68 @@
+package h09.device;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Opens many simultaneous client sessions against a single {@link TCPServer}.
+ */
+public class TCPServerStressTest {
+
+    private static final int SESSIONS = 10_000;
+
+    @Test
+    @Timeout(value = 5, unit = TimeUnit.MINUTES)
+    public void testSimultaneousSessions() throws Exception {
+        TCPServer server = new TCPServer(4443);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<String>> replies = new ArrayList<>(SESSIONS);
+            for (int i = 0; i < SESSIONS; i++) {
+                String request = i % 2 == 0 ? "Hello Server" : "Request #" + i;
+                replies.add(executor.submit(() -> {
+                    TCPClient client = new TCPClient(4443);
+                    start.await();
+                    try {
+                        client.connect();
+                        client.send(request);
+                        return client.receive();
+                    } finally {
+                        client.close();
+                    }
+                }));
+            }
+            start.countDown();
+
+            int lost = 0;
+            for (int i = 0; i < SESSIONS; i++) {
+                String expected = i % 2 == 0 ? "Hello Client :)" : "Sorry. I did not understand that.";
+                try {
+                    if (!expected.equals(replies.get(i).get())) {
+                        lost++;
+                    }
+                } catch (Exception e) {
+                    lost++;
+                }
+            }
+            assertEquals(0, lost, "lost sessions");
+        }
+
+        // every handler removes itself once its client closed the connection
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (server.getConnectionCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, server.getConnectionCount(), "leaked handlers");
+        server.close();
+    }
+}
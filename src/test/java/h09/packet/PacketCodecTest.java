@@ -0,0 +1,128 @@
+package h09.packet;
+
+import h09.exceptions.packet.PacketFormatException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Encodes packets with the {@link PacketCodec} and checks that decoding gives them back unchanged.
+ */
+public class PacketCodecTest {
+
+    private static final TCPOptions OPTIONS = TCPOptions.EMPTY
+        .with(TCPOptions.WINDOW, 8)
+        .with(TCPOptions.MSS, 512)
+        .with(TCPOptions.SACK, "3-5");
+
+    @Test
+    public void testTextRoundTrip() throws Exception {
+        for (String text : new String[]{"", "Hello Server", "Grüße, 世界 😀", "x".repeat(Packet.MAX_SEGMENT_SIZE)}) {
+            Packet decoded = roundTrip(new Packet(4000, 443, 17, PacketType.DATA, text));
+            assertEquals(text, decoded.getData());
+            assertTrue(decoded.getOptions().isEmpty());
+        }
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        byte[] bytes = new byte[300];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 7);
+        }
+        Packet decoded = roundTrip(new Packet(4000, 443, 17, ByteBuffer.wrap(bytes).asReadOnlyBuffer(), null));
+        assertTrue(decoded.isBinary());
+        assertEquals(ByteBuffer.wrap(bytes), decoded.getBytes());
+    }
+
+    @Test
+    public void testOptionsRoundTrip() throws Exception {
+        Packet syn = roundTrip(new Packet(4000, 443, 17, PacketType.SYN, null, OPTIONS));
+        assertEquals(OPTIONS, syn.getOptions());
+        Packet data = roundTrip(new Packet(4000, 443, 19, PacketType.DATA, "abc", OPTIONS));
+        assertEquals(OPTIONS, data.getOptions());
+        assertEquals("abc", data.getData());
+        Packet binary = roundTrip(new Packet(4000, 443, 23, ByteBuffer.wrap(new byte[]{1, 2, 3}), OPTIONS));
+        assertEquals(OPTIONS, binary.getOptions());
+        assertEquals(3, binary.getPayloadLength(), "payload length");
+    }
+
+    @Test
+    public void testBatchRoundTrip() throws Exception {
+        List<Packet> packets = List.of(
+            new Packet(4000, 443, 1, PacketType.SYN, null, OPTIONS),
+            new Packet(443, 4000, 2, PacketType.SYN, null),
+            new Packet(4000, 443, 3, PacketType.DATA, "first"),
+            new Packet(4000, 443, 9, ByteBuffer.wrap(new byte[]{4, 5}), null),
+            new Packet(443, 4000, 12, PacketType.ACK, null),
+            new Packet(4000, 443, Integer.MAX_VALUE, PacketType.CLOSE, null));
+        int size = 0;
+        for (Packet packet : packets) {
+            size += PacketCodec.encodedSize(packet);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size + 5);
+        assertEquals(packets.size(), PacketCodec.encodeAll(packets, buffer), "encoded packets");
+        assertEquals(size, buffer.position(), "encoded bytes");
+
+        // the last packet arrives in two parts
+        buffer.flip();
+        ByteBuffer partial = buffer.duplicate().limit(size - 1);
+        List<Packet> decoded = new ArrayList<>();
+        assertEquals(packets.size() - 1, PacketCodec.decodeAll(partial, decoded), "decoded packets");
+        assertEquals(size - PacketCodec.encodedSize(packets.get(packets.size() - 1)), partial.position(), "consumed bytes");
+        buffer.position(partial.position());
+        assertEquals(1, PacketCodec.decodeAll(buffer, decoded), "decoded packets");
+        assertEquals(packets.size(), decoded.size(), "decoded packets");
+        for (int i = 0; i < packets.size(); i++) {
+            assertSamePacket(packets.get(i), decoded.get(i));
+        }
+    }
+
+    @Test
+    public void testTooLongOptionsAreRejected() {
+        Packet packet = new Packet(4000, 443, 17, PacketType.SYN, null,
+            TCPOptions.EMPTY.with("pad", "x".repeat(PacketCodec.MAX_OPTIONS_BYTES)));
+        ByteBuffer buffer = ByteBuffer.allocate(PacketCodec.encodedSize(packet));
+        assertThrows(IllegalArgumentException.class, () -> PacketCodec.encode(packet, buffer));
+        assertEquals(0, buffer.position(), "written bytes");
+    }
+
+    @Test
+    public void testDataWithoutPayloadIsRejected() {
+        ByteBuffer buffer = encode(new Packet(4000, 443, 17, PacketType.DATA, ""));
+        // payload kind 0, no payload
+        buffer.put(PacketCodec.HEADER_BYTES, (byte) 0);
+        assertThrows(PacketFormatException.class, () -> PacketCodec.decode(buffer));
+        assertEquals(0, buffer.position(), "read bytes");
+    }
+
+    private static Packet roundTrip(Packet packet) throws Exception {
+        ByteBuffer buffer = encode(packet);
+        Packet decoded = PacketCodec.decode(buffer);
+        assertEquals(0, buffer.remaining(), "remaining bytes");
+        assertSamePacket(packet, decoded);
+        return decoded;
+    }
+
+    private static ByteBuffer encode(Packet packet) {
+        ByteBuffer buffer = ByteBuffer.allocate(PacketCodec.encodedSize(packet));
+        PacketCodec.encode(packet, buffer);
+        assertEquals(0, buffer.remaining(), "free bytes");
+        return buffer.flip();
+    }
+
+    private static void assertSamePacket(Packet expected, Packet actual) throws Exception {
+        assertEquals(expected.getHeader(), actual.getHeader());
+        assertEquals(expected.getOptions(), actual.getOptions());
+        assertEquals(expected.isBinary(), actual.isBinary());
+        if (expected.getType() == PacketType.DATA) {
+            assertEquals(expected.isBinary() ? expected.getBytes() : expected.getData(),
+                actual.isBinary() ? actual.getBytes() : actual.getData());
+        }
+        actual.validateChecksum();
+    }
+}
@@ -0,0 +1,117 @@
+package h09.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Lets several producers fill a small {@link MpscArrayBlockingQueue} while a single consumer empties it.
+ */
+public class MpscArrayBlockingQueueTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int ELEMENTS = 20_000;
+
+    @Test
+    @Timeout(value = 2, unit = TimeUnit.MINUTES)
+    public void testManyProducers() throws Exception {
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            if (strategy == WaitStrategy.BUSY_SPIN && Runtime.getRuntime().availableProcessors() <= PRODUCERS) {
+                // a spinning consumer only suits a processor of its own, otherwise it starves the producers
+                continue;
+            }
+            // a small queue, so producers also find it full
+            MpscArrayBlockingQueue<Long> queue = new MpscArrayBlockingQueue<>(64, strategy);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> producers = new ArrayList<>();
+            for (int p = 0; p < PRODUCERS; p++) {
+                long producer = p;
+                producers.add(Thread.ofPlatform().start(() -> {
+                    try {
+                        start.await();
+                        for (int i = 0; i < ELEMENTS; i++) {
+                            queue.put(producer << 32 | i);
+                        }
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }));
+            }
+            start.countDown();
+
+            int[] next = new int[PRODUCERS];
+            for (int n = 0; n < PRODUCERS * ELEMENTS; n++) {
+                // alternates between both blocking ways of waiting
+                Long element = n % 2 == 0 ? queue.take() : queue.poll(10, TimeUnit.SECONDS);
+                assertNotNull(element, strategy + ": element " + n + " did not arrive");
+                int producer = (int) (element >>> 32);
+                int sequence = (int) (long) element;
+                // a lost or duplicated element breaks the sequence of its producer
+                assertEquals(next[producer]++, sequence, strategy + ": sequence of producer " + producer);
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+            assertEquals(0, queue.size(), strategy + ": size");
+        }
+    }
+
+    @Test
+    @Timeout(value = 1, unit = TimeUnit.MINUTES)
+    public void testTakeWakesUpWhenParked() throws Exception {
+        MpscArrayBlockingQueue<String> queue = new MpscArrayBlockingQueue<>(WaitStrategy.PARKING);
+        AtomicReference<String> taken = new AtomicReference<>();
+        Thread consumer = Thread.ofPlatform().start(() -> {
+            try {
+                taken.set(queue.take());
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        awaitParked(consumer);
+        assertTrue(queue.offer("wake up"));
+        consumer.join(TimeUnit.SECONDS.toMillis(10));
+        assertEquals("wake up", taken.get());
+    }
+
+    @Test
+    @Timeout(value = 1, unit = TimeUnit.MINUTES)
+    public void testTimedPollWakesUpWhenParked() throws Exception {
+        MpscArrayBlockingQueue<String> queue = new MpscArrayBlockingQueue<>(WaitStrategy.PARKING);
+        long started = System.nanoTime();
+        assertNull(queue.poll(50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(50));
+
+        AtomicReference<String> polled = new AtomicReference<>();
+        Thread consumer = Thread.ofPlatform().start(() -> {
+            try {
+                polled.set(queue.poll(30, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        awaitParked(consumer);
+        started = System.nanoTime();
+        assertTrue(queue.offer("wake up"));
+        consumer.join(TimeUnit.SECONDS.toMillis(10));
+        assertEquals("wake up", polled.get());
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(10));
+    }
+
+    /**
+     * Waits until the given consumer parks in the queue.
+     */
+    private static void awaitParked(Thread consumer) throws InterruptedException {
+        while (consumer.getState() != Thread.State.WAITING && consumer.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+    }
+}
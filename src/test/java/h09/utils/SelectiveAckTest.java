@@ -0,0 +1,154 @@
+package h09.utils;
+
+import h09.connection.Channel;
+import h09.connection.Connection;
+import h09.connection.InternetPool;
+import h09.connection.LossyChannel;
+import h09.connection.RetransmissionTimer;
+import h09.connection.VirtualClock;
+import h09.exceptions.InternetException;
+import h09.exceptions.TimeoutException;
+import h09.packet.Packet;
+import h09.packet.PacketType;
+import h09.packet.TCPOptions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Sends windowed transfers over a lossy channel to a receiver holding early packets in a {@link ReassemblyBuffer}
+ * and to one dropping them, and compares how many packets the sender had to send again.
+ */
+public class SelectiveAckTest {
+
+    private static final int SENDER_PORT = 7601;
+    private static final int RECEIVER_PORT = 7602;
+    private static final int FIRST_SEQUENCE = 100;
+    private static final int WINDOW = 8;
+    private static final String DATA = "0123456789abcdefghijklmnopqrstuvwxyz".repeat(100);
+    private static final List<String> CHUNKS = TCPUtils.split(DATA, 40);
+
+    @AfterEach
+    public void tearDown() {
+        InternetPool.setChannel(new Channel());
+        RetransmissionTimer.setDefaults(RetransmissionTimer.DEFAULT_INITIAL_RTO, RetransmissionTimer.DEFAULT_MIN_RTO,
+            RetransmissionTimer.DEFAULT_MAX_RTO, RetransmissionTimer.DEFAULT_MAX_RETRIES);
+    }
+
+    @Test
+    public void testSackBlocks() throws Exception {
+        ReassemblyBuffer buffer = new ReassemblyBuffer();
+        // packets 10 and 15 are consecutive, 25 follows after a hole
+        assertTrue(buffer.add(new Packet(SENDER_PORT, RECEIVER_PORT, 10, PacketType.DATA, "abc")));
+        assertTrue(buffer.add(new Packet(SENDER_PORT, RECEIVER_PORT, 15, PacketType.DATA, "def")));
+        assertTrue(buffer.add(new Packet(SENDER_PORT, RECEIVER_PORT, 25, PacketType.DATA, "gh")));
+        assertEquals("10-19,25-28", buffer.withSack(null).get(TCPOptions.SACK));
+        assertEquals(3, buffer.size(), "held packets");
+
+        assertNull(buffer.poll(5));
+        assertEquals("abc", buffer.poll(10).getData());
+        assertEquals("15-19,25-28", buffer.withSack(null).get(TCPOptions.SACK));
+        // taking a later packet discards the ones before it
+        assertEquals("gh", buffer.poll(25).getData());
+        assertEquals(0, buffer.size(), "held packets");
+        assertNull(buffer.withSack(null).get(TCPOptions.SACK));
+    }
+
+    @Test
+    @Timeout(value = 1, unit = TimeUnit.MINUTES)
+    public void testFewerRetransmissionsThanGoBackN() throws Exception {
+        // a long transfer over a lossy channel, three timeouts in a row are not unlikely
+        RetransmissionTimer.setDefaults(RetransmissionTimer.DEFAULT_INITIAL_RTO, RetransmissionTimer.DEFAULT_MIN_RTO,
+            RetransmissionTimer.DEFAULT_MAX_RTO, 10);
+        long selective = 0;
+        long goBackN = 0;
+        for (long seed = 1; seed <= 5; seed++) {
+            long retransmissions = transfer(seed, true);
+            assertEquals(retransmissions, transfer(seed, true), "retransmissions of seed " + seed);
+            selective += retransmissions;
+            goBackN += transfer(seed, false);
+        }
+        assertTrue(selective > 0);
+        assertTrue(selective < goBackN, "selective " + selective + " >= go-back-N " + goBackN);
+    }
+
+    /**
+     * Sends {@link #DATA} over a channel losing every fifth packet and checks that it arrives unchanged.
+     *
+     * @param seed         the seed of the clock and of the losses
+     * @param selectiveAck whether the receiver holds early packets and reports them
+     * @return the number of packets the sender sent again
+     */
+    private static long transfer(long seed, boolean selectiveAck) throws Exception {
+        VirtualClock clock = new VirtualClock(seed);
+        return clock.run(() -> {
+            InternetPool.setChannel(new LossyChannel(new Random(seed), 0.2));
+            Connection sender = new Connection(SENDER_PORT, RECEIVER_PORT);
+            Connection receiver = new Connection(RECEIVER_PORT, SENDER_PORT);
+            InternetPool.registerDevice(SENDER_PORT, sender::addPacket);
+            InternetPool.registerDevice(RECEIVER_PORT, receiver::addPacket);
+            BlockingQueue<String> received = clock.newQueue();
+            clock.newThreadFactory("receiver-").newThread(() -> {
+                String result;
+                try {
+                    result = receive(receiver, selectiveAck ? new ReassemblyBuffer() : null);
+                } catch (Exception e) {
+                    result = e.toString();
+                }
+                received.add(result);
+            }).start();
+            try {
+                assertEquals(FIRST_SEQUENCE + DATA.length() + 2 * CHUNKS.size() - 1,
+                    TCPUtils.sendWindowed(sender, FIRST_SEQUENCE, CHUNKS, WINDOW));
+                assertEquals(DATA, received.take());
+            } finally {
+                InternetPool.unregisterDevice(SENDER_PORT);
+                InternetPool.unregisterDevice(RECEIVER_PORT);
+            }
+            return sender.getRetransmissionTimer().getRetransmissions();
+        });
+    }
+
+    /**
+     * Receives all {@link #CHUNKS} in order, then answers resent packets until the sender is quiet.
+     */
+    private static String receive(Connection conn, ReassemblyBuffer buffer) throws Exception {
+        StringBuilder data = new StringBuilder();
+        int[] acked = {FIRST_SEQUENCE - 1};
+        // the first packet is not asked for, and resending is left to the sender: the receiver
+        // only gives up once the sender is quiet for longer than its largest timeout
+        ThrowingPacketWaiter ackAndWait = () -> {
+            if (acked[0] >= FIRST_SEQUENCE) {
+                sendAck(conn, buffer, acked[0]);
+            }
+            return conn.waitForPacketTimeout(RetransmissionTimer.DEFAULT_MAX_RTO);
+        };
+        for (int i = 0; i < CHUNKS.size(); i++) {
+            Packet packet = buffer != null
+                ? TCPUtils.tryInOrder(conn, buffer, ackAndWait, acked[0] + 1)
+                : TCPUtils.tryInOrder(conn, ackAndWait, acked[0] + 1);
+            data.append(packet.getData());
+            acked[0] = packet.getSequenceNumber() + packet.getPayloadLength() + 1;
+        }
+        sendAck(conn, buffer, acked[0]);
+        while (true) {
+            try {
+                conn.waitForPacketTimeout(RetransmissionTimer.DEFAULT_MAX_RTO);
+            } catch (TimeoutException e) {
+                return data.toString();
+            }
+            sendAck(conn, buffer, acked[0]);
+        }
+    }
+
+    private static void sendAck(Connection conn, ReassemblyBuffer buffer, int acked) throws InternetException {
+        conn.sendPacket(acked, PacketType.ACK, null, buffer != null ? buffer.withSack(null) : null);
+    }
+}